@@ -0,0 +1,34 @@
+plugins {
+    java
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+val benchmarkGroup = "benchmark"
+
+dependencies {
+    jmh(platform("org.springframework.boot:spring-boot-dependencies:3.4.4"))
+    jmh(project(":consumer-group"))
+    jmh("io.lettuce:lettuce-core")
+    jmh("io.projectreactor:reactor-core")
+    jmh("io.micrometer:micrometer-core")
+    jmh("com.github.ben-manes.caffeine:caffeine")
+}
+
+jmh {
+    warmupIterations = 2
+    iterations = 5
+    fork = 1
+    resultFormat = "JSON"
+    profilers = listOf("gc", "com.akarakoutev.benchmarks.FootprintProfiler")
+    resultsFile = layout.buildDirectory.file("results/jmh/results.json")
+    humanOutputFile = layout.buildDirectory.file("results/jmh/human.txt")
+    providers.gradleProperty("jmh.includes").orNull?.let { includes = listOf(it) }
+    jvmArgsAppend = listOfNotNull(
+        providers.gradleProperty("redis.uri").orNull?.let { "-Dredis.uri=$it" },
+        providers.gradleProperty("redis.cluster.nodes").orNull?.let { "-Dredis.cluster.nodes=$it" }
+    )
+}
+
+tasks.named("jmh") {
+    group = benchmarkGroup
+}
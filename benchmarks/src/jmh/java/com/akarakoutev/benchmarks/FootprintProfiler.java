@@ -0,0 +1,54 @@
+package com.akarakoutev.benchmarks;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reports the sizes recorded by a benchmark via {@link #record} as secondary results of the iteration, so that they end up in the JMH results
+ * next to the timings. Unlike {@code @AuxCounters}, which are summed up, the sizes are averaged over the iterations.
+ */
+public class FootprintProfiler implements InternalProfiler {
+
+    private static final String RESULT_PREFIX = "footprint.";
+    private static final String UNIT = "bytes";
+    private static final Map<String, Double> footprint = new LinkedHashMap<>();
+
+    /**
+     * Records a size to be reported at the end of the current iteration. Meant to be called from a {@code @TearDown(Level.Iteration)} method.
+     */
+    public static void record(String label, double bytes) {
+        synchronized (footprint) {
+            footprint.put(label, bytes);
+        }
+    }
+
+    @Override
+    public String getDescription() {
+        return "Bytes per message, as recorded by the benchmark";
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams, IterationResult result) {
+        List<Result> results = new ArrayList<>();
+        synchronized (footprint) {
+            footprint.forEach((label, bytes) -> results.add(new ScalarResult(RESULT_PREFIX + label, bytes, UNIT, AggregationPolicy.AVG)));
+            footprint.clear();
+        }
+        return results;
+    }
+}
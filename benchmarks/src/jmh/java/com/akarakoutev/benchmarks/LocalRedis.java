@@ -0,0 +1,181 @@
+package com.akarakoutev.benchmarks;
+
+import com.akarakoutev.consumer_group.redis.RedisConfig;
+import com.akarakoutev.consumer_group.redis.RedisConnectionService;
+import com.akarakoutev.consumer_group.redis.RedisConnector;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisConnectionException;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.cluster.SlotHash;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Redis instance for benchmarks. Connects to {@code -Dredis.uri} if supplied, otherwise starts a throwaway {@code redis-server} process from the {@code PATH}.
+ * With {@code -Dredis.cluster.nodes=<n>}, {@code n} processes are started with {@code --cluster-enabled} instead and joined into a Redis Cluster,
+ * with the slots split evenly between them.
+ */
+public class LocalRedis implements AutoCloseable {
+
+    private static final String REDIS_URI_PROPERTY = "redis.uri";
+    private static final String CLUSTER_NODES_PROPERTY = "redis.cluster.nodes";
+    private static final String LOCALHOST = "127.0.0.1";
+    private static final String CLUSTER_STATE_OK = "cluster_state:ok";
+    private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(10);
+    private static final int SHARED_CONNECTIONS = 4;
+    private static final int CLUSTER_BUS_PORT_OFFSET = 10_000;
+    private static final int MAX_PORT = 65_535;
+
+    private final List<Process> redisProcesses;
+    private final RedisConnector redisConnector;
+    private final StatefulRedisPubSubConnection<String, byte[]> pubSubConnection;
+
+    private LocalRedis(List<Process> redisProcesses, RedisConnector redisConnector) {
+        this.redisProcesses = redisProcesses;
+        this.redisConnector = redisConnector;
+        this.pubSubConnection = redisConnector.connectPubSub(RedisConfig.RAW_VALUE_CODEC);
+    }
+
+    public static LocalRedis start() throws IOException {
+        String redisUri = System.getProperty(REDIS_URI_PROPERTY);
+        if (redisUri != null) {
+            RedisClient redisClient = RedisClient.create(RedisURI.create(redisUri));
+            awaitStartup(redisClient);
+            return new LocalRedis(List.of(), RedisConnector.standalone(redisClient));
+        }
+
+        int clusterNodes = Integer.getInteger(CLUSTER_NODES_PROPERTY, 0);
+        if (clusterNodes > 0) return startCluster(clusterNodes);
+
+        int port = freePort();
+        Process redisProcess = startProcess("--port", String.valueOf(port));
+        RedisClient redisClient = RedisClient.create(RedisURI.create(LOCALHOST, port));
+        awaitStartup(redisClient);
+        return new LocalRedis(List.of(redisProcess), RedisConnector.standalone(redisClient));
+    }
+
+    public RedisConnector redisConnector() {
+        return redisConnector;
+    }
+
+    public RedisConnectionService connectionService() {
+        return new RedisConnectionService(redisConnector, pubSubConnection, SHARED_CONNECTIONS);
+    }
+
+    @Override
+    public void close() {
+        pubSubConnection.close();
+        redisConnector.shutdown();
+        redisProcesses.forEach(Process::destroy);
+    }
+
+    /**
+     * Start the nodes of a cluster, assign each of them an even share of the slots and introduce them to each other, then wait until the cluster reports
+     * that all slots are served
+     * @param nodeCount The number of nodes
+     * @return The started cluster
+     */
+    private static LocalRedis startCluster(int nodeCount) throws IOException {
+        Path clusterDirectory = Files.createTempDirectory("redis-cluster");
+        List<Process> redisProcesses = new ArrayList<>(nodeCount);
+        List<RedisURI> nodeUris = new ArrayList<>(nodeCount);
+        for (int node = 0; node < nodeCount; node++) {
+            int port = freeClusterPort();
+            redisProcesses.add(startProcess(
+                    "--port", String.valueOf(port),
+                    "--cluster-enabled", "yes",
+                    "--cluster-config-file", String.format("nodes-%d.conf", port),
+                    "--dir", clusterDirectory.toString()
+            ));
+            nodeUris.add(RedisURI.create(LOCALHOST, port));
+        }
+
+        List<RedisClient> nodeClients = nodeUris.stream().map(RedisClient::create).toList();
+        try {
+            for (int node = 0; node < nodeCount; node++) {
+                awaitStartup(nodeClients.get(node));
+                int[] slots = IntStream.range(node * SlotHash.SLOT_COUNT / nodeCount, (node + 1) * SlotHash.SLOT_COUNT / nodeCount).toArray();
+                try (StatefulRedisConnection<String, String> connection = nodeClients.get(node).connect()) {
+                    connection.sync().clusterAddSlots(slots);
+                }
+            }
+            try (StatefulRedisConnection<String, String> connection = nodeClients.get(0).connect()) {
+                for (RedisURI nodeUri : nodeUris.subList(1, nodeCount)) connection.sync().clusterMeet(nodeUri.getHost(), nodeUri.getPort());
+            }
+            for (RedisClient nodeClient : nodeClients) awaitClusterState(nodeClient);
+        } finally {
+            nodeClients.forEach(RedisClient::shutdown);
+        }
+        return new LocalRedis(redisProcesses, RedisConnector.cluster(RedisClusterClient.create(nodeUris)));
+    }
+
+    private static Process startProcess(String... arguments) throws IOException {
+        List<String> command = new ArrayList<>(List.of("redis-server", "--save", "", "--appendonly", "no"));
+        command.addAll(List.of(arguments));
+        return new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+    }
+
+    private static void awaitStartup(RedisClient redisClient) {
+        Instant deadline = Instant.now().plus(STARTUP_TIMEOUT);
+        while (true) {
+            try (StatefulRedisConnection<String, String> connection = redisClient.connect()) {
+                connection.sync().flushall();
+                return;
+            } catch (RedisConnectionException e) {
+                if (Instant.now().isAfter(deadline)) throw e;
+                sleep();
+            }
+        }
+    }
+
+    private static void awaitClusterState(RedisClient nodeClient) {
+        Instant deadline = Instant.now().plus(STARTUP_TIMEOUT);
+        try (StatefulRedisConnection<String, String> connection = nodeClient.connect()) {
+            while (!connection.sync().clusterInfo().contains(CLUSTER_STATE_OK)) {
+                if (Instant.now().isAfter(deadline)) throw new IllegalStateException("The local Redis Cluster did not reach a healthy state");
+                sleep();
+            }
+        }
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(50);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Pick a free port, whose cluster bus port, {@code 10000} above it, is a valid port as well
+     * @return The port
+     */
+    private static int freeClusterPort() throws IOException {
+        int port;
+        do {
+            port = freePort();
+        } while (port + CLUSTER_BUS_PORT_OFFSET > MAX_PORT);
+        return port;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
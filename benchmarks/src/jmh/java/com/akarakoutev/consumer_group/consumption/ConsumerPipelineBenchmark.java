@@ -0,0 +1,112 @@
+package com.akarakoutev.consumer_group.consumption;
+
+import com.akarakoutev.benchmarks.LocalRedis;
+import com.akarakoutev.consumer_group.consumption.domain.Message;
+import com.akarakoutev.consumer_group.deduplication.IdempotencyCache;
+import com.akarakoutev.consumer_group.lock.LockService;
+import com.akarakoutev.consumer_group.recording.ProcessedMessageStream;
+import com.akarakoutev.consumer_group.redis.AtomicRedisLockService;
+import com.akarakoutev.consumer_group.redis.RedisConnectionService;
+import com.akarakoutev.consumer_group.redis.RedisLockService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Messages per second through the full {@link AbstractConsumer} pipeline - lock, process, record and release - one message at a time,
+ * in reactive batches and as blocking pipelines on virtual threads, as done by the {@link MessageDispatcher} in each of its execution modes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ConsumerPipelineBenchmark {
+
+    private static final int BATCH_SIZE = 256;
+    private static final long LOCK_DURATION_SECONDS = 10;
+    private static final long IDEMPOTENCY_CACHE_SIZE = 100_000;
+
+    @Param({"setnx", "atomic"})
+    public String lockType;
+
+    @Param({"true", "false"})
+    public boolean lockRequired;
+
+    private LocalRedis localRedis;
+    private RedisConnectionService redisConnectionService;
+    private ObjectMapper objectMapper;
+    private MessageIdJsonConsumer consumer;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        localRedis = LocalRedis.start();
+        redisConnectionService = localRedis.connectionService();
+        LockService lockService = switch (lockType) {
+            case "setnx" -> new RedisLockService(redisConnectionService, LOCK_DURATION_SECONDS);
+            case "atomic" -> new AtomicRedisLockService(redisConnectionService, LOCK_DURATION_SECONDS);
+            default -> throw new IllegalArgumentException(lockType);
+        };
+        objectMapper = new ObjectMapper();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ConsumerMetrics consumerMetrics = new ConsumerMetrics(meterRegistry);
+        IdempotencyCache idempotencyCache = new IdempotencyCache(LOCK_DURATION_SECONDS, IDEMPOTENCY_CACHE_SIZE, meterRegistry);
+        ProcessedMessageStream processedMessageStream = new ProcessedMessageStream(1, "none", 0, 0, "text");
+        consumer = new MessageIdJsonConsumer(lockService, redisConnectionService, consumerMetrics, idempotencyCache, processedMessageStream, objectMapper);
+    }
+
+    @TearDown(Level.Iteration)
+    public void trimProcessedMessages() {
+        redisConnectionService.executeSync(syncCommands -> syncCommands.del(AbstractConsumer.PROCESSED_MESSAGES_KEY));
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        localRedis.close();
+    }
+
+    @Benchmark
+    public Boolean single() {
+        return consumer.consume(newMessage(), lockRequired).block();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<Boolean> batch() {
+        List<JsonNode> messages = new ArrayList<>(BATCH_SIZE);
+        for (int index = 0; index < BATCH_SIZE; index++) messages.add(newMessage());
+        return consumer.consume(messages, lockRequired).block();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void virtualThreads() {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int index = 0; index < BATCH_SIZE; index++) {
+                JsonNode message = newMessage();
+                executor.execute(() -> consumer.consumeBlocking(message, lockRequired));
+            }
+        }
+    }
+
+    private JsonNode newMessage() {
+        return objectMapper.createObjectNode().put(Message.MESSAGE_ID_KEY, UUID.randomUUID().toString());
+    }
+}
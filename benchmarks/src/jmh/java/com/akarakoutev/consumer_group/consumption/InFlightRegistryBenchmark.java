@@ -0,0 +1,110 @@
+package com.akarakoutev.consumer_group.consumption;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cost of tracking a consumed message and its lock: register it and its lock, then release the lock of and unregister a message, which was registered
+ * {@code IN_FLIGHT_WINDOW} messages earlier, so every thread keeps a window of messages in flight. Run with several threads sharing one registry, the way the
+ * concurrency of a consumer shares it. Compares the {@link InFlightRegistry} with a {@code ConcurrentHashMap} of {@code UUID}s to their states, given already
+ * parsed identifiers, and with the set of lock keys and the counter, which tracked held locks and messages in flight before.
+ * Allocation rates are reported by the {@code gc} profiler as {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+public class InFlightRegistryBenchmark {
+
+    private static final int KEY_COUNT = 4096;
+    private static final int IN_FLIGHT_WINDOW = 256;
+    private static final int EXPECTED_IN_FLIGHT_MESSAGES = 1024;
+    private static final int IN_FLIGHT = 1;
+    private static final int LOCKED = 2;
+
+    private InFlightRegistry registry;
+    private ConcurrentHashMap<UUID, Integer> states;
+    private Set<String> heldLocks;
+    private AtomicInteger inFlightMessages;
+
+    @State(Scope.Thread)
+    public static class Messages {
+        private String[] keys;
+        private UUID[] ids;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            keys = new String[KEY_COUNT];
+            ids = new UUID[KEY_COUNT];
+            for (int index = 0; index < KEY_COUNT; index++) {
+                ids[index] = UUID.randomUUID();
+                keys[index] = ids[index].toString();
+            }
+        }
+
+        /**
+         * @return The index of the next message, whose predecessor by {@code IN_FLIGHT_WINDOW} messages is finished
+         */
+        int advance() {
+            next = (next + 1) & (KEY_COUNT - 1);
+            return next;
+        }
+
+        static int finished(int index) {
+            return (index - IN_FLIGHT_WINDOW) & (KEY_COUNT - 1);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        registry = new InFlightRegistry(EXPECTED_IN_FLIGHT_MESSAGES);
+        states = new ConcurrentHashMap<>(2 * EXPECTED_IN_FLIGHT_MESSAGES);
+        heldLocks = ConcurrentHashMap.newKeySet(2 * EXPECTED_IN_FLIGHT_MESSAGES);
+        inFlightMessages = new AtomicInteger();
+    }
+
+    @Benchmark
+    public boolean registry(Messages messages) {
+        int index = messages.advance();
+        String key = messages.keys[index];
+        String finishedKey = messages.keys[Messages.finished(index)];
+        registry.register(key);
+        registry.lock(key);
+        registry.unlock(finishedKey);
+        return registry.unregister(finishedKey);
+    }
+
+    @Benchmark
+    public Integer concurrentHashMap(Messages messages) {
+        int index = messages.advance();
+        UUID id = messages.ids[index];
+        UUID finishedId = messages.ids[Messages.finished(index)];
+        states.merge(id, IN_FLIGHT, (previous, flag) -> previous | flag);
+        states.merge(id, LOCKED, (previous, flag) -> previous | flag);
+        states.computeIfPresent(finishedId, (__, previous) -> (previous & ~LOCKED) == 0 ? null : previous & ~LOCKED);
+        return states.computeIfPresent(finishedId, (__, previous) -> (previous & ~IN_FLIGHT) == 0 ? null : previous & ~IN_FLIGHT);
+    }
+
+    @Benchmark
+    public boolean concurrentKeySet(Messages messages) {
+        int index = messages.advance();
+        inFlightMessages.incrementAndGet();
+        heldLocks.add(messages.keys[index]);
+        inFlightMessages.decrementAndGet();
+        return heldLocks.remove(messages.keys[Messages.finished(index)]);
+    }
+}
@@ -0,0 +1,96 @@
+package com.akarakoutev.consumer_group.consumption;
+
+import com.akarakoutev.benchmarks.LocalRedis;
+import com.akarakoutev.consumer_group.consumption.domain.Message;
+import com.akarakoutev.consumer_group.deduplication.IdempotencyCache;
+import com.akarakoutev.consumer_group.lock.LockService;
+import com.akarakoutev.consumer_group.recording.ProcessedMessageStream;
+import com.akarakoutev.consumer_group.redis.AtomicRedisLockService;
+import com.akarakoutev.consumer_group.redis.RedisConnectionService;
+import com.akarakoutev.consumer_group.source.SourceMessage;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a raw payload into the fields of its stream entry: parse, validate, identify, process and build the {@code XADD} arguments.
+ * Compares the {@code JsonNode} tree path of {@link MessageIdJsonConsumer} with the streaming path of {@link StreamingMessageIdConsumer}.
+ * Allocation rates are reported by the {@code gc} profiler as {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class IngestionBenchmark {
+
+    private static final int MESSAGE_COUNT = 1024;
+    private static final long LOCK_DURATION_SECONDS = 10;
+    private static final long IDEMPOTENCY_CACHE_SIZE = 100_000;
+
+    private LocalRedis localRedis;
+    private MessageIdJsonConsumer jsonConsumer;
+    private StreamingMessageIdConsumer streamingConsumer;
+    private SourceMessage[] rawMessages;
+    private int nextMessage;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        localRedis = LocalRedis.start();
+        RedisConnectionService redisConnectionService = localRedis.connectionService();
+        LockService lockService = new AtomicRedisLockService(redisConnectionService, LOCK_DURATION_SECONDS);
+        ObjectMapper objectMapper = new ObjectMapper();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ConsumerMetrics consumerMetrics = new ConsumerMetrics(meterRegistry);
+        IdempotencyCache idempotencyCache = new IdempotencyCache(LOCK_DURATION_SECONDS, IDEMPOTENCY_CACHE_SIZE, meterRegistry);
+        ProcessedMessageStream processedMessageStream = new ProcessedMessageStream(1, "none", 0, 0, "text");
+        jsonConsumer = new MessageIdJsonConsumer(lockService, redisConnectionService, consumerMetrics, idempotencyCache, processedMessageStream, objectMapper);
+        streamingConsumer = new StreamingMessageIdConsumer(lockService, redisConnectionService, consumerMetrics, idempotencyCache, processedMessageStream, objectMapper);
+
+        rawMessages = new SourceMessage[MESSAGE_COUNT];
+        for (int index = 0; index < MESSAGE_COUNT; index++) {
+            String payload = String.format("{\"%s\":\"%s\"}", Message.MESSAGE_ID_KEY, UUID.randomUUID());
+            rawMessages[index] = new SourceMessage("messages:published", null, payload.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        localRedis.close();
+    }
+
+    @Benchmark
+    public Object[] tree(Blackhole blackhole) {
+        JsonNode message = jsonConsumer.parse(nextRawMessage());
+        jsonConsumer.validate(message);
+        blackhole.consume(jsonConsumer.identify(message));
+        return jsonConsumer.toStreamEntry(jsonConsumer.process(message).block());
+    }
+
+    @Benchmark
+    public Object[] streaming(Blackhole blackhole) {
+        Message message = streamingConsumer.parse(nextRawMessage());
+        streamingConsumer.validate(message);
+        blackhole.consume(streamingConsumer.identify(message));
+        return streamingConsumer.toStreamEntry(streamingConsumer.process(message).block());
+    }
+
+    private SourceMessage nextRawMessage() {
+        SourceMessage rawMessage = rawMessages[nextMessage];
+        nextMessage = (nextMessage + 1) % MESSAGE_COUNT;
+        return rawMessage;
+    }
+}
@@ -0,0 +1,110 @@
+package com.akarakoutev.consumer_group.consumption;
+
+import com.akarakoutev.benchmarks.LocalRedis;
+import com.akarakoutev.consumer_group.consumption.domain.Message;
+import com.akarakoutev.consumer_group.deduplication.IdempotencyCache;
+import com.akarakoutev.consumer_group.recording.ProcessedMessageStream;
+import com.akarakoutev.consumer_group.redis.AtomicRedisLockService;
+import com.akarakoutev.consumer_group.redis.RedisConnectionService;
+import com.akarakoutev.consumer_group.source.SourceMessage;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of each stage of {@link MessageIdJsonConsumer} in isolation. Only {@link #record()} makes a round trip to Redis.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageIdJsonConsumerBenchmark {
+
+    private static final int MESSAGE_COUNT = 1024;
+    private static final long LOCK_DURATION_SECONDS = 10;
+    private static final long IDEMPOTENCY_CACHE_SIZE = 100_000;
+
+    private LocalRedis localRedis;
+    private RedisConnectionService redisConnectionService;
+    private MessageIdJsonConsumer consumer;
+    private SourceMessage[] rawMessages;
+    private JsonNode[] messages;
+    private JsonNode[] processedMessages;
+    private int nextMessage;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        localRedis = LocalRedis.start();
+        redisConnectionService = localRedis.connectionService();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        consumer = new MessageIdJsonConsumer(
+                new AtomicRedisLockService(redisConnectionService, LOCK_DURATION_SECONDS),
+                redisConnectionService,
+                new ConsumerMetrics(meterRegistry),
+                new IdempotencyCache(LOCK_DURATION_SECONDS, IDEMPOTENCY_CACHE_SIZE, meterRegistry),
+                new ProcessedMessageStream(1, "none", 0, 0, "text"),
+                new ObjectMapper()
+        );
+
+        rawMessages = new SourceMessage[MESSAGE_COUNT];
+        messages = new JsonNode[MESSAGE_COUNT];
+        processedMessages = new JsonNode[MESSAGE_COUNT];
+        for (int index = 0; index < MESSAGE_COUNT; index++) {
+            String payload = String.format("{\"%s\":\"%s\"}", Message.MESSAGE_ID_KEY, UUID.randomUUID());
+            rawMessages[index] = new SourceMessage("messages:published", null, payload.getBytes(StandardCharsets.UTF_8));
+            messages[index] = consumer.parse(rawMessages[index]);
+            processedMessages[index] = consumer.process(messages[index]).block();
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void trimProcessedMessages() {
+        redisConnectionService.executeSync(syncCommands -> syncCommands.del(AbstractConsumer.PROCESSED_MESSAGES_KEY));
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        localRedis.close();
+    }
+
+    @Benchmark
+    public JsonNode parse() {
+        return consumer.parse(rawMessages[nextIndex()]);
+    }
+
+    @Benchmark
+    public JsonNode validate() {
+        JsonNode message = messages[nextIndex()];
+        consumer.validate(message);
+        return message;
+    }
+
+    @Benchmark
+    public JsonNode process() {
+        return consumer.process(messages[nextIndex()]).block();
+    }
+
+    @Benchmark
+    public Boolean record() {
+        return consumer.record(processedMessages[nextIndex()]).block();
+    }
+
+    private int nextIndex() {
+        int index = nextMessage;
+        nextMessage = (nextMessage + 1) % MESSAGE_COUNT;
+        return index;
+    }
+}
@@ -0,0 +1,132 @@
+package com.akarakoutev.consumer_group.consumption;
+
+import com.akarakoutev.benchmarks.FootprintProfiler;
+import com.akarakoutev.benchmarks.LocalRedis;
+import com.akarakoutev.consumer_group.consumption.domain.Message;
+import com.akarakoutev.consumer_group.deduplication.IdempotencyCache;
+import com.akarakoutev.consumer_group.lock.LockService;
+import com.akarakoutev.consumer_group.parsing.PayloadFormat;
+import com.akarakoutev.consumer_group.parsing.UuidParser;
+import com.akarakoutev.consumer_group.recording.ProcessedMessageStream;
+import com.akarakoutev.consumer_group.redis.AtomicRedisLockService;
+import com.akarakoutev.consumer_group.redis.RedisConnectionService;
+import com.akarakoutev.consumer_group.source.SourceMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the payload and stream entry formats. {@code parse} reads the {@code message_id} of a payload in each {@link PayloadFormat} with
+ * {@link StreamingMessageIdConsumer}, where the binary formats carry it as 16 raw bytes. {@code record} appends a processed message to the stream
+ * as a text or binary entry. At the end of each iteration, the footprint is reported to {@link FootprintProfiler} as secondary results:
+ * bytes per payload and per stream entry on the wire, and the Redis memory per recorded message, as reported by {@code MEMORY USAGE}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SerializationFormatBenchmark {
+
+    private static final int MESSAGE_COUNT = 1024;
+    private static final long LOCK_DURATION_SECONDS = 10;
+    private static final long IDEMPOTENCY_CACHE_SIZE = 100_000;
+
+    @Param({"json", "smile", "cbor", "msgpack"})
+    public String payloadFormat;
+
+    @Param({"text", "binary"})
+    public String entryFormat;
+
+    private LocalRedis localRedis;
+    private RedisConnectionService redisConnectionService;
+    private StreamingMessageIdConsumer consumer;
+    private SourceMessage[] rawMessages;
+    private Message[] processedMessages;
+    private int nextMessage;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        localRedis = LocalRedis.start();
+        redisConnectionService = localRedis.connectionService();
+        redisConnectionService.executeSync(syncCommands -> syncCommands.del(ProcessedMessageStream.PROCESSED_MESSAGES_KEY));
+        LockService lockService = new AtomicRedisLockService(redisConnectionService, LOCK_DURATION_SECONDS);
+        PayloadFormat format = PayloadFormat.fromProperty(payloadFormat);
+        ObjectMapper objectMapper = format.createObjectMapper();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        consumer = new StreamingMessageIdConsumer(
+                lockService,
+                redisConnectionService,
+                new ConsumerMetrics(meterRegistry),
+                new IdempotencyCache(LOCK_DURATION_SECONDS, IDEMPOTENCY_CACHE_SIZE, meterRegistry),
+                new ProcessedMessageStream(1, "none", 0, 0, entryFormat),
+                objectMapper
+        );
+
+        rawMessages = new SourceMessage[MESSAGE_COUNT];
+        processedMessages = new Message[MESSAGE_COUNT];
+        for (int index = 0; index < MESSAGE_COUNT; index++) {
+            UUID messageId = UUID.randomUUID();
+            Object encodedMessageId = format == PayloadFormat.JSON ? messageId.toString() : UuidParser.toBytes(messageId);
+            byte[] payload = objectMapper.writeValueAsBytes(Map.of(Message.MESSAGE_ID_KEY, encodedMessageId));
+            rawMessages[index] = new SourceMessage("messages:published", null, payload);
+            processedMessages[index] = new Message(messageId, UUID.randomUUID(), UUID.randomUUID());
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void recordFootprint() {
+        FootprintProfiler.record("payload", rawMessages[0].payload().length);
+        FootprintProfiler.record("entry", entryBytes(consumer.toStreamEntry(processedMessages[0])));
+        long entryCount = redisConnectionService.executeSync(syncCommands -> syncCommands.xlen(ProcessedMessageStream.PROCESSED_MESSAGES_KEY));
+        if (entryCount > 0) {
+            Long memoryUsage = redisConnectionService.executeSync(syncCommands -> syncCommands.memoryUsage(ProcessedMessageStream.PROCESSED_MESSAGES_KEY));
+            FootprintProfiler.record("redisMemory", (double) memoryUsage / entryCount);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        localRedis.close();
+    }
+
+    @Benchmark
+    public Message parse() {
+        return consumer.parse(rawMessages[nextIndex()]);
+    }
+
+    @Benchmark
+    public Boolean record() {
+        return consumer.record(processedMessages[nextIndex()]).block();
+    }
+
+    private int nextIndex() {
+        int index = nextMessage;
+        nextMessage = (nextMessage + 1) % MESSAGE_COUNT;
+        return index;
+    }
+
+    /**
+     * @return The bytes of the field names and values of a stream entry, as sent to Redis
+     */
+    private static int entryBytes(Object[] entry) {
+        int bytes = 0;
+        for (Object fieldOrValue : entry) {
+            bytes += fieldOrValue instanceof byte[] raw ? raw.length : fieldOrValue.toString().getBytes(StandardCharsets.UTF_8).length;
+        }
+        return bytes;
+    }
+}
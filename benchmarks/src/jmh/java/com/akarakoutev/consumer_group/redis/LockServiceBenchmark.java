@@ -0,0 +1,73 @@
+package com.akarakoutev.consumer_group.redis;
+
+import com.akarakoutev.benchmarks.LocalRedis;
+import com.akarakoutev.consumer_group.lock.LockService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock round trips per second for each {@link LockService} implementation. Run with several threads, so that the monitor of {@link RedisLockService}
+ * is contended the same way it is by a consumer group.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(4)
+public class LockServiceBenchmark {
+
+    private static final long LOCK_DURATION_SECONDS = 10;
+
+    @Param({"setnx", "atomic"})
+    public String lockType;
+
+    private final AtomicLong keySequence = new AtomicLong();
+    private final String owner = UUID.randomUUID().toString();
+    private LocalRedis localRedis;
+    private LockService lockService;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        localRedis = LocalRedis.start();
+        RedisConnectionService redisConnectionService = localRedis.connectionService();
+        lockService = switch (lockType) {
+            case "setnx" -> new RedisLockService(redisConnectionService, LOCK_DURATION_SECONDS);
+            case "atomic" -> new AtomicRedisLockService(redisConnectionService, LOCK_DURATION_SECONDS);
+            default -> throw new IllegalArgumentException(lockType);
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        localRedis.close();
+    }
+
+    @Benchmark
+    public Boolean acquire() {
+        return lockService.acquireLock(nextKey(), owner).block();
+    }
+
+    @Benchmark
+    public Boolean acquireAndRelease() {
+        String key = nextKey();
+        lockService.acquireLock(key, owner).block();
+        return lockService.releaseLock(key, owner).block();
+    }
+
+    private String nextKey() {
+        return "lock:" + keySequence.incrementAndGet();
+    }
+}
@@ -17,7 +17,7 @@ dockerCompose {
 
 java {
     toolchain {
-        languageVersion = JavaLanguageVersion.of(17)
+        languageVersion = JavaLanguageVersion.of(21)
     }
 }
 
@@ -25,6 +25,15 @@ subprojects {
     repositories {
         mavenCentral()
     }
+
+    // Java 21 is the minimum for every module, since the consumer group runs on virtual threads
+    plugins.withType<JavaPlugin> {
+        extensions.configure<JavaPluginExtension> {
+            toolchain {
+                languageVersion = JavaLanguageVersion.of(21)
+            }
+        }
+    }
 }
 
 tasks.named("composeUp") {
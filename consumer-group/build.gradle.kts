@@ -15,7 +15,13 @@ val consumerGroupContainerName = "redis-consumer-group"
 dependencies {
 	implementation("org.springframework.boot:spring-boot-starter-json:3.4.4")
 	implementation("org.springframework.boot:spring-boot-starter-data-redis-reactive")
-	implementation("org.apache.commons:commons-pool2")
+	implementation("org.springframework.boot:spring-boot-starter-webflux")
+	implementation("org.springframework.boot:spring-boot-starter-actuator")
+	implementation("com.github.ben-manes.caffeine:caffeine")
+	implementation("com.fasterxml.jackson.dataformat:jackson-dataformat-smile")
+	implementation("com.fasterxml.jackson.dataformat:jackson-dataformat-cbor")
+	implementation("org.msgpack:jackson-dataformat-msgpack:0.9.8")
+	runtimeOnly("io.micrometer:micrometer-registry-prometheus")
 	testImplementation("org.springframework.boot:spring-boot-starter-test")
 	testImplementation("org.springframework.boot:spring-boot-testcontainers")
 	testImplementation("com.redis:testcontainers-redis")
@@ -1,37 +1,90 @@
 package com.akarakoutev.consumer_group;
 
-import com.akarakoutev.consumer_group.consumption.AbstractConsumer;
+import com.akarakoutev.consumer_group.recording.ProcessedMessageStream;
 import com.akarakoutev.consumer_group.redis.RedisConnectionService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Component
 public class StateReportService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(StateReportService.class);
 
-    private final RedisConnectionService redisConnectionService;
-    private static long CURRENT_STREAM_SIZE = 0;
+    private static final String ENTRIES_ADDED_FIELD = "entries-added";
+    private static final String LENGTH_FIELD = "length";
+    private static final String NO_SUCH_KEY_ERROR = "ERR no such key";
     private static final int REPORT_SECONDS = 5;
 
+    private final RedisConnectionService redisConnectionService;
+    private final ProcessedMessageStream processedMessageStream;
+    private final AtomicLong processedMessageCount = new AtomicLong();
+    private final AtomicLong lastReportMillis = new AtomicLong(System.currentTimeMillis());
+
     @Autowired
-    public StateReportService(RedisConnectionService redisConnectionService) {
+    public StateReportService(RedisConnectionService redisConnectionService, ProcessedMessageStream processedMessageStream, MeterRegistry meterRegistry) {
         this.redisConnectionService = redisConnectionService;
+        this.processedMessageStream = processedMessageStream;
+        Gauge.builder("messages.processed.total", processedMessageCount, AtomicLong::get)
+                .description("Entries ever added to all shards of the processed messages stream, as of the last report")
+                .register(meterRegistry);
     }
 
     /**
-     * Report the processing speed at a constant rate.
+     * Report the processing speed at a constant rate. The number of entries ever added to each shard is used rather than its length, since shards may be trimmed.
+     * If any shard can not be read, the report is skipped rather than counting the shard as empty, and the next report covers the time since the last one.
      */
     @Scheduled(fixedRate = REPORT_SECONDS * 1000)
     private void reportProcessedMessages() {
-        redisConnectionService.executeReactive(reactiveCommands ->
-                reactiveCommands.xlen(AbstractConsumer.PROCESSED_MESSAGES_KEY)
-                        .doOnNext(streamSize -> LOGGER.info("Average processing speed for the last {} seconds: {} m/s", REPORT_SECONDS, (streamSize - CURRENT_STREAM_SIZE) / REPORT_SECONDS))
-                        .doOnNext(streamSize -> CURRENT_STREAM_SIZE = streamSize)
-                        .subscribe()
+        Flux.fromIterable(processedMessageStream.keys())
+                .flatMap(this::entriesAdded)
+                .reduce(0L, Long::sum)
+                .doOnNext(messageCount -> {
+                    long nowMillis = System.currentTimeMillis();
+                    long elapsedMillis = Math.max(1, nowMillis - lastReportMillis.getAndSet(nowMillis));
+                    long previousMessageCount = processedMessageCount.getAndSet(messageCount);
+                    LOGGER.info("Average processing speed for the last {} seconds: {} m/s", elapsedMillis / 1000, (messageCount - previousMessageCount) * 1000 / elapsedMillis);
+                })
+                .doOnError(error -> LOGGER.warn("Skipping processing speed report, since a shard of the processed messages stream could not be read", error))
+                .onErrorComplete()
+                .subscribe();
+        LOGGER.debug("Redis connections: {}", redisConnectionService.getStats());
+    }
+
+    /**
+     * Read the number of entries ever added to a stream shard. Falls back to the length of the shard on Redis versions before 7.0.
+     * @param key The stream key of the shard
+     * @return A {@code Mono<Long>} containing the number of entries, or {@code 0} if the shard does not exist yet
+     */
+    private Mono<Long> entriesAdded(String key) {
+        return redisConnectionService.executeReactive(reactiveCommands ->
+                reactiveCommands.xinfoStream(key)
+                        .collectList()
+                        .map(StateReportService::entriesAdded)
+                        .onErrorResume(StateReportService::isNoSuchKey, __ -> Mono.just(0L))
         );
     }
+
+    private static boolean isNoSuchKey(Throwable error) {
+        return error.getMessage() != null && error.getMessage().startsWith(NO_SUCH_KEY_ERROR);
+    }
+
+    private static long entriesAdded(List<Object> streamInfo) {
+        Long length = 0L;
+        for (int index = 0; index + 1 < streamInfo.size(); index += 2) {
+            Object field = streamInfo.get(index);
+            if (ENTRIES_ADDED_FIELD.equals(field)) return (Long) streamInfo.get(index + 1);
+            if (LENGTH_FIELD.equals(field)) length = (Long) streamInfo.get(index + 1);
+        }
+        return length;
+    }
 }
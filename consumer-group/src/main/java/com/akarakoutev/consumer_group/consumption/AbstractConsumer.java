@@ -1,49 +1,96 @@
 package com.akarakoutev.consumer_group.consumption;
 
+import com.akarakoutev.consumer_group.consumption.ConsumerMetrics.Stage;
+import com.akarakoutev.consumer_group.deduplication.Deduplicator;
 import com.akarakoutev.consumer_group.lock.LockService;
+import com.akarakoutev.consumer_group.exception.BatchConsumptionException;
+import com.akarakoutev.consumer_group.exception.BatchConsumptionException.Outcome;
 import com.akarakoutev.consumer_group.exception.ConsumerNotActiveException;
 import com.akarakoutev.consumer_group.exception.ConsumerRegistrationException;
+import com.akarakoutev.consumer_group.exception.PipelineException;
 import com.akarakoutev.consumer_group.parsing.Parser;
+import com.akarakoutev.consumer_group.recording.ProcessedMessageStream;
 import com.akarakoutev.consumer_group.recording.Recorder;
+import com.akarakoutev.consumer_group.recording.WriteBehindRecorder;
 import com.akarakoutev.consumer_group.redis.RedisConnectionService;
 import com.akarakoutev.consumer_group.validation.Validator;
-import io.lettuce.core.pubsub.api.reactive.ChannelMessage;
+import io.lettuce.core.RedisFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.stream.IntStream;
 
 public abstract class AbstractConsumer<T> implements Consumer<T>, Parser<T>, Validator<T>, Recorder<T> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractConsumer.class);
 
-    public static final String PROCESSED_MESSAGES_KEY = "messages:processed";
-    static final String PUBLISHED_MESSAGES_CHANNEL = "messages:published";
+    public static final String PROCESSED_MESSAGES_KEY = ProcessedMessageStream.PROCESSED_MESSAGES_KEY;
     static final String CONSUMER_ID_KEY = "consumer:ids";
     private static final String LOCK_KEY_FORMAT = "lock:%s";
+    private static final String TAGGED_LOCK_KEY_FORMAT = "lock:%s:%s";
+    private static final Duration REGISTRATION_DURATION = Duration.of(10, ChronoUnit.SECONDS);
+    private static final long HEXPIRE_FIELD_MISSING = -2L;
+    /**
+     * The default concurrency of a consumer times the default batch size
+     */
+    private static final int EXPECTED_IN_FLIGHT_MESSAGES = 1024;
 
-    private boolean consumerActive = true;
+    private volatile boolean consumerActive = true;
+    private volatile long registrationExpiryNanos;
     private final LockService lockService;
+    private final ConsumerMetrics metrics;
+    private final Deduplicator deduplicator;
+    private final InFlightRegistry inFlight = new InFlightRegistry(EXPECTED_IN_FLIGHT_MESSAGES);
     protected final UUID consumerId;
     protected final RedisConnectionService redisConnectionService;
+    protected final ProcessedMessageStream processedMessageStream;
+    private WriteBehindRecorder writeBehindRecorder;
 
     public AbstractConsumer(
             LockService lockService,
-            RedisConnectionService redisConnectionService
+            RedisConnectionService redisConnectionService,
+            ConsumerMetrics metrics,
+            Deduplicator deduplicator,
+            ProcessedMessageStream processedMessageStream
     ) {
         this.lockService = lockService;
+        this.metrics = metrics;
+        this.deduplicator = deduplicator;
         this.consumerId = UUID.randomUUID();
         this.redisConnectionService = redisConnectionService;
+        this.processedMessageStream = processedMessageStream;
+        metrics.registerInFlight(consumerId, inFlight);
 
-        init(PUBLISHED_MESSAGES_CHANNEL);
+        register();
+    }
+
+    /**
+     * Record processed messages behind the back of the consumer, when {@code consumer.output.write-behind.enabled} is set
+     * @param writeBehindRecorder The recorder, which writes the entries of processed messages in the background
+     */
+    @Autowired(required = false)
+    void setWriteBehindRecorder(WriteBehindRecorder writeBehindRecorder) {
+        this.writeBehindRecorder = writeBehindRecorder;
     }
 
     /**
      * {@inheritDoc}
+     *
+     * The check is made against the consumer registry in Redis and updates the locally cached active state. The message processing path only
+     * reads the cached state via {@link #isActive()}.
      * @return A {@code Mono<Boolean>} containing the result of the check
      */
     @Override
@@ -54,69 +101,385 @@ public abstract class AbstractConsumer<T> implements Consumer<T>, Parser<T>, Val
     }
 
     /**
-     * Initialize the consumer. Register it as an active consumer via the {@code consumerId}. The consumer is registered for the duration of 10 seconds
+     * Register the consumer as an active consumer via the {@code consumerId}. The consumer is registered for the duration of 10 seconds
      * and is responsible for refreshing this time. If the time is not refreshed, the consumer will not consume messages and will not be considered active.
-     * After registration, the consumer is subscribed to all supplied channels abd begins reactively listening to Redis Pub/Sub messages.
-     * @param subscriptionChannels The redis pub/sub channels, to which to subscribe
+     * Incoming messages are handed to the consumer by the {@link MessageDispatcher} of its group.
      */
-    private void init(String... subscriptionChannels) {
+    private void register() {
+        long registrationStartNanos = System.nanoTime();
         redisConnectionService.executeReactive(reactiveCommands ->
             reactiveCommands
                     .hset(CONSUMER_ID_KEY, consumerId.toString(), "active")
                     .filter(registered -> registered)
                     .switchIfEmpty(Mono.error(new ConsumerRegistrationException(String.format("Could not register consumer %s", consumerId))))
-                    .flatMap(__ -> reactiveCommands.hexpire(CONSUMER_ID_KEY, Duration.of(10, ChronoUnit.SECONDS), consumerId.toString()).collectList())
+                    .flatMap(__ -> reactiveCommands.hexpire(CONSUMER_ID_KEY, REGISTRATION_DURATION, consumerId.toString()).collectList())
                     .filter(response -> response.get(0) == 1L)
                     .switchIfEmpty(Mono.error(new ConsumerRegistrationException(String.format("Could not set consumer expiration time for consumer %s", consumerId))))
-                    .flatMap(__ ->
-                            redisConnectionService.executeReactivePubSub(reactivePubSubCommands ->
-                                    reactivePubSubCommands
-                                            .subscribe(subscriptionChannels)
-                                            .then()
-                                            .doOnSuccess(___ ->
-                                                    reactivePubSubCommands
-                                                            .observeChannels()
-                                                            .doOnNext(____ -> {
-                                                                if (!consumerActive) throw new ConsumerNotActiveException(String.format("Consumer %s is not active", consumerId));
-                                                            })
-                                                            .doOnNext(this::process)
-                                                            .subscribe()
-                                            )
-                            )
-                    )
                     .block()
         );
+        registrationExpiryNanos = registrationStartNanos + REGISTRATION_DURATION.toNanos();
     }
 
     /**
-     * Process an incoming raw message. Main business logic for message processing. The message is parsed and validated.
-     * A lock is acquired in order to ensure it is only processed by a single consumer. It is them validated and processed by the defined processor.
-     * The result is recorded. The acquired lock is released at the end of the operation.
-     * @param rawMessage The unprocessed incoming {@code ChannelMessage}
-     * @see ChannelMessage
+     * Deregister the consumer from the consumer registry and stop refreshing its registration, so it is considered inactive by every instance.
+     * Called once the consumer has been retired from its group and has finished the messages handed to it. The consumer stays active until the returned
+     * {@code Mono} is subscribed, so it can be built ahead of the drain it follows.
+     * @return A {@code Mono<Boolean>} containing whether the consumer was still registered
      */
-    private void process(ChannelMessage<String, String> rawMessage) {
-        T message = parse(rawMessage);
-        validate(message);
-        String redisLockKey = String.format(LOCK_KEY_FORMAT, identify(message));
-        onActiveConsumer()
-                .flatMap(__ -> lockService.acquireLock(redisLockKey))
-                .flatMap(__ -> process(message))
-                .flatMap(this::record)
+    Mono<Boolean> deregister() {
+        return Mono.defer(() -> {
+                    consumerActive = false;
+                    metrics.removeInFlight(consumerId);
+                    return redisConnectionService.executeReactive(reactiveCommands -> reactiveCommands.hdel(CONSUMER_ID_KEY, consumerId.toString()));
+                })
+                .map(deletedFieldCount -> deletedFieldCount > 0)
+                .doOnNext(deregistered -> LOGGER.info("Deregistered consumer {}: {}", consumerId, deregistered));
+    }
+
+    /**
+     * Release the locks of all messages, which the consumer has locked but not yet finished, in a single batch, then deregister the consumer.
+     * Called once the group has stopped handing messages to the consumer and has given up on its remaining messages, so other consumer group instances
+     * can take over those messages right away, instead of waiting for the locks to expire.
+     * @return A {@code Mono<Boolean>} containing whether the consumer was still registered
+     */
+    Mono<Boolean> shutdown() {
+        List<String> abandonedKeys = inFlight.lockedKeys();
+        List<String> abandonedLocks = abandonedKeys.stream().map(this::lockKey).toList();
+        Mono<List<Boolean>> releasing = abandonedLocks.isEmpty()
+                ? Mono.empty()
+                : lockService.releaseLocks(abandonedLocks, consumerId.toString())
+                        .doOnNext(released -> LOGGER.info("Released {} locks of unfinished messages of consumer {}", abandonedLocks.size(), consumerId))
+                        .onErrorResume(error -> {
+                            LOGGER.error("Error releasing {} locks of consumer {}, they will expire", abandonedLocks.size(), consumerId, error);
+                            return Mono.empty();
+                        });
+        return releasing
+                .doOnNext(__ -> abandonedKeys.forEach(inFlight::unlock))
+                .then(Mono.defer(this::deregister));
+    }
+
+    /**
+     * Consume an already parsed and validated message. Main business logic for message processing.
+     * Duplicates of messages, which were recently seen by this JVM, are skipped without touching Redis.
+     * If required by the message source, a lock is acquired in order to ensure it is only processed by a single consumer across all consumer group instances.
+     * It is then processed by the defined processor. The result is recorded. The acquired lock is released at the end of the operation, even if processing
+     * or recording fails, so a failed message can be retried right away, instead of once its lock has expired.
+     * @param message The message, handed to this consumer by the {@link MessageDispatcher}
+     * @param lockRequired Whether the message has to be locked before processing
+     * @return A {@code Mono<Boolean>} containing the result of the recording operation, or {@code true} if the message is a skipped duplicate
+     */
+    Mono<Boolean> consume(T message, boolean lockRequired) {
+        checkActive();
+        String key = identify(message);
+        if (!deduplicator.markSeen(key)) return Mono.just(true);
+        String redisLockKey = lockKey(key);
+        String owner = consumerId.toString();
+        Mono<Boolean> locking = lockRequired
+                ? metrics.time(Stage.LOCK_ACQUIRE, () -> lockService.acquireLock(redisLockKey, owner))
+                        .doOnNext(__ -> inFlight.lock(key))
+                        .switchIfEmpty(Mono.fromRunnable(() -> metrics.recordLockContention(1)))
+                : Mono.just(true);
+        Mono<Boolean> processing = locking
+                .flatMap(__ -> metrics.time(Stage.PROCESS, () -> process(message)))
+                .flatMap(processedMessage -> metrics.time(Stage.RECORD, () -> record(processedMessage)))
+                .doOnNext(recorded -> {
+                    if (recorded) deduplicator.markConsumed(key);
+                })
                 .doOnError(error -> LOGGER.error("Error processing message {}", message, error))
-                .flatMap(__ -> lockService.releaseLock(redisLockKey))
-                .subscribe();
+                .doOnError(__ -> deduplicator.forget(key));
+        if (lockRequired) processing = releasingAfter(processing, List.of(key));
+        return processing
+                .doOnSubscribe(__ -> inFlight.register(key))
+                .doFinally(__ -> inFlight.unregister(key));
+    }
+
+    /**
+     * Consume a batch of already parsed and validated messages. Follows the same steps as {@link #consume(Object, boolean)}, but every Redis operation
+     * is done for the whole batch at once, so the number of round trips does not grow with the batch size.
+     * If the batch fails, it fails with a {@link BatchConsumptionException}, which tells the messages, which were recorded or are locked by another consumer,
+     * from the messages, which failed before they were recorded. Only the latter are forgotten by the deduplicator, so they can be consumed again.
+     * @param messages The messages, handed to this consumer by the {@link MessageDispatcher}
+     * @param lockRequired Whether the messages have to be locked before processing
+     * @return A {@code Mono<List<Boolean>>} containing the result of the recording operation for each message, in the order of the messages.
+     * Messages, for which a lock could not be acquired, are not recorded. Skipped duplicates are reported as {@code true}
+     */
+    Mono<List<Boolean>> consume(List<T> messages, boolean lockRequired) {
+        checkActive();
+        List<T> unseenMessages = new ArrayList<>(messages.size());
+        List<String> unseenKeys = new ArrayList<>(messages.size());
+        boolean[] duplicates = new boolean[messages.size()];
+        for (int index = 0; index < messages.size(); index++) {
+            String key = identify(messages.get(index));
+            if (deduplicator.markSeen(key)) {
+                unseenMessages.add(messages.get(index));
+                unseenKeys.add(key);
+            } else {
+                duplicates[index] = true;
+            }
+        }
+        if (unseenMessages.isEmpty()) return Mono.just(Collections.nCopies(messages.size(), true));
+
+        return consumeUnseen(unseenMessages, unseenKeys, lockRequired)
+                .onErrorMap(error -> {
+                    List<Outcome> unseenOutcomes = outcomes(error, unseenMessages.size());
+                    for (int index = 0; index < unseenKeys.size(); index++) {
+                        if (unseenOutcomes.get(index) == Outcome.FAILED) deduplicator.forget(unseenKeys.get(index));
+                    }
+                    List<Outcome> outcomes = new ArrayList<>(messages.size());
+                    Iterator<Outcome> unseenIterator = unseenOutcomes.iterator();
+                    for (boolean duplicate : duplicates) outcomes.add(duplicate ? Outcome.RECORDED : unseenIterator.next());
+                    return new BatchConsumptionException(cause(error), outcomes);
+                })
+                .map(recorded -> {
+                    List<Boolean> results = new ArrayList<>(messages.size());
+                    Iterator<Boolean> recordedIterator = recorded.iterator();
+                    for (boolean duplicate : duplicates) results.add(duplicate || recordedIterator.next());
+                    return results;
+                });
+    }
+
+    private Mono<List<Boolean>> consumeUnseen(List<T> messages, List<String> keys, boolean lockRequired) {
+        String owner = consumerId.toString();
+        List<String> lockKeys = keys.stream().map(this::lockKey).toList();
+        Mono<List<Boolean>> locking = lockRequired
+                ? metrics.time(Stage.LOCK_ACQUIRE, () -> lockService.acquireLocks(lockKeys, owner))
+                : Mono.just(Collections.nCopies(messages.size(), true));
+        return locking
+                .flatMap(locksAcquired -> {
+                    List<T> lockedMessages = new ArrayList<>(messages.size());
+                    List<String> lockedKeys = new ArrayList<>(messages.size());
+                    for (int index = 0; index < messages.size(); index++) {
+                        if (!locksAcquired.get(index)) {
+                            metrics.recordLockContention(1);
+                            continue;
+                        }
+                        lockedMessages.add(messages.get(index));
+                        lockedKeys.add(keys.get(index));
+                    }
+                    if (lockRequired) lockedKeys.forEach(inFlight::lock);
+
+                    Mono<List<Boolean>> processing = Flux.fromIterable(lockedMessages)
+                            .concatMap(message -> metrics.time(Stage.PROCESS, () -> process(message)))
+                            .collectList()
+                            .flatMap(processedMessages -> metrics.time(Stage.RECORD, () -> recordAll(processedMessages))
+                                    .onErrorMap(error -> new BatchConsumptionException(cause(error), recordOutcomes(error, processedMessages.size()))))
+                            .doOnNext(recorded -> {
+                                for (int index = 0; index < recorded.size(); index++) {
+                                    if (recorded.get(index)) deduplicator.markConsumed(lockedKeys.get(index));
+                                }
+                            })
+                            .doOnError(BatchConsumptionException.class, error -> {
+                                for (int index = 0; index < error.outcomes().size(); index++) {
+                                    if (error.outcomes().get(index) == Outcome.RECORDED) deduplicator.markConsumed(lockedKeys.get(index));
+                                }
+                            })
+                            .doOnError(error -> LOGGER.error("Error processing batch of {} messages", lockedMessages.size(), error));
+                    if (lockRequired) processing = releasingAfter(processing, lockedKeys);
+                    return processing
+                            .onErrorMap(error -> {
+                                List<Outcome> lockedOutcomes = outcomes(error, lockedMessages.size());
+                                List<Outcome> outcomes = new ArrayList<>(messages.size());
+                                Iterator<Outcome> lockedIterator = lockedOutcomes.iterator();
+                                for (Boolean lockAcquired : locksAcquired) outcomes.add(lockAcquired ? lockedIterator.next() : Outcome.CONTENDED);
+                                return new BatchConsumptionException(cause(error), outcomes);
+                            })
+                            .map(recorded -> {
+                                List<Boolean> results = new ArrayList<>(messages.size());
+                                Iterator<Boolean> recordedIterator = recorded.iterator();
+                                for (Boolean lockAcquired : locksAcquired) results.add(lockAcquired && recordedIterator.next());
+                                return results;
+                            });
+                })
+                .doOnSubscribe(__ -> keys.forEach(inFlight::register))
+                .doFinally(__ -> keys.forEach(inFlight::unregister));
+    }
+
+    /**
+     * Tell the messages of a batch, whose recording failed, which were recorded, from the ones which were not. Only a {@link PipelineException} tells
+     * which entries were written, while after any other error, no message is known to be recorded.
+     */
+    private static List<Outcome> recordOutcomes(Throwable error, int messageCount) {
+        if (!(error instanceof PipelineException pipelineError) || pipelineError.results().size() != messageCount) return Collections.nCopies(messageCount, Outcome.FAILED);
+        List<Outcome> outcomes = new ArrayList<>(messageCount);
+        for (int index = 0; index < messageCount; index++) {
+            outcomes.add(!pipelineError.failed(index) && pipelineError.results().get(index) != null ? Outcome.RECORDED : Outcome.FAILED);
+        }
+        return outcomes;
     }
 
     /**
-     * Refresh the consumer activity. If this is not called the consumer will be considered stale and will not process messages
+     * @return The outcome of each message of a batch, which failed, where all messages failed, unless the error tells otherwise
+     */
+    private static List<Outcome> outcomes(Throwable error, int messageCount) {
+        return error instanceof BatchConsumptionException batchError && batchError.outcomes().size() == messageCount
+                ? batchError.outcomes()
+                : Collections.nCopies(messageCount, Outcome.FAILED);
+    }
+
+    private static Throwable cause(Throwable error) {
+        return error instanceof BatchConsumptionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * Release held locks once processing has completed, whether it succeeded, failed or produced no result. Locks are released in a single batch, and only
+     * once, even if releasing fails, in which case the locks expire. If processing is cancelled, the locks stay held, so they are released once the consumer
+     * is shut down.
+     * @param processing The processing of the messages, for which the locks are held
+     * @param keys The unique identifiers of the messages
+     * @return The same processing, completing only once the locks have been released
+     */
+    private <R> Mono<R> releasingAfter(Mono<R> processing, List<String> keys) {
+        String owner = consumerId.toString();
+        Mono<Void> releasing = Mono.defer(() -> {
+            List<String> releasedLockKeys = keys.stream().filter(inFlight::unlock).map(this::lockKey).toList();
+            if (releasedLockKeys.isEmpty()) return Mono.empty();
+            Mono<Void> release = releasedLockKeys.size() == 1
+                    ? lockService.releaseLock(releasedLockKeys.get(0), owner).then()
+                    : lockService.releaseLocks(releasedLockKeys, owner).then();
+            return metrics.time(Stage.LOCK_RELEASE, () -> release)
+                    .onErrorResume(error -> {
+                        LOGGER.error("Error releasing {} locks of consumer {}, they will expire", releasedLockKeys.size(), consumerId, error);
+                        return Mono.empty();
+                    });
+        });
+        return processing
+                .flatMap(result -> releasing.thenReturn(result))
+                .switchIfEmpty(releasing.then(Mono.empty()))
+                .onErrorResume(error -> releasing.then(Mono.error(error)));
+    }
+
+    /**
+     * Consume an already parsed and validated message on the calling thread. Follows the same steps as {@link #consume(Object, boolean)}, but waits
+     * for each of them in turn, which is meant to be run on a virtual thread, where waiting only parks the thread. The lock is released even if processing fails.
+     * @param message The message, handed to this consumer by the {@link MessageDispatcher}
+     * @param lockRequired Whether the message has to be locked before processing
+     * @return Whether the message was recorded, or {@code true} if the message is a skipped duplicate
+     */
+    boolean consumeBlocking(T message, boolean lockRequired) {
+        checkActive();
+        String key = identify(message);
+        if (!deduplicator.markSeen(key)) return true;
+        String redisLockKey = lockKey(key);
+        String owner = consumerId.toString();
+        inFlight.register(key);
+        try {
+            if (lockRequired && !Boolean.TRUE.equals(metrics.time(Stage.LOCK_ACQUIRE, () -> lockService.acquireLock(redisLockKey, owner)).block())) {
+                metrics.recordLockContention(1);
+                return false;
+            }
+            if (lockRequired) inFlight.lock(key);
+            try {
+                T processedMessage = metrics.time(Stage.PROCESS, () -> process(message)).block();
+                boolean recorded = processedMessage != null && Boolean.TRUE.equals(metrics.time(Stage.RECORD, () -> record(processedMessage)).block());
+                if (recorded) deduplicator.markConsumed(key);
+                return recorded;
+            } catch (RuntimeException e) {
+                LOGGER.error("Error processing message {}", message, e);
+                deduplicator.forget(key);
+                throw e;
+            } finally {
+                if (lockRequired) releasingAfter(Mono.empty(), List.of(key)).block();
+            }
+        } finally {
+            inFlight.unregister(key);
+        }
+    }
+
+    /**
+     * Collect the locks, which the consumer holds for messages it has not finished yet. A lock is held from its acquisition until the consumption of its message
+     * has completed or failed.
+     * @param owners Receives this consumer as the owner of each of its locks, by the key of the lock
+     */
+    void collectHeldLocks(Map<String, String> owners) {
+        String owner = consumerId.toString();
+        for (String lockedKey : inFlight.lockedKeys()) owners.put(lockKey(lockedKey), owner);
+    }
+
+    /**
+     * Record binary stream entries, whose values are raw byte arrays, into the shards of the processed messages stream. All entries are recorded
+     * in a single pipeline, regardless of their number.
+     * @param messageKeys The unique identifiers of the messages, which select their shards
+     * @param entries The field-value pairs of the entry of each message, as expected by {@code XADD}
+     * @return A {@code Mono<List<Boolean>>} which contains the result of each recording operation, in the order of the entries
+     */
+    protected Mono<List<Boolean>> recordBinaryEntries(List<String> messageKeys, List<Object[]> entries) {
+        return redisConnectionService
+                .executeRawPipelined(asyncCommands -> IntStream.range(0, entries.size())
+                        .<RedisFuture<?>>mapToObj(index -> asyncCommands.xadd(processedMessageStream.key(messageKeys.get(index)), processedMessageStream.addArgs(), entries.get(index)))
+                        .toList())
+                .doOnNext(messageStreamIds -> LOGGER.debug("Recorded {} binary entries", messageStreamIds.size()))
+                .map(messageStreamIds -> messageStreamIds.stream().map(Objects::nonNull).toList());
+    }
+
+    /**
+     * @return Whether processed messages are handed to the {@link WriteBehindRecorder}, instead of being written to Redis directly
+     */
+    protected boolean writesBehind() {
+        return writeBehindRecorder != null;
+    }
+
+    /**
+     * Hand stream entries to the {@link WriteBehindRecorder}. An entry counts as recorded once it has been written to Redis, along with the entries
+     * of other consumers, or spilled to the spill file.
+     * @param messageKeys The unique identifiers of the messages, which select their shards
+     * @param entries The field-value pairs of the entry of each message, whose values are either strings or raw bytes
+     * @return A {@code Mono<List<Boolean>>} which contains whether each entry was written or spilled, in the order of the entries
+     */
+    protected Mono<List<Boolean>> recordBehind(List<String> messageKeys, List<Object[]> entries) {
+        return writeBehindRecorder.append(messageKeys, entries)
+                .doOnNext(recorded -> LOGGER.debug("Recorded {} entries via the write-behind recorder", recorded.size()));
+    }
+
+    private void checkActive() {
+        long livenessStartNanos = System.nanoTime();
+        boolean active = isActive();
+        metrics.record(Stage.LIVENESS, livenessStartNanos);
+        if (!active) throw new ConsumerNotActiveException(String.format("Consumer %s is not active", consumerId));
+    }
+
+    /**
+     * Name the lock of a message. With a sharded output stream, the lock carries the hash tag of the shard, into which the message is recorded,
+     * as in {@code lock:{3}:<key>}, so with a Redis Cluster the lock and the record of a message are kept on the same node.
+     * @param key The unique message identifier
+     * @return The key of the lock
+     */
+    String lockKey(String key) {
+        String hashTag = processedMessageStream.hashTag(key);
+        return hashTag.isEmpty() ? String.format(LOCK_KEY_FORMAT, key) : String.format(TAGGED_LOCK_KEY_FORMAT, hashTag, key);
+    }
+
+    /**
+     * Check the locally cached active state of the consumer, without a round trip to Redis. The consumer is active while it has not been removed from
+     * the consumer registry and its registration has been refreshed within the registration duration.
+     * @return Whether the consumer is active
+     */
+    boolean isActive() {
+        return consumerActive && System.nanoTime() - registrationExpiryNanos < 0;
+    }
+
+    /**
+     * Refresh the consumer activity. If this is not called the consumer will be considered stale and will not process messages.
+     * The result of the refresh updates the locally cached active state - if the consumer is no longer present in the registry, it is considered inactive.
      */
     @Scheduled(fixedRate = 8000)
     private void keepAlive() {
         if (!consumerActive) return;
         LOGGER.info("Refreshing consumer {}", consumerId);
-        redisConnectionService.executeAsync(asyncCommands ->
-                asyncCommands.hexpire(CONSUMER_ID_KEY, Duration.of(10, ChronoUnit.SECONDS), consumerId.toString())
+        long refreshStartNanos = System.nanoTime();
+        redisConnectionService.executeReactive(reactiveCommands ->
+                reactiveCommands
+                        .hexpire(CONSUMER_ID_KEY, REGISTRATION_DURATION, consumerId.toString())
+                        .next()
+                        .doOnNext(response -> {
+                            if (response == HEXPIRE_FIELD_MISSING) {
+                                LOGGER.warn("Consumer {} is no longer registered", consumerId);
+                                consumerActive = false;
+                            } else {
+                                registrationExpiryNanos = refreshStartNanos + REGISTRATION_DURATION.toNanos();
+                            }
+                        })
+                        .doOnError(error -> LOGGER.error("Error refreshing consumer {}", consumerId, error))
+                        .subscribe()
         );
     }
 }
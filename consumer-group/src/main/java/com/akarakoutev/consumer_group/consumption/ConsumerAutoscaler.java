@@ -0,0 +1,186 @@
+package com.akarakoutev.consumer_group.consumption;
+
+import com.akarakoutev.consumer_group.consumption.ConsumerMetrics.Stage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Adds and retires consumers of the group at runtime, based on how many messages each consumer has been handed but not yet finished.
+ * The queue depth is sampled every {@code consumer.autoscaling.interval-millis} as the peak since the previous sample, so short bursts are not missed.
+ * <ul>
+ *     <li>A consumer is added once the depth has stayed at or above {@code consumer.autoscaling.scale-up.queue-depth} for
+ *     {@code consumer.autoscaling.scale-up.samples} samples in a row, unless the process CPU usage exceeds {@code consumer.autoscaling.max-cpu} or the
+ *     99th percentile of the Redis stages exceeds {@code consumer.autoscaling.max-stage-latency-millis}. In both cases, the bottleneck is not the number
+ *     of consumers, and more of them would only add contention</li>
+ *     <li>A consumer is retired once the depth has stayed at or below {@code consumer.autoscaling.scale-down.queue-depth} for
+ *     {@code consumer.autoscaling.scale-down.samples} samples in a row. Retired consumers finish their messages, for up to the lock duration,
+ *     and are then deregistered from the consumer registry</li>
+ * </ul>
+ * Depths between both thresholds reset both streaks, and every scaling decision starts a new streak, so the group does not flap between sizes.
+ * The group size is kept between {@code consumer.autoscaling.min-size} and {@code consumer.autoscaling.max-size}, one consumer per sample.
+ */
+@Component
+@ConditionalOnProperty(name = "consumer.autoscaling.enabled", havingValue = "true")
+public class ConsumerAutoscaler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConsumerAutoscaler.class);
+
+    private static final double LATENCY_PERCENTILE = 0.99;
+    private static final Stage[] REDIS_STAGES = {Stage.LOCK_ACQUIRE, Stage.RECORD, Stage.LOCK_RELEASE};
+
+    private final MessageDispatcher<?> dispatcher;
+    private final ConsumerMetrics consumerMetrics;
+    private final int minSize;
+    private final int maxSize;
+    private final int scaleUpQueueDepth;
+    private final int scaleUpSamples;
+    private final int scaleDownQueueDepth;
+    private final int scaleDownSamples;
+    private final double maxCpu;
+    private final double maxStageLatencyMillis;
+    private final Duration drainTimeout;
+    private final OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
+    private final AtomicInteger lastQueueDepth = new AtomicInteger();
+    private final AtomicBoolean retiring = new AtomicBoolean();
+    private final Counter scaleUpCounter;
+    private final Counter scaleDownCounter;
+    private final Counter cpuBlockedCounter;
+    private final Counter latencyBlockedCounter;
+    private int overloadedStreak;
+    private int idleStreak;
+
+    @Autowired
+    public ConsumerAutoscaler(
+            MessageDispatcher<?> dispatcher,
+            ConsumerMetrics consumerMetrics,
+            MeterRegistry meterRegistry,
+            @Value("${consumer.autoscaling.min-size}") int minSize,
+            @Value("${consumer.autoscaling.max-size}") int maxSize,
+            @Value("${consumer.autoscaling.scale-up.queue-depth}") int scaleUpQueueDepth,
+            @Value("${consumer.autoscaling.scale-up.samples}") int scaleUpSamples,
+            @Value("${consumer.autoscaling.scale-down.queue-depth}") int scaleDownQueueDepth,
+            @Value("${consumer.autoscaling.scale-down.samples}") int scaleDownSamples,
+            @Value("${consumer.autoscaling.max-cpu}") double maxCpu,
+            @Value("${consumer.autoscaling.max-stage-latency-millis}") double maxStageLatencyMillis,
+            @Value("${spring.redis.lock.duration-seconds}") long lockDurationSeconds
+    ) {
+        if (minSize < 1 || maxSize < minSize) throw new IllegalArgumentException("The autoscaling bounds must satisfy 1 <= min-size <= max-size");
+        if (scaleDownQueueDepth >= scaleUpQueueDepth) throw new IllegalArgumentException("The scale-down queue depth must be below the scale-up queue depth");
+        this.dispatcher = dispatcher;
+        this.consumerMetrics = consumerMetrics;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.scaleUpQueueDepth = scaleUpQueueDepth;
+        this.scaleUpSamples = scaleUpSamples;
+        this.scaleDownQueueDepth = scaleDownQueueDepth;
+        this.scaleDownSamples = scaleDownSamples;
+        this.maxCpu = maxCpu;
+        this.maxStageLatencyMillis = maxStageLatencyMillis;
+        this.drainTimeout = Duration.ofSeconds(lockDurationSeconds);
+
+        Gauge.builder("consumer.autoscaling.size", dispatcher, MessageDispatcher::size)
+                .description("Consumers, which are currently handed messages")
+                .register(meterRegistry);
+        Gauge.builder("consumer.autoscaling.queue.depth", lastQueueDepth, AtomicInteger::get)
+                .description("Peak number of messages, handed to a single consumer and not yet finished, as of the last sample")
+                .register(meterRegistry);
+        this.scaleUpCounter = scalingDecisionCounter(meterRegistry, "up");
+        this.scaleDownCounter = scalingDecisionCounter(meterRegistry, "down");
+        this.cpuBlockedCounter = blockedScaleUpCounter(meterRegistry, "cpu");
+        this.latencyBlockedCounter = blockedScaleUpCounter(meterRegistry, "latency");
+    }
+
+    @Scheduled(fixedRateString = "${consumer.autoscaling.interval-millis}")
+    private void sample() {
+        int queueDepth = dispatcher.takePeakQueueDepth();
+        lastQueueDepth.set(queueDepth);
+        if (queueDepth >= scaleUpQueueDepth) {
+            overloadedStreak++;
+            idleStreak = 0;
+        } else if (queueDepth <= scaleDownQueueDepth) {
+            idleStreak++;
+            overloadedStreak = 0;
+        } else {
+            overloadedStreak = 0;
+            idleStreak = 0;
+        }
+
+        int size = dispatcher.size();
+        if (size < minSize || (overloadedStreak >= scaleUpSamples && size < maxSize)) {
+            scaleUp(size, queueDepth);
+        } else if (size > maxSize || (idleStreak >= scaleDownSamples && size > minSize)) {
+            scaleDown(size, queueDepth);
+        }
+    }
+
+    private void scaleUp(int size, int queueDepth) {
+        if (size >= minSize) {
+            double cpu = operatingSystem instanceof com.sun.management.OperatingSystemMXBean hotSpotOperatingSystem ? hotSpotOperatingSystem.getProcessCpuLoad() : Double.NaN;
+            if (cpu > maxCpu) {
+                LOGGER.debug("Not adding a consumer at queue depth {}, process CPU usage is {}", queueDepth, cpu);
+                cpuBlockedCounter.increment();
+                return;
+            }
+            double stageLatencyMillis = redisStageLatencyMillis();
+            if (stageLatencyMillis > maxStageLatencyMillis) {
+                LOGGER.debug("Not adding a consumer at queue depth {}, Redis stage latency is {}ms", queueDepth, stageLatencyMillis);
+                latencyBlockedCounter.increment();
+                return;
+            }
+        }
+        dispatcher.addConsumer();
+        overloadedStreak = 0;
+        scaleUpCounter.increment();
+        LOGGER.info("Added a consumer at queue depth {}, the group now has {} consumers", queueDepth, size + 1);
+    }
+
+    private void scaleDown(int size, int queueDepth) {
+        if (!retiring.compareAndSet(false, true)) return;
+        idleStreak = 0;
+        scaleDownCounter.increment();
+        LOGGER.info("Retiring a consumer at queue depth {}, the group now has {} consumers", queueDepth, size - 1);
+        dispatcher.retireConsumer(drainTimeout)
+                .doOnError(error -> LOGGER.error("Error retiring a consumer", error))
+                .doFinally(__ -> retiring.set(false))
+                .subscribe();
+    }
+
+    /**
+     * @return The highest recent 99th percentile among the stages, which wait for Redis, in milliseconds
+     */
+    private double redisStageLatencyMillis() {
+        double latencyMillis = 0;
+        for (Stage stage : REDIS_STAGES) {
+            double stageLatencyMillis = consumerMetrics.percentileMillis(stage, LATENCY_PERCENTILE);
+            if (!Double.isNaN(stageLatencyMillis)) latencyMillis = Math.max(latencyMillis, stageLatencyMillis);
+        }
+        return latencyMillis;
+    }
+
+    private static Counter scalingDecisionCounter(MeterRegistry meterRegistry, String direction) {
+        return Counter.builder("consumer.autoscaling.decisions")
+                .description("Consumers added to or retired from the group")
+                .tag("direction", direction)
+                .register(meterRegistry);
+    }
+
+    private static Counter blockedScaleUpCounter(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("consumer.autoscaling.blocked")
+                .description("Samples, at which a consumer was due to be added, but was not, since the bottleneck lies elsewhere")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+}
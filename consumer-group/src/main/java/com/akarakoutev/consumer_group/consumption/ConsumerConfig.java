@@ -1,32 +1,137 @@
 package com.akarakoutev.consumer_group.consumption;
 
+import com.akarakoutev.consumer_group.consumption.domain.Message;
+import com.akarakoutev.consumer_group.parsing.PayloadFormat;
+import com.akarakoutev.consumer_group.redis.RedisSpillQueue;
+import com.akarakoutev.consumer_group.source.ChannelRoute;
+import com.akarakoutev.consumer_group.source.MessageSource;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
-import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.time.Duration;
 
 @Configuration
 public class ConsumerConfig {
 
+    @Value("${consumer.group.size}")
+    private int consumerGroupSize;
+
+    @Value("${consumer.group.queue-capacity}")
+    private int consumerQueueCapacity;
+
+    @Value("${consumer.group.concurrency}")
+    private int consumerConcurrency;
+
+    @Value("${consumer.group.overflow}")
+    private String overflowPolicy;
+
+    @Value("${consumer.batch.size}")
+    private int batchSize;
+
+    @Value("${consumer.batch.window-millis}")
+    private long batchWindowMillis;
+
+    @Value("${consumer.execution}")
+    private String executionMode;
+
+    @Value("${consumer.execution.virtual-threads.permits}")
+    private int virtualThreadPermits;
+
+    @Value("${consumer.format}")
+    private String payloadFormat;
+
+    @Value("${consumer.routes}")
+    private String routes;
+
+    @Value("${consumer.routes.default-weight}")
+    private int defaultRouteWeight;
+
+    @Value("${consumer.routes.max-in-flight}")
+    private int routesMaxInFlight;
+
     @Bean
-    public Set<AbstractConsumer<?>> consumerGroup(
+    @ConditionalOnProperty(name = "consumer.type", havingValue = "json", matchIfMissing = true)
+    public MessageDispatcher<JsonNode> consumerGroup(
             AnnotationConfigApplicationContext annotationConfigApplicationContext,
-            @Value("${consumer.group.size}") int consumerGroupSize
+            MessageSource messageSource,
+            ConsumerMetrics consumerMetrics,
+            ObjectProvider<RedisSpillQueue> spillQueue,
+            ObjectProvider<PartitionAffinity> partitionAffinity,
+            FailedMessageHandler failedMessageHandler
     ) {
-        AutowireCapableBeanFactory beanFactory = annotationConfigApplicationContext.getBeanFactory();
-        return IntStream.range(0, consumerGroupSize)
-                .mapToObj(index -> beanFactory.getBean(MessageIdJsonConsumer.class))
-                .collect(Collectors.toSet());
+        return createConsumerGroup(annotationConfigApplicationContext, messageSource, consumerMetrics, spillQueue, partitionAffinity, failedMessageHandler, MessageIdJsonConsumer.class);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "consumer.type", havingValue = "streaming")
+    public MessageDispatcher<Message> streamingConsumerGroup(
+            AnnotationConfigApplicationContext annotationConfigApplicationContext,
+            MessageSource messageSource,
+            ConsumerMetrics consumerMetrics,
+            ObjectProvider<RedisSpillQueue> spillQueue,
+            ObjectProvider<PartitionAffinity> partitionAffinity,
+            FailedMessageHandler failedMessageHandler
+    ) {
+        return createConsumerGroup(annotationConfigApplicationContext, messageSource, consumerMetrics, spillQueue, partitionAffinity, failedMessageHandler, StreamingMessageIdConsumer.class);
     }
 
+    /**
+     * The mapper, through which consumers read incoming payloads, in the {@link PayloadFormat} selected via {@code consumer.format}
+     */
     @Bean
     public ObjectMapper objectMapper() {
-        return new ObjectMapper();
+        return PayloadFormat.fromProperty(payloadFormat).createObjectMapper();
+    }
+
+    private <T, C extends AbstractConsumer<T>> MessageDispatcher<T> createConsumerGroup(
+            AnnotationConfigApplicationContext annotationConfigApplicationContext,
+            MessageSource messageSource,
+            ConsumerMetrics consumerMetrics,
+            ObjectProvider<RedisSpillQueue> spillQueue,
+            ObjectProvider<PartitionAffinity> partitionAffinity,
+            FailedMessageHandler failedMessageHandler,
+            Class<C> consumerClass
+    ) {
+        AutowireCapableBeanFactory beanFactory = annotationConfigApplicationContext.getBeanFactory();
+        ConsumerFactory<T> consumerFactory = new ConsumerFactory<>() {
+            @Override
+            public AbstractConsumer<T> create() {
+                return beanFactory.getBean(consumerClass);
+            }
+
+            /**
+             * Consumers are prototype beans, so their scheduled registration refresh is only cancelled once they are destroyed explicitly
+             */
+            @Override
+            public void dispose(AbstractConsumer<T> consumer) {
+                beanFactory.destroyBean(consumer);
+            }
+        };
+        return new MessageDispatcher<>(
+                consumerFactory,
+                consumerGroupSize,
+                messageSource,
+                consumerMetrics,
+                spillQueue.getIfAvailable(),
+                partitionAffinity.getIfAvailable(),
+                failedMessageHandler,
+                consumerQueueCapacity,
+                consumerConcurrency,
+                MessageDispatcher.OverflowPolicy.fromProperty(overflowPolicy),
+                batchSize,
+                Duration.ofMillis(batchWindowMillis),
+                MessageDispatcher.ExecutionMode.fromProperty(executionMode),
+                virtualThreadPermits,
+                ChannelRoute.fromProperty(routes),
+                defaultRouteWeight,
+                routesMaxInFlight
+        );
     }
 }
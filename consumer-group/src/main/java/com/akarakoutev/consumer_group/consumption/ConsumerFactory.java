@@ -0,0 +1,20 @@
+package com.akarakoutev.consumer_group.consumption;
+
+/**
+ * Creates and disposes the consumers of a group, so that the {@link MessageDispatcher} can change its membership at runtime
+ */
+public interface ConsumerFactory<T> {
+
+    /**
+     * Create a new consumer. The consumer registers itself as active upon creation.
+     * @return The new consumer
+     */
+    AbstractConsumer<T> create();
+
+    /**
+     * Release the resources of a consumer, which has been retired from its group and deregistered
+     * @param consumer The retired consumer
+     */
+    default void dispose(AbstractConsumer<T> consumer) {
+    }
+}
@@ -0,0 +1,68 @@
+package com.akarakoutev.consumer_group.consumption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Drains the consumer group when the application shuts down, before any Redis connection is closed. The group stops receiving messages, finishes
+ * the messages it has already received for up to {@code consumer.shutdown.drain-timeout-millis}, releases the locks of the messages it could not finish
+ * and deregisters its consumers. During a rolling restart, the remaining instances can take over right away, instead of waiting for locks and registrations
+ * to expire.
+ */
+@Component
+public class ConsumerGroupLifecycle implements SmartLifecycle {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConsumerGroupLifecycle.class);
+
+    private final MessageDispatcher<?> dispatcher;
+    private final Duration drainTimeout;
+    private volatile boolean running;
+
+    @Autowired
+    public ConsumerGroupLifecycle(
+            MessageDispatcher<?> dispatcher,
+            @Value("${consumer.shutdown.drain-timeout-millis}") long drainTimeoutMillis
+    ) {
+        this.dispatcher = dispatcher;
+        this.drainTimeout = Duration.ofMillis(drainTimeoutMillis);
+    }
+
+    /**
+     * The dispatcher starts consuming as soon as it is created, so starting only marks the group as running
+     */
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        stop(() -> { });
+    }
+
+    /**
+     * Drain the group without blocking the shutdown thread, which waits for the callback for up to {@code spring.lifecycle.timeout-per-shutdown-phase}
+     * @param callback Notified once the group has been drained
+     */
+    @Override
+    public void stop(Runnable callback) {
+        dispatcher.drain(drainTimeout)
+                .doOnError(error -> LOGGER.error("Error draining the consumer group", error))
+                .onErrorComplete()
+                .doFinally(__ -> {
+                    running = false;
+                    callback.run();
+                })
+                .subscribe();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
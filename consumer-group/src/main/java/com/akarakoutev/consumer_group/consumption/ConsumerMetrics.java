@@ -0,0 +1,169 @@
+package com.akarakoutev.consumer_group.consumption;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Metrics of the message consumption pipeline. Every stage is timed by the {@code consumer.stage} timer, tagged with the name of the stage,
+ * which publishes percentiles as well as a histogram, so percentiles can also be aggregated across instances. Batched stages are timed once per batch.
+ */
+@Component
+public class ConsumerMetrics {
+
+    static final String STAGE_TIMER = "consumer.stage";
+    static final String IN_FLIGHT_GAUGE = "consumer.in.flight";
+    static final String LOCKS_HELD_GAUGE = "consumer.locks.held";
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+
+    public enum Stage {
+        PARSE("parse"),
+        VALIDATE("validate"),
+        LIVENESS("liveness"),
+        LOCK_ACQUIRE("lock.acquire"),
+        PROCESS("process"),
+        RECORD("record"),
+        LOCK_RELEASE("lock.release");
+
+        private final String tag;
+
+        Stage(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final Map<Stage, Timer> stageTimers = new EnumMap<>(Stage.class);
+    private final Counter lockContentionCounter;
+    private final Counter validationFailureCounter;
+    private final Counter parseErrorCounter;
+    private final Counter intakeDroppedCounter;
+    private final Counter intakeSpilledCounter;
+    private final Counter partitionSkippedCounter;
+
+    public ConsumerMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        for (Stage stage : Stage.values()) {
+            stageTimers.put(stage, Timer.builder(STAGE_TIMER)
+                    .description("Time spent in a stage of message consumption")
+                    .tag("stage", stage.tag)
+                    .publishPercentiles(PERCENTILES)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+        this.lockContentionCounter = Counter.builder("consumer.lock.contended")
+                .description("Messages, which were not consumed, because their lock was held by another consumer")
+                .register(meterRegistry);
+        this.validationFailureCounter = Counter.builder("consumer.validation.failures")
+                .description("Messages, which were dropped, because they failed validation")
+                .register(meterRegistry);
+        this.parseErrorCounter = Counter.builder("consumer.parse.errors")
+                .description("Messages, which were dropped, because they could not be parsed")
+                .register(meterRegistry);
+        this.intakeDroppedCounter = Counter.builder("consumer.intake.dropped")
+                .description("Messages, which were dropped, because the intake buffer was full")
+                .register(meterRegistry);
+        this.intakeSpilledCounter = Counter.builder("consumer.intake.spilled")
+                .description("Messages, which were spilled to Redis, because the intake buffer was full")
+                .register(meterRegistry);
+        this.partitionSkippedCounter = Counter.builder("consumer.partitioning.skipped")
+                .description("Messages, which were skipped, because they are owned by a consumer of another instance")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Record the duration of a synchronous stage
+     * @param stage The stage
+     * @param startNanos The value of {@link System#nanoTime()} at the start of the stage
+     */
+    public void record(Stage stage, long startNanos) {
+        stageTimers.get(stage).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Time an asynchronous stage from subscription until it completes, errors or is cancelled
+     * @param stage The stage
+     * @param operation Supplies the operation, upon subscription
+     * @return The timed operation
+     */
+    public <V> Mono<V> time(Stage stage, Supplier<Mono<V>> operation) {
+        return Mono.defer(() -> {
+            long startNanos = System.nanoTime();
+            return operation.get().doFinally(__ -> record(stage, startNanos));
+        });
+    }
+
+    /**
+     * Read a recent percentile of the duration of a stage. Percentiles are computed over a sliding window of about two minutes.
+     * @param stage The stage
+     * @param percentile One of the published percentiles, such as {@code 0.99}
+     * @return The percentile in milliseconds, or {@code NaN} if it is not published
+     */
+    public double percentileMillis(Stage stage, double percentile) {
+        for (ValueAtPercentile valueAtPercentile : stageTimers.get(stage).takeSnapshot().percentileValues()) {
+            if (valueAtPercentile.percentile() == percentile) return valueAtPercentile.value(TimeUnit.MILLISECONDS);
+        }
+        return Double.NaN;
+    }
+
+    public void recordLockContention(int messages) {
+        lockContentionCounter.increment(messages);
+    }
+
+    public void recordValidationFailure() {
+        validationFailureCounter.increment();
+    }
+
+    public void recordParseError() {
+        parseErrorCounter.increment();
+    }
+
+    public void recordIntakeDropped() {
+        intakeDroppedCounter.increment();
+    }
+
+    public void recordIntakeSpilled() {
+        intakeSpilledCounter.increment();
+    }
+
+    public void recordPartitionSkipped() {
+        partitionSkippedCounter.increment();
+    }
+
+    /**
+     * Register the gauges of the messages, which a consumer is currently consuming, and of the locks it holds
+     * @param consumerId The ID of the consumer
+     * @param inFlight The registry of the messages in flight of the consumer, backing the gauges
+     */
+    public void registerInFlight(UUID consumerId, InFlightRegistry inFlight) {
+        Gauge.builder(IN_FLIGHT_GAUGE, inFlight, InFlightRegistry::inFlightCount)
+                .description("Messages currently being consumed by a consumer")
+                .tag("consumer", consumerId.toString())
+                .strongReference(true)
+                .register(meterRegistry);
+        Gauge.builder(LOCKS_HELD_GAUGE, inFlight, InFlightRegistry::lockedCount)
+                .description("Locks currently held by a consumer")
+                .tag("consumer", consumerId.toString())
+                .strongReference(true)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Remove the gauges of the messages in flight and of the held locks of a consumer, which has been retired
+     * @param consumerId The ID of the consumer
+     */
+    public void removeInFlight(UUID consumerId) {
+        meterRegistry.find(IN_FLIGHT_GAUGE).tag("consumer", consumerId.toString()).meters().forEach(meterRegistry::remove);
+        meterRegistry.find(LOCKS_HELD_GAUGE).tag("consumer", consumerId.toString()).meters().forEach(meterRegistry::remove);
+    }
+}
@@ -0,0 +1,146 @@
+package com.akarakoutev.consumer_group.consumption;
+
+import com.akarakoutev.consumer_group.redis.RedisDeadLetterStream;
+import com.akarakoutev.consumer_group.redis.RedisRetryQueue;
+import com.akarakoutev.consumer_group.source.SourceMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides what happens to messages, which could not be consumed. With {@code consumer.retry.enabled}, a message, which failed, is retried via the
+ * {@link RedisRetryQueue} after an exponential backoff, starting at {@code consumer.retry.initial-backoff-millis} and doubling with each attempt up to
+ * {@code consumer.retry.max-backoff-millis}. Each delay is jittered between half and all of its value, so messages, which failed together, are not all
+ * retried at once. After {@code consumer.retry.max-attempts} attempts, or right away if retries are disabled, the message is appended to the
+ * {@link RedisDeadLetterStream}. Messages, which can never succeed, because they can not be parsed or validated, go to the dead-letter stream right away.
+ * A poison message therefore costs a bounded number of attempts, instead of blocking its lock or being dropped without a trace.
+ */
+@Component
+public class FailedMessageHandler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FailedMessageHandler.class);
+
+    private final RedisRetryQueue retryQueue;
+    private final RedisDeadLetterStream deadLetterStream;
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final Counter retriedCounter;
+    private final Counter deadLetteredCounter;
+
+    @Autowired
+    public FailedMessageHandler(
+            ObjectProvider<RedisRetryQueue> retryQueue,
+            RedisDeadLetterStream deadLetterStream,
+            MeterRegistry meterRegistry,
+            @Value("${consumer.retry.max-attempts}") int maxAttempts,
+            @Value("${consumer.retry.initial-backoff-millis}") long initialBackoffMillis,
+            @Value("${consumer.retry.max-backoff-millis}") long maxBackoffMillis
+    ) {
+        this.retryQueue = retryQueue.getIfAvailable();
+        this.deadLetterStream = deadLetterStream;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.retriedCounter = Counter.builder("consumer.retry.scheduled")
+                .description("Failed messages, which were scheduled to be retried")
+                .register(meterRegistry);
+        this.deadLetteredCounter = Counter.builder("consumer.dead.lettered")
+                .description("Messages, which were given up on and appended to the dead-letter stream")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Retry a message, which failed, or give up on it, if it has run out of attempts
+     * @param message The message, which failed
+     * @param error The error, with which it failed
+     * @return A {@code Mono<Boolean>} containing whether the message was scheduled or dead-lettered, after which it can be acknowledged to its source
+     */
+    public Mono<Boolean> fail(SourceMessage message, Throwable error) {
+        int attempts = message.attempt() + 1;
+        if (retryQueue == null || attempts >= maxAttempts) return deadLetter(message, attempts, describe(error));
+        Duration backoff = backoff(attempts);
+        return retryQueue.schedule(message, attempts, backoff)
+                .doOnNext(__ -> {
+                    retriedCounter.increment();
+                    LOGGER.debug("Retrying message {} in {} after {} attempts", message.payloadAsString(), backoff, attempts);
+                })
+                .thenReturn(true)
+                .onErrorResume(scheduleError -> {
+                    LOGGER.error("Could not schedule retry of message {}", message.payloadAsString(), scheduleError);
+                    return Mono.just(false);
+                });
+    }
+
+    /**
+     * Give up on a message right away, since it can never succeed
+     * @param message The message, which was rejected
+     * @param reason Why the message was rejected
+     * @return A {@code Mono<Boolean>} containing whether the message was dead-lettered
+     */
+    public Mono<Boolean> reject(SourceMessage message, String reason) {
+        return deadLetter(message, message.attempt() + 1, reason);
+    }
+
+    /**
+     * @return A {@code Flux<SourceMessage>} of the messages, which are due to be retried, or an empty {@code Flux} if retries are disabled
+     */
+    public Flux<SourceMessage> retries() {
+        return retryQueue == null ? Flux.empty() : retryQueue.replay();
+    }
+
+    /**
+     * Check whether a message is a retry, which has to be acknowledged via {@link #acknowledge(SourceMessage)} instead of to its source
+     * @param message The message
+     * @return Whether the message was replayed by the retry queue
+     */
+    public boolean isRetry(SourceMessage message) {
+        return message.attempt() > 0;
+    }
+
+    /**
+     * Acknowledge a retried message, once it has been consumed, retried again or dead-lettered, so its claim is not replayed once more. Errors are logged,
+     * in which case the message is replayed once its claim expires.
+     * @param message The retried message
+     */
+    public void acknowledge(SourceMessage message) {
+        if (retryQueue == null) return;
+        retryQueue.acknowledge(message)
+                .subscribe(null, error -> LOGGER.error("Could not acknowledge retried message {}, it will be retried again", message.payloadAsString(), error));
+    }
+
+    /**
+     * @param attempts The number of attempts so far
+     * @return The jittered exponential backoff before the next attempt
+     */
+    Duration backoff(int attempts) {
+        long backoffMillis = initialBackoffMillis << Math.min(attempts - 1, Long.numberOfLeadingZeros(initialBackoffMillis) - 1);
+        backoffMillis = Math.min(backoffMillis, maxBackoffMillis);
+        return Duration.ofMillis(backoffMillis / 2 + ThreadLocalRandom.current().nextLong(backoffMillis / 2 + 1));
+    }
+
+    private Mono<Boolean> deadLetter(SourceMessage message, int attempts, String error) {
+        return deadLetterStream.append(message, attempts, error)
+                .doOnNext(__ -> {
+                    deadLetteredCounter.increment();
+                    LOGGER.warn("Giving up on message {} after {} attempts: {}", message.payloadAsString(), attempts, error);
+                })
+                .onErrorResume(deadLetterError -> {
+                    LOGGER.error("Could not dead-letter message {}", message.payloadAsString(), deadLetterError);
+                    return Mono.just(false);
+                });
+    }
+
+    private static String describe(Throwable error) {
+        return error.getMessage() == null ? error.getClass().getName() : error.getClass().getName() + ": " + error.getMessage();
+    }
+}
@@ -0,0 +1,256 @@
+package com.akarakoutev.consumer_group.consumption;
+
+import com.akarakoutev.consumer_group.parsing.UuidParser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The messages, which a consumer is currently consuming, and the messages, for which it holds a lock, by their identifiers. Identifiers are 128 bit UUIDs,
+ * which are kept as pairs of {@code long}s in an open-addressing hash table with linear probing, backed by primitive arrays, so registering a message creates no
+ * objects and no boxed keys. The table is pre-sized to twice an expected number of messages, and only grows once more than that are registered.
+ * Removed entries are backward-shifted instead of leaving tombstones, so probe sequences stay short under constant churn.
+ * <br>
+ * A message is in flight from the start of its consumption until it has completed, failed or been cancelled, and locked from the acquisition of its lock until
+ * the lock has been released, which may outlast its consumption, if it is cancelled. Identifiers, which are not canonical UUIDs, are kept in a regular map.
+ * All operations are guarded by the monitor of the registry, while the counts are read without it, e.g. by gauges.
+ */
+public final class InFlightRegistry {
+
+    private static final int IN_FLIGHT = 1;
+    private static final int LOCKED = 2;
+    private static final int MIN_CAPACITY = 16;
+    private static final long MIX_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private long[] bits;
+    private byte[] states;
+    private int mask;
+    private int occupiedSlots;
+    private final Map<String, Integer> otherStates = new HashMap<>();
+    private volatile int inFlightCount;
+    private volatile int lockedCount;
+
+    /**
+     * @param expectedSize The number of messages, which are expected to be registered at once. The table is kept at most half full
+     */
+    public InFlightRegistry(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(MIN_CAPACITY, expectedSize) * 2 - 1) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Register a message as in flight
+     * @param key The unique message identifier
+     * @return Whether the message was not in flight before
+     */
+    public boolean register(String key) {
+        return (update(key, IN_FLIGHT, 0) & IN_FLIGHT) == 0;
+    }
+
+    /**
+     * Register a message as no longer in flight. The message stays registered, while it is still locked
+     * @param key The unique message identifier
+     * @return Whether the message was in flight
+     */
+    public boolean unregister(String key) {
+        return (update(key, 0, IN_FLIGHT) & IN_FLIGHT) != 0;
+    }
+
+    /**
+     * Register the lock of a message as held
+     * @param key The unique message identifier
+     * @return Whether the lock was not held before
+     */
+    public boolean lock(String key) {
+        return (update(key, LOCKED, 0) & LOCKED) == 0;
+    }
+
+    /**
+     * Register the lock of a message as released, which only succeeds once for each time it was locked, so a lock is never released twice
+     * @param key The unique message identifier
+     * @return Whether the lock was held
+     */
+    public boolean unlock(String key) {
+        return (update(key, 0, LOCKED) & LOCKED) != 0;
+    }
+
+    /**
+     * Register a message as in flight, by the bits of its identifier
+     * @param mostSignificantBits The most significant 64 bits of the identifier
+     * @param leastSignificantBits The least significant 64 bits of the identifier
+     * @return Whether the message was not in flight before
+     */
+    public boolean register(long mostSignificantBits, long leastSignificantBits) {
+        return (update(mostSignificantBits, leastSignificantBits, IN_FLIGHT, 0) & IN_FLIGHT) == 0;
+    }
+
+    /**
+     * Register a message as no longer in flight, by the bits of its identifier. The message stays registered, while it is still locked
+     * @param mostSignificantBits The most significant 64 bits of the identifier
+     * @param leastSignificantBits The least significant 64 bits of the identifier
+     * @return Whether the message was in flight
+     */
+    public boolean unregister(long mostSignificantBits, long leastSignificantBits) {
+        return (update(mostSignificantBits, leastSignificantBits, 0, IN_FLIGHT) & IN_FLIGHT) != 0;
+    }
+
+    /**
+     * @param key The unique message identifier
+     * @return Whether the message is in flight
+     */
+    public boolean isInFlight(String key) {
+        return (stateOf(key) & IN_FLIGHT) != 0;
+    }
+
+    /**
+     * @param key The unique message identifier
+     * @return Whether the lock of the message is held
+     */
+    public boolean isLocked(String key) {
+        return (stateOf(key) & LOCKED) != 0;
+    }
+
+    /**
+     * @return The number of messages in flight
+     */
+    public int inFlightCount() {
+        return inFlightCount;
+    }
+
+    /**
+     * @return The number of messages, for which a lock is held
+     */
+    public int lockedCount() {
+        return lockedCount;
+    }
+
+    /**
+     * Collect the identifiers of the messages, for which a lock is held, e.g. to release or renew all of them in a single batch
+     * @return The unique message identifiers, in no particular order
+     */
+    public synchronized List<String> lockedKeys() {
+        List<String> keys = new ArrayList<>(lockedCount);
+        for (int slot = 0; slot < states.length; slot++) {
+            if ((states[slot] & LOCKED) != 0) keys.add(new UUID(bits[2 * slot], bits[2 * slot + 1]).toString());
+        }
+        for (Map.Entry<String, Integer> entry : otherStates.entrySet()) {
+            if ((entry.getValue() & LOCKED) != 0) keys.add(entry.getKey());
+        }
+        return keys;
+    }
+
+    /**
+     * @return The number of slots of the table, which grows once more than half of them are taken
+     */
+    synchronized int capacity() {
+        return states.length;
+    }
+
+    private int update(String key, int setFlags, int clearFlags) {
+        if (UuidParser.isCanonical(key)) return update(UuidParser.mostSignificantBits(key), UuidParser.leastSignificantBits(key), setFlags, clearFlags);
+        synchronized (this) {
+            int previous = otherStates.getOrDefault(key, 0);
+            int next = (previous | setFlags) & ~clearFlags;
+            if (next == previous) return previous;
+            if (next == 0) {
+                otherStates.remove(key);
+            } else {
+                otherStates.put(key, next);
+            }
+            count(previous, next);
+            return previous;
+        }
+    }
+
+    private synchronized int update(long mostSignificantBits, long leastSignificantBits, int setFlags, int clearFlags) {
+        int slot = slotOf(mostSignificantBits, leastSignificantBits);
+        int previous = states[slot];
+        int next = (previous | setFlags) & ~clearFlags;
+        if (next == previous) return previous;
+        if (previous == 0) {
+            bits[2 * slot] = mostSignificantBits;
+            bits[2 * slot + 1] = leastSignificantBits;
+            states[slot] = (byte) next;
+            count(previous, next);
+            if (++occupiedSlots > states.length / 2) allocate(states.length * 2);
+        } else if (next == 0) {
+            remove(slot);
+            occupiedSlots--;
+            count(previous, next);
+        } else {
+            states[slot] = (byte) next;
+            count(previous, next);
+        }
+        return previous;
+    }
+
+    private int stateOf(String key) {
+        if (!UuidParser.isCanonical(key)) {
+            synchronized (this) {
+                return otherStates.getOrDefault(key, 0);
+            }
+        }
+        long mostSignificantBits = UuidParser.mostSignificantBits(key);
+        long leastSignificantBits = UuidParser.leastSignificantBits(key);
+        synchronized (this) {
+            return states[slotOf(mostSignificantBits, leastSignificantBits)];
+        }
+    }
+
+    /**
+     * @return The slot of an identifier, or the empty slot, at which it would be inserted
+     */
+    private int slotOf(long mostSignificantBits, long leastSignificantBits) {
+        int slot = home(mostSignificantBits, leastSignificantBits);
+        while (states[slot] != 0 && (bits[2 * slot] != mostSignificantBits || bits[2 * slot + 1] != leastSignificantBits)) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    /**
+     * Empty a slot, shifting back every following entry of the same probe sequence, which could take its place, so no entry becomes unreachable
+     */
+    private void remove(int slot) {
+        int gap = slot;
+        for (int next = (gap + 1) & mask; states[next] != 0; next = (next + 1) & mask) {
+            int home = home(bits[2 * next], bits[2 * next + 1]);
+            // The entry may only move back, if the gap lies between its home slot and its current slot
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                bits[2 * gap] = bits[2 * next];
+                bits[2 * gap + 1] = bits[2 * next + 1];
+                states[gap] = states[next];
+                gap = next;
+            }
+        }
+        states[gap] = 0;
+    }
+
+    private int home(long mostSignificantBits, long leastSignificantBits) {
+        long hash = (mostSignificantBits ^ Long.rotateLeft(leastSignificantBits, 32)) * MIX_MULTIPLIER;
+        return (int) (hash >>> 32) & mask;
+    }
+
+    private void allocate(int capacity) {
+        long[] previousBits = bits;
+        byte[] previousStates = states;
+        bits = new long[2 * capacity];
+        states = new byte[capacity];
+        mask = capacity - 1;
+        if (previousStates == null) return;
+        for (int slot = 0; slot < previousStates.length; slot++) {
+            if (previousStates[slot] == 0) continue;
+            int target = slotOf(previousBits[2 * slot], previousBits[2 * slot + 1]);
+            bits[2 * target] = previousBits[2 * slot];
+            bits[2 * target + 1] = previousBits[2 * slot + 1];
+            states[target] = previousStates[slot];
+        }
+    }
+
+    private void count(int previous, int next) {
+        int changed = previous ^ next;
+        if ((changed & IN_FLIGHT) != 0) inFlightCount += (next & IN_FLIGHT) != 0 ? 1 : -1;
+        if ((changed & LOCKED) != 0) lockedCount += (next & LOCKED) != 0 ? 1 : -1;
+    }
+}
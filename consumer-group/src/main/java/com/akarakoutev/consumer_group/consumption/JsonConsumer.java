@@ -1,10 +1,12 @@
 package com.akarakoutev.consumer_group.consumption;
 
+import com.akarakoutev.consumer_group.deduplication.Deduplicator;
+import com.akarakoutev.consumer_group.lock.LockService;
+import com.akarakoutev.consumer_group.recording.ProcessedMessageStream;
 import com.akarakoutev.consumer_group.redis.RedisConnectionService;
-import com.akarakoutev.consumer_group.redis.RedisLockService;
+import com.akarakoutev.consumer_group.source.SourceMessage;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import io.lettuce.core.pubsub.api.reactive.ChannelMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,11 +18,14 @@ public abstract class JsonConsumer extends AbstractConsumer<JsonNode> {
     protected final ObjectMapper objectMapper;
 
     public JsonConsumer(
-            RedisLockService redisLockService,
+            LockService lockService,
             RedisConnectionService redisConnectionService,
+            ConsumerMetrics metrics,
+            Deduplicator deduplicator,
+            ProcessedMessageStream processedMessageStream,
             ObjectMapper objectMapper
     ) {
-        super(redisLockService, redisConnectionService);
+        super(lockService, redisConnectionService, metrics, deduplicator, processedMessageStream);
         this.objectMapper = objectMapper;
     }
 
@@ -28,14 +33,14 @@ public abstract class JsonConsumer extends AbstractConsumer<JsonNode> {
      * {@inheritDoc}
      * @param rawMessage The incoming raw message
      * @return The parsed JsonNode object
-     * @see ChannelMessage
+     * @see SourceMessage
      */
     @Override
-    public JsonNode parse(ChannelMessage<String, String> rawMessage) {
+    public JsonNode parse(SourceMessage rawMessage) {
         try {
-            return objectMapper.readTree(rawMessage.getMessage());
-        } catch (IOException e) {
-            LOGGER.error("Could not parse raw message {} as JSON", rawMessage.getMessage(), e);
+            return objectMapper.readTree(rawMessage.payload());
+        } catch (IOException | IllegalArgumentException e) {
+            LOGGER.error("Could not parse raw message {} as JSON", rawMessage.payloadAsString(), e);
         }
         return null;
     }
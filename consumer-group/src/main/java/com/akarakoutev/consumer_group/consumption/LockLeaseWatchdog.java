@@ -0,0 +1,84 @@
+package com.akarakoutev.consumer_group.consumption;
+
+import com.akarakoutev.consumer_group.lock.LockService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Treats message locks as leases. Every {@code spring.redis.lock.lease.renew-interval-millis}, the locks held by all consumers of the group are renewed
+ * for another {@code spring.redis.lock.duration-seconds} at once, for as long as the consumption of their messages is still running. The lock duration can
+ * then be kept short, so locks of a crashed instance expire quickly, without long-running messages losing their locks while being processed.
+ * If the whole JVM stalls for longer than the lock duration, the renewal stalls along with it and the locks expire, as they should.
+ * <p>
+ * Renewals run on their own timer rather than a scheduled task, so they keep going while the group is drained on shutdown.
+ */
+@Component
+@ConditionalOnProperty(name = "spring.redis.lock.lease.enabled", havingValue = "true")
+public class LockLeaseWatchdog {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LockLeaseWatchdog.class);
+
+    private final MessageDispatcher<?> dispatcher;
+    private final LockService lockService;
+    private final Counter renewedCounter;
+    private final Counter lostCounter;
+    private final Disposable renewals;
+
+    @Autowired
+    public LockLeaseWatchdog(
+            MessageDispatcher<?> dispatcher,
+            LockService lockService,
+            MeterRegistry meterRegistry,
+            @Value("${spring.redis.lock.lease.renew-interval-millis}") long renewIntervalMillis,
+            @Value("${spring.redis.lock.duration-seconds}") long lockDurationSeconds
+    ) {
+        if (renewIntervalMillis >= lockDurationSeconds * 1000) throw new IllegalArgumentException("Locks must be renewed more often than they expire");
+        this.dispatcher = dispatcher;
+        this.lockService = lockService;
+        this.renewedCounter = Counter.builder("consumer.lock.lease.renewed")
+                .description("Locks, renewed while their messages were being consumed")
+                .register(meterRegistry);
+        this.lostCounter = Counter.builder("consumer.lock.lease.lost")
+                .description("Locks, which had expired or had been taken over by the time they were renewed")
+                .register(meterRegistry);
+        this.renewals = Flux.interval(Duration.ofMillis(renewIntervalMillis))
+                .onBackpressureDrop()
+                .concatMap(__ -> renew(), 1)
+                .subscribe();
+    }
+
+    /**
+     * Renew all held locks in a single batch. Failed renewals are logged and retried on the next tick.
+     */
+    private Mono<Void> renew() {
+        Map<String, String> owners = dispatcher.heldLocks();
+        if (owners.isEmpty()) return Mono.empty();
+        return lockService.renewLocks(owners)
+                .doOnNext(lostKeys -> {
+                    renewedCounter.increment(owners.size() - lostKeys.size());
+                    if (lostKeys.isEmpty()) return;
+                    lostCounter.increment(lostKeys.size());
+                    LOGGER.warn("Lost {} locks before their messages were consumed, e.g. {}", lostKeys.size(), lostKeys.get(0));
+                })
+                .doOnError(error -> LOGGER.error("Error renewing {} locks", owners.size(), error))
+                .onErrorComplete()
+                .then();
+    }
+
+    @PreDestroy
+    void close() {
+        renewals.dispose();
+    }
+}
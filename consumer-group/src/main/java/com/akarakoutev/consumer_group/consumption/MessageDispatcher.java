@@ -0,0 +1,670 @@
+package com.akarakoutev.consumer_group.consumption;
+
+import com.akarakoutev.consumer_group.consumption.ConsumerMetrics.Stage;
+import com.akarakoutev.consumer_group.exception.BatchConsumptionException;
+import com.akarakoutev.consumer_group.exception.BatchConsumptionException.Outcome;
+import com.akarakoutev.consumer_group.exception.ConsumerNotActiveException;
+import com.akarakoutev.consumer_group.exception.MessageValidationException;
+import com.akarakoutev.consumer_group.redis.RedisSpillQueue;
+import com.akarakoutev.consumer_group.source.ChannelRoute;
+import com.akarakoutev.consumer_group.source.MessageSource;
+import com.akarakoutev.consumer_group.source.SourceMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.publisher.SynchronousSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+public class MessageDispatcher<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageDispatcher.class);
+
+    private static final Duration DRAIN_POLL_INTERVAL = Duration.ofMillis(50);
+
+    /**
+     * What happens to incoming messages, once the intake buffer is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * The oldest buffered message is dropped and counted. Dropped stream messages stay pending and are claimed again later
+         */
+        DROP_OLDEST,
+        /**
+         * No more messages are requested from the source until there is room. A stream source stops reading, while Pub/Sub messages,
+         * which can not be slowed down, are held by the client
+         */
+        BLOCK,
+        /**
+         * The newest message is spilled to a Redis list and replayed once there is room
+         */
+        SPILL;
+
+        public static OverflowPolicy fromProperty(String value) {
+            return valueOf(value.trim().replace('-', '_').toUpperCase());
+        }
+    }
+
+    /**
+     * How consumers run their pipelines
+     */
+    public enum ExecutionMode {
+        /**
+         * Each consumer runs a non-blocking reactive pipeline, bounded per consumer
+         */
+        REACTIVE,
+        /**
+         * Each message is consumed on its own virtual thread, which waits for every step in turn. The number of messages in flight
+         * is bounded by a semaphore for the whole group
+         */
+        VIRTUAL_THREADS;
+
+        public static ExecutionMode fromProperty(String value) {
+            return valueOf(value.trim().replace('-', '_').toUpperCase());
+        }
+    }
+
+    private final ConsumerFactory<T> consumerFactory;
+    private volatile List<Member<T>> members;
+    private final Set<Member<T>> retiringMembers = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger peakQueueDepth = new AtomicInteger();
+    private final MessageSource messageSource;
+    private final ConsumerMetrics metrics;
+    private final RedisSpillQueue spillQueue;
+    private final PartitionAffinity partitionAffinity;
+    private final FailedMessageHandler failedMessageHandler;
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final int batchSize;
+    private final Duration batchWindow;
+    private final ExecutionMode executionMode;
+    private final Semaphore virtualThreadPermits;
+    private final List<ChannelRoute> routes;
+    private final WeightedFairGate routeGate;
+    private final Sinks.One<Boolean> intakeStopped = Sinks.one();
+    private final Sinks.Empty<Void> pipelineCompleted = Sinks.empty();
+    private volatile Disposable pipeline;
+    private ExecutorService virtualThreadExecutor;
+    private Scheduler virtualThreadDispatchScheduler;
+
+    public MessageDispatcher(
+            ConsumerFactory<T> consumerFactory,
+            int groupSize,
+            MessageSource messageSource,
+            ConsumerMetrics metrics,
+            RedisSpillQueue spillQueue,
+            PartitionAffinity partitionAffinity,
+            FailedMessageHandler failedMessageHandler,
+            int queueCapacity,
+            int concurrency,
+            OverflowPolicy overflowPolicy,
+            int batchSize,
+            Duration batchWindow,
+            ExecutionMode executionMode,
+            int virtualThreadPermits,
+            List<ChannelRoute> routes,
+            int defaultRouteWeight,
+            int routesMaxInFlight
+    ) {
+        if (overflowPolicy == OverflowPolicy.SPILL && spillQueue == null) throw new IllegalArgumentException("A spill queue is required by the spill overflow policy");
+        this.consumerFactory = consumerFactory;
+        this.members = IntStream.range(0, groupSize).mapToObj(__ -> new Member<>(consumerFactory.create())).toList();
+        this.messageSource = messageSource;
+        this.metrics = metrics;
+        this.spillQueue = spillQueue;
+        // Sources, which deliver each message to a single instance, are partitioned by Redis already
+        this.partitionAffinity = messageSource.requiresLock() ? partitionAffinity : null;
+        this.failedMessageHandler = failedMessageHandler;
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.batchSize = batchSize;
+        this.batchWindow = batchWindow;
+        this.executionMode = executionMode;
+        this.virtualThreadPermits = new Semaphore(virtualThreadPermits);
+        List<ChannelRoute> allRoutes = new ArrayList<>(routes);
+        allRoutes.add(ChannelRoute.defaultRoute(defaultRouteWeight, concurrency));
+        this.routes = List.copyOf(allRoutes);
+        this.routeGate = routes.isEmpty() ? null : new WeightedFairGate(routesMaxInFlight, this.routes.stream().mapToInt(ChannelRoute::weight).toArray());
+        if (!routes.isEmpty() && executionMode == ExecutionMode.VIRTUAL_THREADS) {
+            LOGGER.warn("Messages are routed by channel, but routes are only scheduled by their weights in reactive mode");
+        }
+
+        init();
+    }
+
+    /**
+     * Initialize the dispatcher. A single subscription to the message source is made for the whole group and every incoming message is handed
+     * to exactly one local consumer, so consumers within the same JVM never compete for the same message. All processing happens in one
+     * reactive pipeline, so demand only reaches the source while consumers keep up:
+     * <ul>
+     *     <li>Incoming messages are held in an intake buffer of up to {@code queueCapacity} messages. Once it is full, the {@link OverflowPolicy} applies</li>
+     *     <li>Each consumer has at most {@code concurrency} messages, or batches, in flight. Messages of the channels configured as {@link ChannelRoute}s
+     *     are consumed separately, with the concurrency of their route, and share the messages in flight by the weights of the routes</li>
+     *     <li>If {@code batchSize} is greater than one, each consumer collects its messages into batches of up to {@code batchSize} messages,
+     *     waiting no longer than {@code batchWindow} for a batch to fill up</li>
+     * </ul>
+     * Fully recorded messages are acknowledged to the source, as are messages, which failed and were handed to the {@link FailedMessageHandler}
+     * to be retried or dead-lettered. Messages, which are due to be retried, are merged into the intake. Messages are grouped by the consumer they were handed to, rather than by its position,
+     * so consumers can be added and retired while the pipeline runs. The pipeline completes once the intake has been stopped by {@link #drain(Duration)}
+     * and every message already received has been consumed.
+     */
+    private void init() {
+        if (members.isEmpty()) {
+            LOGGER.warn("No consumers in the group, skipping subscription to the message source");
+            pipelineCompleted.tryEmitEmpty();
+            return;
+        }
+
+        boolean lockRequired = messageSource.requiresLock();
+        if (executionMode == ExecutionMode.VIRTUAL_THREADS) {
+            initVirtualThreads(lockRequired);
+            return;
+        }
+
+        Flux<Void> consumption = routeGate == null
+                ? consumeRoute(0, intake(), lockRequired)
+                : intake()
+                        .groupBy(this::routeOf, queueCapacity)
+                        .flatMap(routeMessages -> consumeRoute(routeMessages.key(), buffer(routeMessages), lockRequired), Integer.MAX_VALUE);
+        pipeline = consumption.subscribe(null, this::onPipelineError, this::onPipelineCompleted);
+    }
+
+    /**
+     * Consume the messages of a route. Each consumer has at most the {@link ChannelRoute#concurrency()} of the route in flight, separately for each route,
+     * so messages of one route never wait behind the messages of another route at the same consumer. With several routes, the messages in flight across
+     * all routes are bounded by the {@link WeightedFairGate} and shared by the weights of the routes.
+     * @param route The index of the route
+     * @param messages The incoming messages of the route
+     * @param lockRequired Whether messages have to be locked before processing
+     * @return A {@code Flux<Void>}, which completes once all messages of the route have been consumed
+     */
+    private Flux<Void> consumeRoute(int route, Flux<SourceMessage> messages, boolean lockRequired) {
+        int routeConcurrency = routes.get(route).concurrency();
+        return messages
+                .handle(this::dispatch)
+                .groupBy(Delivery::member, queueCapacity)
+                .flatMap(deliveries -> {
+                    Member<T> member = deliveries.key();
+                    Flux<Delivery<T>> memberDeliveries = deliveries.takeUntilOther(member.retirement().asMono());
+                    return batchSize > 1
+                            ? memberDeliveries.bufferTimeout(batchSize, batchWindow, true).flatMap(batch -> gated(route, () -> consumeBatch(member, batch, lockRequired)), routeConcurrency)
+                            : memberDeliveries.flatMap(delivery -> gated(route, () -> consume(member, delivery, lockRequired)), routeConcurrency);
+                }, Integer.MAX_VALUE);
+    }
+
+    private Mono<Void> gated(int route, Supplier<Mono<Void>> consumption) {
+        return routeGate == null ? consumption.get() : routeGate.schedule(route, consumption);
+    }
+
+    /**
+     * @return The index of the first route, which the channel of a message matches, which is the default route if it matches no other
+     */
+    private int routeOf(SourceMessage rawMessage) {
+        for (int route = 0; route < routes.size(); route++) {
+            if (routes.get(route).matches(rawMessage.source())) return route;
+        }
+        return routes.size() - 1;
+    }
+
+    /**
+     * Initialize the dispatcher in {@link ExecutionMode#VIRTUAL_THREADS} mode. Dispatched messages are handed over to a single virtual thread, which waits
+     * for a permit before starting a new virtual thread for each message. While all permits are taken, no more messages are requested from the intake buffer,
+     * to which the {@link OverflowPolicy} applies as usual. Messages are not batched in this mode.
+     */
+    private void initVirtualThreads(boolean lockRequired) {
+        virtualThreadExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("consumer-", 0).factory());
+        virtualThreadDispatchScheduler = Schedulers.fromExecutorService(
+                Executors.newSingleThreadExecutor(Thread.ofVirtual().name("consumer-dispatch").factory()), "consumer-dispatch");
+        pipeline = intake()
+                .handle(this::dispatch)
+                .publishOn(virtualThreadDispatchScheduler, queueCapacity)
+                .doOnNext(delivery -> {
+                    virtualThreadPermits.acquireUninterruptibly();
+                    virtualThreadExecutor.execute(() -> {
+                        try {
+                            consumeBlocking(delivery.member(), delivery, lockRequired);
+                        } finally {
+                            virtualThreadPermits.release();
+                        }
+                    });
+                })
+                .subscribe(null, this::onPipelineError, this::onPipelineCompleted);
+    }
+
+    /**
+     * @return The number of consumers, which are currently handed messages
+     */
+    public int size() {
+        return members.size();
+    }
+
+    /**
+     * Add a new consumer to the group. It is handed messages right away, and the share of messages of every other consumer shrinks accordingly.
+     */
+    public synchronized void addConsumer() {
+        List<Member<T>> grownMembers = new ArrayList<>(members);
+        grownMembers.add(new Member<>(consumerFactory.create()));
+        members = List.copyOf(grownMembers);
+    }
+
+    /**
+     * Retire the most recently added consumer. It is no longer handed messages right away, while the messages it has already been handed are finished
+     * for up to {@code drainTimeout}. The consumer is then deregistered and disposed of. The last consumer of the group is never retired.
+     * @param drainTimeout How long to wait for the consumer to finish its messages
+     * @return A {@code Mono<Boolean>} containing whether a consumer was retired, which completes once it has been deregistered
+     */
+    public Mono<Boolean> retireConsumer(Duration drainTimeout) {
+        Member<T> member;
+        synchronized (this) {
+            if (members.size() <= 1) return Mono.just(false);
+            member = members.get(members.size() - 1);
+            members = List.copyOf(members.subList(0, members.size() - 1));
+            retiringMembers.add(member);
+        }
+        AbstractConsumer<T> consumer = member.consumer();
+        return Flux.interval(DRAIN_POLL_INTERVAL)
+                .filter(__ -> member.queuedMessages().get() == 0)
+                .next()
+                .timeout(drainTimeout, Mono.<Long>fromRunnable(() -> LOGGER.warn("Consumer {} did not finish {} messages within {}, retiring it anyway",
+                        consumer.consumerId, member.queuedMessages().get(), drainTimeout)))
+                .then(Mono.defer(consumer::deregister))
+                .thenReturn(true)
+                .doFinally(__ -> {
+                    retiringMembers.remove(member);
+                    member.retirement().tryEmitValue(true);
+                    consumerFactory.dispose(consumer);
+                });
+    }
+
+    /**
+     * Collect the locks, which the consumers of the group, including the ones being retired, hold for messages they have not finished yet
+     * @return The unique identifiers of the lock owners, by the keys of their locks
+     */
+    public Map<String, String> heldLocks() {
+        Map<String, String> owners = new HashMap<>();
+        for (Member<T> member : members) member.consumer().collectHeldLocks(owners);
+        for (Member<T> member : retiringMembers) member.consumer().collectHeldLocks(owners);
+        return owners;
+    }
+
+    /**
+     * Take the largest number of messages, which a single consumer has been handed but not yet finished, since the previous call. Since incoming
+     * messages arrive in bursts, the peak captures load, which has already been worked off by the time the depth could be sampled.
+     * @return The peak queue depth of a single consumer
+     */
+    public int takePeakQueueDepth() {
+        int currentQueueDepth = members.stream().mapToInt(member -> member.queuedMessages().get()).max().orElse(0);
+        return Math.max(peakQueueDepth.getAndSet(currentQueueDepth), currentQueueDepth);
+    }
+
+    /**
+     * Drain the group before shutting down, so other consumer group instances can take over without waiting for locks or registrations to expire:
+     * <ol>
+     *     <li>No more messages are received from the source. Messages, which have already been received, are still dispatched</li>
+     *     <li>The consumers finish the messages they have been handed, for up to {@code timeout}. Messages, which are not finished by then, are abandoned
+     *     without being acknowledged</li>
+     *     <li>Every consumer releases the locks of its abandoned messages in a single batch and is deregistered from the consumer registry</li>
+     * </ol>
+     * @param timeout How long to wait for the consumers to finish their messages
+     * @return A {@code Mono<Void>}, which completes once all consumers have been deregistered
+     */
+    public Mono<Void> drain(Duration timeout) {
+        LOGGER.info("Draining consumer group of {} consumers", members.size());
+        intakeStopped.tryEmitValue(true);
+        return pipelineCompleted.asMono()
+                .then(Flux.interval(DRAIN_POLL_INTERVAL)
+                        .filter(__ -> members.stream().allMatch(member -> member.queuedMessages().get() == 0))
+                        .next()
+                        .then())
+                .timeout(timeout, Mono.fromRunnable(() -> LOGGER.warn("Consumer group did not finish {} messages within {}, abandoning them",
+                        members.stream().mapToInt(member -> member.queuedMessages().get()).sum(), timeout)))
+                .doFinally(__ -> close())
+                .then(Flux.fromIterable(members)
+                        .flatMap(member -> member.consumer().shutdown()
+                                .onErrorResume(error -> {
+                                    LOGGER.error("Error shutting down consumer {}", member.consumer().consumerId, error);
+                                    return Mono.empty();
+                                }))
+                        .then())
+                .timeout(timeout.multipliedBy(2))
+                .doOnSuccess(__ -> LOGGER.info("Drained consumer group"));
+    }
+
+    /**
+     * Stop receiving and consuming messages right away, along with the virtual threads, if running in {@link ExecutionMode#VIRTUAL_THREADS} mode
+     */
+    public void close() {
+        if (pipeline != null) pipeline.dispose();
+        if (virtualThreadDispatchScheduler != null) virtualThreadDispatchScheduler.dispose();
+        if (virtualThreadExecutor != null) virtualThreadExecutor.shutdown();
+    }
+
+    /**
+     * Apply the {@link OverflowPolicy} to the incoming messages
+     * @return A {@code Flux<SourceMessage>} of the incoming messages, which are to be dispatched
+     */
+    private Flux<SourceMessage> intake() {
+        Flux<SourceMessage> received = Flux.merge(
+                buffer(messageSource.receive().takeUntilOther(intakeStopped.asMono())),
+                failedMessageHandler.retries().takeUntilOther(intakeStopped.asMono()));
+        return overflowPolicy == OverflowPolicy.SPILL ? Flux.merge(received, spillQueue.replay().takeUntilOther(intakeStopped.asMono())) : received;
+    }
+
+    /**
+     * Buffer up to {@code queueCapacity} messages, which have not been requested yet. With several routes, each route has a buffer of its own, so a flood of messages
+     * on one route only overflows the buffer of that route, unless the {@link OverflowPolicy#BLOCK} policy holds back the shared source.
+     * @param messages The incoming messages
+     * @return A {@code Flux<SourceMessage>} of the buffered messages
+     */
+    private Flux<SourceMessage> buffer(Flux<SourceMessage> messages) {
+        return switch (overflowPolicy) {
+            case DROP_OLDEST -> messages.onBackpressureBuffer(queueCapacity, this::drop, BufferOverflowStrategy.DROP_OLDEST);
+            case BLOCK -> messages.limitRate(queueCapacity);
+            case SPILL -> messages.onBackpressureBuffer(queueCapacity, this::spill, BufferOverflowStrategy.DROP_LATEST);
+        };
+    }
+
+    private void onPipelineError(Throwable error) {
+        LOGGER.error("Consumer group stopped consuming messages", error);
+        pipelineCompleted.tryEmitEmpty();
+    }
+
+    private void onPipelineCompleted() {
+        LOGGER.info("Consumer group stopped receiving messages");
+        pipelineCompleted.tryEmitEmpty();
+    }
+
+    private void drop(SourceMessage rawMessage) {
+        LOGGER.warn("Intake buffer is full, dropping message {}", rawMessage.payloadAsString());
+        metrics.recordIntakeDropped();
+    }
+
+    private void spill(SourceMessage rawMessage) {
+        metrics.recordIntakeSpilled();
+        spillQueue.spill(rawMessage)
+                .doOnNext(__ -> acknowledge(rawMessage))
+                .doOnError(error -> LOGGER.error("Could not spill message {}", rawMessage.payloadAsString(), error))
+                .subscribe();
+    }
+
+    private Mono<Void> consume(Member<T> member, Delivery<T> delivery, boolean lockRequired) {
+        return Mono.defer(() -> member.consumer().consume(delivery.message(), lockRequired))
+                .filter(recorded -> recorded)
+                .doOnNext(__ -> acknowledge(delivery.sourceMessage()))
+                .then()
+                .onErrorResume(ConsumerNotActiveException.class, error -> handOver(member, List.of(delivery), lockRequired))
+                .onErrorResume(error -> fail(delivery.sourceMessage(), error))
+                .doFinally(__ -> member.queuedMessages().decrementAndGet());
+    }
+
+    private void consumeBlocking(Member<T> member, Delivery<T> delivery, boolean lockRequired) {
+        try {
+            if (member.consumer().consumeBlocking(delivery.message(), lockRequired)) acknowledge(delivery.sourceMessage());
+        } catch (ConsumerNotActiveException e) {
+            Member<T> replacement = replacementFor(member, delivery);
+            if (replacement == null) {
+                logSkipped(member.consumer(), 1);
+            } else {
+                replacement.queuedMessages().incrementAndGet();
+                consumeBlocking(replacement, delivery, lockRequired);
+            }
+        } catch (RuntimeException e) {
+            if (Boolean.TRUE.equals(failedMessageHandler.fail(delivery.sourceMessage(), e).block())) acknowledge(delivery.sourceMessage());
+        } finally {
+            member.queuedMessages().decrementAndGet();
+        }
+    }
+
+    private Mono<Void> consumeBatch(Member<T> member, List<Delivery<T>> batch, boolean lockRequired) {
+        return Mono.defer(() -> member.consumer().consume(batch.stream().map(Delivery::message).toList(), lockRequired))
+                .doOnNext(recorded -> {
+                    for (int index = 0; index < batch.size(); index++) {
+                        if (recorded.get(index)) acknowledge(batch.get(index).sourceMessage());
+                    }
+                })
+                .then()
+                .onErrorResume(ConsumerNotActiveException.class, error -> handOver(member, batch, lockRequired))
+                .onErrorResume(error -> settle(member, batch, error, lockRequired))
+                .doFinally(__ -> member.queuedMessages().addAndGet(-batch.size()));
+    }
+
+    /**
+     * Settle the messages of a batch, which failed, by their outcomes. Messages, which were recorded or skipped as duplicates, are acknowledged,
+     * and messages, which are locked by another consumer, are left to it, the same way as if the batch had succeeded.
+     * Only the messages, which failed before they were recorded, are consumed again, or failed, if the batch consisted of a single message.
+     * @param member The member, which failed to consume the batch
+     * @param batch The messages of the batch
+     * @param error The error, with which the batch failed, which is a {@link BatchConsumptionException} unless the batch failed unexpectedly
+     * @param lockRequired Whether the messages have to be locked before processing
+     * @return A {@code Mono<Void>}, which completes once every failed message has been consumed or failed again
+     */
+    private Mono<Void> settle(Member<T> member, List<Delivery<T>> batch, Throwable error, boolean lockRequired) {
+        List<Outcome> outcomes = error instanceof BatchConsumptionException batchError && batchError.outcomes().size() == batch.size()
+                ? batchError.outcomes()
+                : Collections.nCopies(batch.size(), Outcome.FAILED);
+        Throwable cause = error instanceof BatchConsumptionException && error.getCause() != null ? error.getCause() : error;
+        List<Delivery<T>> failedDeliveries = new ArrayList<>(batch.size());
+        for (int index = 0; index < batch.size(); index++) {
+            // Contended messages are left pending for the consumer, which holds their locks
+            if (outcomes.get(index) == Outcome.RECORDED) acknowledge(batch.get(index).sourceMessage());
+            if (outcomes.get(index) == Outcome.FAILED) failedDeliveries.add(batch.get(index));
+        }
+        if (failedDeliveries.isEmpty()) return Mono.empty();
+        return batch.size() == 1 ? fail(failedDeliveries.get(0).sourceMessage(), cause) : split(member, failedDeliveries, lockRequired);
+    }
+
+    /**
+     * Consume the messages of a batch, which failed before they were recorded, one at a time, so a single poison message only fails itself,
+     * instead of the whole batch. The messages have been forgotten by the deduplicator, and their locks have been released, unless releasing failed,
+     * in which case a message finds its own lock contended, and is left pending until it is claimed again, once the lock has expired.
+     * @param member The member, which failed to consume the batch
+     * @param failedDeliveries The messages of the batch, which failed before they were recorded
+     * @param lockRequired Whether the messages have to be locked before processing
+     * @return A {@code Mono<Void>}, which completes once every message has been consumed or failed
+     */
+    private Mono<Void> split(Member<T> member, List<Delivery<T>> failedDeliveries, boolean lockRequired) {
+        LOGGER.warn("{} messages of a batch failed at consumer {}, consuming them one at a time", failedDeliveries.size(), member.consumer().consumerId);
+        member.queuedMessages().addAndGet(failedDeliveries.size());
+        return Flux.fromIterable(failedDeliveries)
+                .concatMap(delivery -> consume(member, delivery, lockRequired))
+                .then();
+    }
+
+    /**
+     * Acknowledge a message, which has been consumed or handed on, to the source it was received from, which is the spill queue for replayed spilled messages
+     * and the retry queue for retried messages
+     */
+    private void acknowledge(SourceMessage rawMessage) {
+        if (spillQueue != null && spillQueue.isReplayed(rawMessage)) {
+            spillQueue.acknowledge(rawMessage)
+                    .subscribe(null, error -> LOGGER.error("Could not acknowledge spilled message {}, it will be replayed again", rawMessage.payloadAsString(), error));
+        } else if (failedMessageHandler.isRetry(rawMessage)) {
+            failedMessageHandler.acknowledge(rawMessage);
+        } else {
+            messageSource.acknowledge(rawMessage);
+        }
+    }
+
+    /**
+     * Hand a message, which failed, to the {@link FailedMessageHandler}, and acknowledge it once it has been scheduled to be retried or dead-lettered
+     */
+    private Mono<Void> fail(SourceMessage rawMessage, Throwable error) {
+        return failedMessageHandler.fail(rawMessage, error)
+                .filter(handled -> handled)
+                .doOnNext(__ -> acknowledge(rawMessage))
+                .then();
+    }
+
+    /**
+     * Dead-letter a message, which can never succeed, and acknowledge it once it has been dead-lettered. If it could not be dead-lettered,
+     * a stream message stays pending and is claimed again later.
+     */
+    private void reject(SourceMessage rawMessage, String reason) {
+        failedMessageHandler.reject(rawMessage, reason)
+                .filter(handled -> handled)
+                .subscribe(__ -> acknowledge(rawMessage));
+    }
+
+    /**
+     * Hand messages, which were queued for a consumer that has gone inactive in the meantime, over to the active consumer, which is now responsible for them,
+     * instead of skipping them. This way, a consumer going inactive does not leave its queued messages unconsumed.
+     * @param member The inactive member
+     * @param deliveries The messages, queued for the inactive member
+     * @param lockRequired Whether the messages have to be locked before processing
+     * @return A {@code Mono<Void>}, which completes once the messages have been consumed by the replacement
+     */
+    private Mono<Void> handOver(Member<T> member, List<Delivery<T>> deliveries, boolean lockRequired) {
+        Member<T> replacement = replacementFor(member, deliveries.get(0));
+        if (replacement == null) {
+            logSkipped(member.consumer(), deliveries.size());
+            return Mono.empty();
+        }
+        LOGGER.info("Consumer {} is not active, handing {} messages over to consumer {}", member.consumer().consumerId, deliveries.size(), replacement.consumer().consumerId);
+        replacement.queuedMessages().addAndGet(deliveries.size());
+        return deliveries.size() == 1
+                ? consume(replacement, deliveries.get(0), lockRequired)
+                : consumeBatch(replacement, deliveries, lockRequired);
+    }
+
+    /**
+     * @return The active member, which is now responsible for a delivery, or {@code null} if it is the same, inactive member or no consumer is active
+     */
+    private Member<T> replacementFor(Member<T> member, Delivery<T> delivery) {
+        Member<T> replacement = selectConsumer(members, member.consumer().identify(delivery.message()));
+        return replacement == member ? null : replacement;
+    }
+
+    /**
+     * Log messages, which could not be handed over from an inactive consumer and are skipped without stopping the pipeline. Such messages are not acknowledged.
+     */
+    private void logSkipped(AbstractConsumer<T> consumer, int messageCount) {
+        LOGGER.warn("Consumer {} is not active, skipping {} messages", consumer.consumerId, messageCount);
+    }
+
+    /**
+     * Dispatch an incoming raw message to a single consumer. The message is parsed and validated once for the whole group and is routed by the hash
+     * of its identifier, so that the same message always lands with the same consumer. Inactive consumers are skipped. Messages, which can not be parsed
+     * or validated, are dead-lettered right away, since they would never succeed. Retried messages have already been claimed by this instance,
+     * so they are not skipped by partitioning.
+     * @param rawMessage The unprocessed incoming {@code SourceMessage}
+     * @param sink Receives the message, along with the index of the selected consumer
+     * @see SourceMessage
+     */
+    private void dispatch(SourceMessage rawMessage, SynchronousSink<Delivery<T>> sink) {
+        // All consumers in the group share the same message type, so any of them can parse and identify the message
+        List<Member<T>> currentMembers = members;
+        AbstractConsumer<T> router = currentMembers.get(0).consumer();
+        long parseStartNanos = System.nanoTime();
+        T message = router.parse(rawMessage);
+        metrics.record(Stage.PARSE, parseStartNanos);
+        if (message == null) {
+            metrics.recordParseError();
+            reject(rawMessage, "Message could not be parsed");
+            return;
+        }
+
+        long validationStartNanos = System.nanoTime();
+        try {
+            router.validate(message);
+        } catch (MessageValidationException e) {
+            LOGGER.error("Dropping invalid message {}", rawMessage.payloadAsString(), e);
+            metrics.recordValidationFailure();
+            reject(rawMessage, e.getMessage());
+            return;
+        } finally {
+            metrics.record(Stage.VALIDATE, validationStartNanos);
+        }
+
+        String key = router.identify(message);
+        if (partitionAffinity != null && rawMessage.attempt() == 0 && !ownsLocally(currentMembers, key)) {
+            metrics.recordPartitionSkipped();
+            return;
+        }
+
+        Member<T> member = selectConsumer(currentMembers, key);
+        if (member == null) {
+            LOGGER.warn("No active consumers, dropping message {}", rawMessage.payloadAsString());
+            return;
+        }
+
+        int queueDepth = member.queuedMessages().incrementAndGet();
+        if (queueDepth > peakQueueDepth.get()) peakQueueDepth.accumulateAndGet(queueDepth, Math::max);
+        sink.next(new Delivery<>(rawMessage, message, member));
+    }
+
+    /**
+     * Check whether a message key is owned by a consumer of this instance on the partition ring, either currently or, during a handoff, previously.
+     * Consumers being retired still own their keys until they have been deregistered, so their messages are not left without an owner.
+     * @param currentMembers The current members of the group
+     * @param key The unique message identifier
+     * @return Whether the message is to be consumed by this instance, which is always the case until the ring has been read
+     */
+    private boolean ownsLocally(List<Member<T>> currentMembers, String key) {
+        UUID owner = partitionAffinity.ownerOf(key);
+        if (owner == null || isLocal(currentMembers, owner)) return true;
+        UUID previousOwner = partitionAffinity.previousOwnerOf(key);
+        return previousOwner != null && isLocal(currentMembers, previousOwner);
+    }
+
+    private boolean isLocal(List<Member<T>> currentMembers, UUID consumerId) {
+        for (Member<T> member : currentMembers) {
+            if (member.consumer().consumerId.equals(consumerId)) return true;
+        }
+        for (Member<T> member : retiringMembers) {
+            if (member.consumer().consumerId.equals(consumerId)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Select the consumer responsible for a message key. If the owning consumer is inactive, the next active one is chosen.
+     * @param currentMembers The current members of the group
+     * @param key The unique message identifier
+     * @return The selected member, or {@code null} if no consumer is active
+     */
+    private Member<T> selectConsumer(List<Member<T>> currentMembers, String key) {
+        int consumerCount = currentMembers.size();
+        int index = Math.floorMod(key.hashCode(), consumerCount);
+        for (int probe = 0; probe < consumerCount; probe++) {
+            Member<T> candidate = currentMembers.get((index + probe) % consumerCount);
+            if (candidate.consumer().isActive()) return candidate;
+        }
+        return null;
+    }
+
+    /**
+     * A consumer of the group, along with the number of messages it has been handed but not yet finished
+     * @param consumer The consumer
+     * @param queuedMessages The number of messages, handed to the consumer and not yet finished
+     * @param retirement Emits once the consumer has been retired, which completes its deliveries
+     */
+    private record Member<T>(AbstractConsumer<T> consumer, AtomicInteger queuedMessages, Sinks.One<Boolean> retirement) {
+
+        Member(AbstractConsumer<T> consumer) {
+            this(consumer, new AtomicInteger(), Sinks.one());
+        }
+    }
+
+    private record Delivery<T>(SourceMessage sourceMessage, T message, Member<T> member) {
+    }
+}
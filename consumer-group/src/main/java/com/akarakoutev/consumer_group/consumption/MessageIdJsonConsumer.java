@@ -1,20 +1,28 @@
 package com.akarakoutev.consumer_group.consumption;
 
 import com.akarakoutev.consumer_group.consumption.domain.Message;
+import com.akarakoutev.consumer_group.deduplication.Deduplicator;
 import com.akarakoutev.consumer_group.exception.MessageValidationException;
+import com.akarakoutev.consumer_group.lock.LockService;
+import com.akarakoutev.consumer_group.parsing.UuidParser;
+import com.akarakoutev.consumer_group.recording.ProcessedMessageStream;
 import com.akarakoutev.consumer_group.redis.RedisConnectionService;
-import com.akarakoutev.consumer_group.redis.RedisLockService;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.BinaryNode;
+import io.lettuce.core.RedisFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Mono;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
 import java.util.stream.Stream;
 
@@ -24,11 +32,14 @@ public class MessageIdJsonConsumer extends JsonConsumer {
     private static final Logger LOGGER = LoggerFactory.getLogger(MessageIdJsonConsumer.class);
 
     public MessageIdJsonConsumer(
-            RedisLockService redisLockService,
+            LockService lockService,
             RedisConnectionService redisConnectionService,
+            ConsumerMetrics metrics,
+            Deduplicator deduplicator,
+            ProcessedMessageStream processedMessageStream,
             ObjectMapper objectMapper
     ) {
-        super(redisLockService, redisConnectionService, objectMapper);
+        super(lockService, redisConnectionService, metrics, deduplicator, processedMessageStream, objectMapper);
     }
 
     /**
@@ -42,22 +53,74 @@ public class MessageIdJsonConsumer extends JsonConsumer {
     }
 
     /**
-     * {@inheritDoc} into a Redis Stream
+     * {@inheritDoc} into the shard of the processed messages stream
      * @param message The message to record
      * @return A {@code Mono<Boolean>} which contains the result of the recording operation
      */
     @Override
     public Mono<Boolean> record(JsonNode message) {
+        if (processedMessageStream.binaryEntries() || writesBehind()) return recordAll(List.of(message)).map(recorded -> recorded.get(0));
+        return redisConnectionService.executeReactive(reactiveCommands -> reactiveCommands.xadd(processedMessageStream.key(identify(message)), processedMessageStream.addArgs(), (Object[]) toStreamEntry(message)))
+                .doOnNext(messageStreamId -> LOGGER.debug("Recorded message {} with ID: {}", identify(message), messageStreamId))
+                .flatMap(messageStreamId -> Mono.just(messageStreamId != null));
+    }
+
+    /**
+     * {@inheritDoc} into the shards of the processed messages stream. All messages are recorded in a single pipeline.
+     * @param messages The messages to record
+     * @return A {@code Mono<List<Boolean>>} which contains the result of each recording operation, in the order of the messages
+     */
+    @Override
+    public Mono<List<Boolean>> recordAll(List<JsonNode> messages) {
+        if (messages.isEmpty()) return Mono.just(List.of());
+        if (writesBehind()) {
+            List<Object[]> entries = messages.stream()
+                    .map(message -> processedMessageStream.binaryEntries() ? toBinaryStreamEntry(message) : (Object[]) toStreamEntry(message))
+                    .toList();
+            return recordBehind(messages.stream().map(this::identify).toList(), entries);
+        }
+        if (processedMessageStream.binaryEntries()) {
+            return recordBinaryEntries(messages.stream().map(this::identify).toList(), messages.stream().map(this::toBinaryStreamEntry).toList());
+        }
+        return redisConnectionService
+                .executePipelined(asyncCommands -> messages.stream()
+                        .<RedisFuture<?>>map(message -> asyncCommands.xadd(processedMessageStream.key(identify(message)), processedMessageStream.addArgs(), (Object[]) toStreamEntry(message)))
+                        .toList())
+                .doOnNext(messageStreamIds -> LOGGER.debug("Recorded {} messages", messageStreamIds.size()))
+                .map(messageStreamIds -> messageStreamIds.stream().map(Objects::nonNull).toList());
+    }
+
+    String[] toStreamEntry(JsonNode message) {
         Iterator<Map.Entry<String, JsonNode>> iterator = message.fields();
-        String[] messageProps = Stream.generate(() -> null)
+        return Stream.generate(() -> null)
                 .takeWhile(__ -> iterator.hasNext())
                 .map(__ -> iterator.next())
                 .flatMap(entry -> Stream.of(entry.getKey(), entry.getValue().textValue()))
                 .toArray(String[]::new);
+    }
 
-        return redisConnectionService.executeReactive(reactiveCommands -> reactiveCommands.xadd(PROCESSED_MESSAGES_KEY, (Object[]) messageProps))
-                .doOnNext(messageStreamId -> LOGGER.debug("Recorded message {} in stream '{}' with ID: {}", identify(message), PROCESSED_MESSAGES_KEY, messageStreamId))
-                .flatMap(messageStreamId -> Mono.just(messageStreamId != null));
+    /**
+     * Build the field-value pairs of the binary stream entry for a processed message. Values, which are UUIDs, are stored as their 16 raw bytes,
+     * all other values as UTF-8 text.
+     * @param message The processed message
+     * @return The field-value pairs, as expected by {@code XADD}
+     */
+    Object[] toBinaryStreamEntry(JsonNode message) {
+        String[] textEntry = toStreamEntry(message);
+        Object[] binaryEntry = new Object[textEntry.length];
+        for (int index = 0; index < textEntry.length; index += 2) {
+            binaryEntry[index] = textEntry[index];
+            binaryEntry[index + 1] = toBinaryValue(textEntry[index + 1]);
+        }
+        return binaryEntry;
+    }
+
+    private static byte[] toBinaryValue(String value) {
+        try {
+            return UuidParser.toBytes(UuidParser.parse(value.toCharArray(), 0, value.length()));
+        } catch (IllegalArgumentException e) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
     }
 
     /**
@@ -78,9 +141,18 @@ public class MessageIdJsonConsumer extends JsonConsumer {
     }
 
 
+    /**
+     * {@inheritDoc}
+     *
+     * A {@code message_id}, carried as raw bytes by a binary payload, is identified by its textual form, so it is locked and recorded in the same way
+     * as in a text payload.
+     * @param message The message to identify
+     * @return The {@code message_id} of the message
+     */
     @Override
     public String identify(JsonNode message) {
-        return message.get(Message.MESSAGE_ID_KEY).textValue();
+        JsonNode messageId = message.get(Message.MESSAGE_ID_KEY);
+        return messageId instanceof BinaryNode binaryMessageId ? UuidParser.parse(binaryMessageId.binaryValue()).toString() : messageId.textValue();
     }
 
     UUID getConsumerId() {
@@ -0,0 +1,113 @@
+package com.akarakoutev.consumer_group.consumption;
+
+import com.akarakoutev.consumer_group.redis.RedisConnectionService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Partitions the message identifiers between the consumers of all consumer group instances, so every instance only consumes the messages it owns.
+ * Every {@code consumer.partitioning.refresh-interval-millis}, the live consumers are read from the consumer registry {@code consumer:ids} and placed on a
+ * {@link PartitionRing}. Consumers, whose registration has expired, drop out of the registry and their ranges move to the remaining consumers on the next refresh.
+ * <br>
+ * Instances refresh the ring at different times, so after a change of the members, the previous ring is still honoured for
+ * {@code consumer.partitioning.handoff-millis}. Until then, a message is consumed by the instance of its previous owner as well as by the instance of its
+ * new owner, where locks keep it from being processed twice, rather than by no instance at all. Until the ring has been read for the first time,
+ * every message is consumed, as without partitioning.
+ */
+@Component
+@ConditionalOnProperty(name = "consumer.partitioning.enabled", havingValue = "true")
+public class PartitionAffinity {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PartitionAffinity.class);
+
+    private final RedisConnectionService redisConnectionService;
+    private final int virtualNodes;
+    private final long handoffNanos;
+    private final Disposable refreshes;
+    private volatile PartitionRing ring = PartitionRing.EMPTY;
+    private volatile PartitionRing previousRing = PartitionRing.EMPTY;
+    private volatile long previousRingExpiryNanos;
+
+    @Autowired
+    public PartitionAffinity(
+            RedisConnectionService redisConnectionService,
+            MeterRegistry meterRegistry,
+            @Value("${consumer.partitioning.refresh-interval-millis}") long refreshIntervalMillis,
+            @Value("${consumer.partitioning.handoff-millis}") long handoffMillis,
+            @Value("${consumer.partitioning.virtual-nodes}") int virtualNodes
+    ) {
+        if (handoffMillis < refreshIntervalMillis) throw new IllegalArgumentException("The handoff must last at least as long as the refresh interval");
+        this.redisConnectionService = redisConnectionService;
+        this.virtualNodes = virtualNodes;
+        this.handoffNanos = Duration.ofMillis(handoffMillis).toNanos();
+        Gauge.builder("consumer.partitioning.members", this, affinity -> affinity.ring.memberCount())
+                .description("Consumers of all instances, between which message identifiers are partitioned")
+                .register(meterRegistry);
+        this.refreshes = Flux.interval(Duration.ZERO, Duration.ofMillis(refreshIntervalMillis))
+                .onBackpressureDrop()
+                .concatMap(__ -> refresh(), 1)
+                .subscribe();
+    }
+
+    /**
+     * @param key The unique message identifier
+     * @return The consumer, which owns the message, or {@code null} if the ring has not been read yet
+     */
+    public UUID ownerOf(String key) {
+        return ring.ownerOf(key);
+    }
+
+    /**
+     * @param key The unique message identifier
+     * @return The consumer, which owned the message before the last change of the members, or {@code null} if the handoff is over
+     */
+    public UUID previousOwnerOf(String key) {
+        if (System.nanoTime() - previousRingExpiryNanos > 0) return null;
+        return previousRing.ownerOf(key);
+    }
+
+    /**
+     * Read the live consumers from the registry and rebuild the ring, if they have changed. Failed refreshes keep the current ring and are retried on the next tick.
+     */
+    private Mono<Void> refresh() {
+        return redisConnectionService.executeReactive(reactiveCommands -> reactiveCommands.hkeys(AbstractConsumer.CONSUMER_ID_KEY).collectList())
+                .doOnNext(consumerIds -> {
+                    List<UUID> members = new ArrayList<>(consumerIds.size());
+                    for (String consumerId : consumerIds) {
+                        try {
+                            members.add(UUID.fromString(consumerId));
+                        } catch (IllegalArgumentException e) {
+                            LOGGER.warn("Skipping malformed consumer registration {}", consumerId);
+                        }
+                    }
+                    PartitionRing refreshedRing = PartitionRing.of(members, virtualNodes);
+                    if (refreshedRing.hasSameMembers(ring)) return;
+                    LOGGER.info("Partitioning message identifiers between {} consumers", refreshedRing.memberCount());
+                    previousRing = ring;
+                    previousRingExpiryNanos = System.nanoTime() + handoffNanos;
+                    ring = refreshedRing;
+                })
+                .doOnError(error -> LOGGER.error("Error reading the consumer registry", error))
+                .onErrorComplete()
+                .then();
+    }
+
+    @PreDestroy
+    void close() {
+        refreshes.dispose();
+    }
+}
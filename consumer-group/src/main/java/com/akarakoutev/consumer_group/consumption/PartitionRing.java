@@ -0,0 +1,99 @@
+package com.akarakoutev.consumer_group.consumption;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * An immutable consistent-hash ring over the consumers of all consumer group instances. Each consumer is placed on the ring at {@code virtualNodes}
+ * points and owns the range of hashes up to each of its points, so every message identifier has exactly one owner. Adding or removing a consumer only moves
+ * the ranges next to its own points, about {@code 1 / n} of all identifiers, while the owners of all other identifiers stay the same.
+ * <br>
+ * Hashes are derived from the UTF-8 bytes of the keys, so every instance computes the same owners from the same members.
+ */
+final class PartitionRing {
+
+    static final PartitionRing EMPTY = new PartitionRing(new UUID[0], new long[0], new UUID[0]);
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final UUID[] members;
+    private final long[] points;
+    private final UUID[] owners;
+
+    private PartitionRing(UUID[] members, long[] points, UUID[] owners) {
+        this.members = members;
+        this.points = points;
+        this.owners = owners;
+    }
+
+    /**
+     * Build the ring of a set of consumers
+     * @param consumerIds The unique identifiers of the consumers
+     * @param virtualNodes The number of points of each consumer on the ring. More points spread the identifiers more evenly
+     * @return The ring
+     */
+    static PartitionRing of(Collection<UUID> consumerIds, int virtualNodes) {
+        UUID[] sortedIds = consumerIds.stream().distinct().sorted().toArray(UUID[]::new);
+        long[][] placedPoints = new long[sortedIds.length * virtualNodes][];
+        int placed = 0;
+        for (int idIndex = 0; idIndex < sortedIds.length; idIndex++) {
+            String consumerId = sortedIds[idIndex].toString();
+            for (int virtualNode = 0; virtualNode < virtualNodes; virtualNode++) {
+                placedPoints[placed++] = new long[] {hash(consumerId + "#" + virtualNode), idIndex};
+            }
+        }
+        // Ties between points are broken by the order of the consumer identifiers, so the ring does not depend on the order of the members
+        Arrays.sort(placedPoints, (first, second) -> first[0] != second[0] ? Long.compare(first[0], second[0]) : Long.compare(first[1], second[1]));
+
+        long[] points = new long[placedPoints.length];
+        UUID[] owners = new UUID[placedPoints.length];
+        for (int index = 0; index < placedPoints.length; index++) {
+            points[index] = placedPoints[index][0];
+            owners[index] = sortedIds[(int) placedPoints[index][1]];
+        }
+        return new PartitionRing(sortedIds, points, owners);
+    }
+
+    /**
+     * @param key The unique message identifier
+     * @return The consumer, which owns the key, or {@code null} if the ring is empty
+     */
+    UUID ownerOf(String key) {
+        if (points.length == 0) return null;
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) index = -index - 1;
+        return owners[index == points.length ? 0 : index];
+    }
+
+    /**
+     * @return The number of consumers on the ring
+     */
+    int memberCount() {
+        return members.length;
+    }
+
+    /**
+     * @param other Another ring
+     * @return Whether both rings place the same consumers, in which case every key has the same owner on both
+     */
+    boolean hasSameMembers(PartitionRing other) {
+        return Arrays.equals(members, other.members);
+    }
+
+    private static long hash(String key) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte keyByte : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= keyByte & 0xff;
+            hash *= FNV_PRIME;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
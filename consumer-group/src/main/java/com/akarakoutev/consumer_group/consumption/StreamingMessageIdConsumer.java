@@ -0,0 +1,160 @@
+package com.akarakoutev.consumer_group.consumption;
+
+import com.akarakoutev.consumer_group.consumption.domain.Message;
+import com.akarakoutev.consumer_group.deduplication.Deduplicator;
+import com.akarakoutev.consumer_group.exception.MessageValidationException;
+import com.akarakoutev.consumer_group.lock.LockService;
+import com.akarakoutev.consumer_group.parsing.UuidParser;
+import com.akarakoutev.consumer_group.recording.ProcessedMessageStream;
+import com.akarakoutev.consumer_group.redis.RedisConnectionService;
+import com.akarakoutev.consumer_group.source.SourceMessage;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.lettuce.core.RedisFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * A consumer for messages, identified by their {@code message_id}, which reads the raw payload bytes with a streaming {@link JsonParser} instead of
+ * building a {@code JsonNode} tree. Only the {@code message_id} is extracted and it is parsed straight into a {@link UUID}.
+ */
+@Component
+@Scope("prototype")
+public class StreamingMessageIdConsumer extends AbstractConsumer<Message> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StreamingMessageIdConsumer.class);
+
+    private final JsonFactory jsonFactory;
+
+    public StreamingMessageIdConsumer(
+            LockService lockService,
+            RedisConnectionService redisConnectionService,
+            ConsumerMetrics metrics,
+            Deduplicator deduplicator,
+            ProcessedMessageStream processedMessageStream,
+            ObjectMapper objectMapper
+    ) {
+        super(lockService, redisConnectionService, metrics, deduplicator, processedMessageStream);
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * All fields, other than {@code message_id}, are skipped without being decoded. The {@code message_id} is read either as text or, from binary payloads,
+     * as its 16 raw bytes.
+     * @param rawMessage The incoming raw message
+     * @return The parsed {@code Message}, without a {@code message_id} if it is missing, or {@code null} if the payload is not a JSON object
+     */
+    @Override
+    public Message parse(SourceMessage rawMessage) {
+        if (rawMessage.payload() == null) return null;
+        try (JsonParser parser = jsonFactory.createParser(rawMessage.payload())) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) return null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.currentName();
+                JsonToken valueToken = parser.nextToken();
+                if (valueToken == JsonToken.VALUE_STRING && Message.MESSAGE_ID_KEY.equals(fieldName)) {
+                    return new Message(UuidParser.parse(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength()));
+                }
+                if (valueToken == JsonToken.VALUE_EMBEDDED_OBJECT && Message.MESSAGE_ID_KEY.equals(fieldName)) {
+                    return new Message(UuidParser.parse(parser.getBinaryValue()));
+                }
+                parser.skipChildren();
+            }
+            return new Message(null);
+        } catch (IOException | IllegalArgumentException e) {
+            LOGGER.error("Could not parse raw message {} as JSON", rawMessage.payloadAsString(), e);
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @param message The message to validate
+     */
+    @Override
+    public void validate(Message message) {
+        if (message.messageId() == null) throw new MessageValidationException(String.format("Could not find expected key %s", Message.MESSAGE_ID_KEY));
+        LOGGER.debug("Validating message {}", message.messageId());
+    }
+
+    /**
+     * {@inheritDoc}
+     * @param message The message to be processed
+     * @return A {@code Mono<Message>} containing the now processed message
+     */
+    @Override
+    public Mono<Message> process(Message message) {
+        LOGGER.debug("Processing message {} by consumer {}", message.messageId(), consumerId);
+        return Mono.just(new Message(message.messageId(), UUID.randomUUID(), consumerId));
+    }
+
+    /**
+     * {@inheritDoc} into the shard of the processed messages stream
+     * @param message The message to record
+     * @return A {@code Mono<Boolean>} which contains the result of the recording operation
+     */
+    @Override
+    public Mono<Boolean> record(Message message) {
+        if (processedMessageStream.binaryEntries() || writesBehind()) return recordAll(List.of(message)).map(recorded -> recorded.get(0));
+        return redisConnectionService.executeReactive(reactiveCommands -> reactiveCommands.xadd(processedMessageStream.key(identify(message)), processedMessageStream.addArgs(), toStreamEntry(message)))
+                .doOnNext(messageStreamId -> LOGGER.debug("Recorded message {} with ID: {}", message.messageId(), messageStreamId))
+                .map(Objects::nonNull);
+    }
+
+    /**
+     * {@inheritDoc} into the shards of the processed messages stream. All messages are recorded in a single pipeline.
+     * @param messages The messages to record
+     * @return A {@code Mono<List<Boolean>>} which contains the result of each recording operation, in the order of the messages
+     */
+    @Override
+    public Mono<List<Boolean>> recordAll(List<Message> messages) {
+        if (messages.isEmpty()) return Mono.just(List.of());
+        if (writesBehind()) return recordBehind(messages.stream().map(this::identify).toList(), messages.stream().map(this::toStreamEntry).toList());
+        if (processedMessageStream.binaryEntries()) {
+            return recordBinaryEntries(messages.stream().map(this::identify).toList(), messages.stream().map(this::toStreamEntry).toList());
+        }
+        return redisConnectionService
+                .executePipelined(asyncCommands -> messages.stream()
+                        .<RedisFuture<?>>map(message -> asyncCommands.xadd(processedMessageStream.key(identify(message)), processedMessageStream.addArgs(), toStreamEntry(message)))
+                        .toList())
+                .doOnNext(messageStreamIds -> LOGGER.debug("Recorded {} messages", messageStreamIds.size()))
+                .map(messageStreamIds -> messageStreamIds.stream().map(Objects::nonNull).toList());
+    }
+
+    @Override
+    public String identify(Message message) {
+        return message.messageId().toString();
+    }
+
+    /**
+     * Build the field-value pairs of the stream entry for a processed message directly, without an intermediate tree or stream.
+     * With binary entries, each UUID is stored as its 16 raw bytes.
+     * @param message The processed message
+     * @return The field-value pairs, as expected by {@code XADD}
+     */
+    Object[] toStreamEntry(Message message) {
+        if (processedMessageStream.binaryEntries()) {
+            return new Object[] {
+                    Message.MESSAGE_ID_KEY, UuidParser.toBytes(message.messageId()),
+                    Message.PROCESSING_RESULT_KEY, UuidParser.toBytes(message.processingResult()),
+                    Message.PROCESSING_CONSUMER_ID_KEY, UuidParser.toBytes(message.processingConsumerId())
+            };
+        }
+        return new Object[] {
+                Message.MESSAGE_ID_KEY, message.messageId().toString(),
+                Message.PROCESSING_RESULT_KEY, message.processingResult().toString(),
+                Message.PROCESSING_CONSUMER_ID_KEY, message.processingConsumerId().toString()
+        };
+    }
+}
@@ -0,0 +1,119 @@
+package com.akarakoutev.consumer_group.consumption;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.function.Supplier;
+
+/**
+ * Bounds the work in flight across several lanes and shares it between them by their weights. While lanes compete for permits, every free permit goes to
+ * the waiting lane with the lowest virtual time, which advances by {@code 1 / weight} for each permit granted to the lane, so each lane receives permits
+ * in proportion to its weight. A lane, which was idle, starts from the current virtual time, rather than catching up on the permits it did not use.
+ * While permits are free, work starts right away, regardless of the weights.
+ */
+final class WeightedFairGate {
+
+    private final Lane[] lanes;
+    private int availablePermits;
+    private double virtualTime;
+
+    /**
+     * @param permits The maximum amount of work in flight across all lanes
+     * @param weights The weight of each lane
+     */
+    WeightedFairGate(int permits, int[] weights) {
+        if (permits < 1) throw new IllegalArgumentException("At least one permit is required");
+        this.availablePermits = permits;
+        this.lanes = new Lane[weights.length];
+        for (int lane = 0; lane < weights.length; lane++) this.lanes[lane] = new Lane(1.0 / weights[lane]);
+    }
+
+    /**
+     * Run work, once a permit has been granted to its lane. The permit is returned once the work completes, errors or is cancelled. Work, which is cancelled
+     * while waiting, leaves the queue of its lane.
+     * @param lane The index of the lane
+     * @param work Supplies the work, once a permit has been granted
+     * @return The gated work
+     */
+    <V> Mono<V> schedule(int lane, Supplier<Mono<V>> work) {
+        return Mono.defer(() -> {
+            Waiter waiter = new Waiter();
+            return Mono.<Void>create(sink -> enqueue(lanes[lane], waiter, sink))
+                    .then(Mono.defer(work))
+                    .doFinally(__ -> finish(lanes[lane], waiter));
+        });
+    }
+
+    private void enqueue(Lane lane, Waiter waiter, MonoSink<Void> sink) {
+        synchronized (this) {
+            waiter.sink = sink;
+            if (availablePermits > 0 && !hasWaiters()) {
+                availablePermits--;
+                grant(lane, waiter);
+            } else {
+                if (lane.waiters.isEmpty()) lane.virtualTime = Math.max(lane.virtualTime, virtualTime);
+                lane.waiters.add(waiter);
+                return;
+            }
+        }
+        sink.success();
+    }
+
+    private void finish(Lane lane, Waiter waiter) {
+        Waiter next;
+        synchronized (this) {
+            if (!waiter.granted) {
+                lane.waiters.remove(waiter);
+                return;
+            }
+            next = grantNext();
+            if (next == null) availablePermits++;
+        }
+        if (next != null) next.sink.success();
+    }
+
+    /**
+     * Hand a returned permit over to the first waiter of the lane with the lowest virtual time
+     * @return The waiter, which has been granted the permit, or {@code null} if no lane is waiting
+     */
+    private Waiter grantNext() {
+        Lane nextLane = null;
+        for (Lane lane : lanes) {
+            if (!lane.waiters.isEmpty() && (nextLane == null || lane.virtualTime < nextLane.virtualTime)) nextLane = lane;
+        }
+        if (nextLane == null) return null;
+        Waiter next = nextLane.waiters.poll();
+        grant(nextLane, next);
+        return next;
+    }
+
+    private void grant(Lane lane, Waiter waiter) {
+        waiter.granted = true;
+        virtualTime = Math.max(virtualTime, lane.virtualTime);
+        lane.virtualTime = Math.max(lane.virtualTime, virtualTime) + lane.cost;
+    }
+
+    private boolean hasWaiters() {
+        for (Lane lane : lanes) {
+            if (!lane.waiters.isEmpty()) return true;
+        }
+        return false;
+    }
+
+    private static final class Lane {
+        private final double cost;
+        private final Queue<Waiter> waiters = new ArrayDeque<>();
+        private double virtualTime;
+
+        private Lane(double cost) {
+            this.cost = cost;
+        }
+    }
+
+    private static final class Waiter {
+        private MonoSink<Void> sink;
+        private boolean granted;
+    }
+}
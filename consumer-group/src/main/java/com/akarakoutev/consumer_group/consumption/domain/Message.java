@@ -6,11 +6,13 @@ import java.util.UUID;
 
 public record Message (
         @JsonProperty(MESSAGE_ID_KEY) UUID messageId,
-        @JsonProperty("processing_result") UUID processingResult,
-        @JsonProperty("processing_consumer_id") UUID processingConsumerId
+        @JsonProperty(PROCESSING_RESULT_KEY) UUID processingResult,
+        @JsonProperty(PROCESSING_CONSUMER_ID_KEY) UUID processingConsumerId
 ) {
 
     public static final String MESSAGE_ID_KEY = "message_id";
+    public static final String PROCESSING_RESULT_KEY = "processing_result";
+    public static final String PROCESSING_CONSUMER_ID_KEY = "processing_consumer_id";
 
     public Message(@JsonProperty(MESSAGE_ID_KEY) UUID messageId) {
         this(messageId, null, null);
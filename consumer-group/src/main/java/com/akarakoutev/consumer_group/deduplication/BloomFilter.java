@@ -0,0 +1,136 @@
+package com.akarakoutev.consumer_group.deduplication;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe Bloom filter over string keys. Bits are set lock-free, so concurrent insertions never block each other.
+ * Bit positions are derived from two 64-bit hashes of the key via double hashing.
+ */
+public class BloomFilter {
+
+    private static final double LN_2 = Math.log(2);
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long GOLDEN_RATIO = 0x9e3779b97f4a7c15L;
+
+    private final AtomicLongArray words;
+    private final long bitCount;
+    private final int hashCount;
+    private final AtomicLong setBitCount = new AtomicLong();
+
+    BloomFilter(long bitCount, int hashCount) {
+        int wordCount = (int) Math.min(Integer.MAX_VALUE, (bitCount + Long.SIZE - 1) / Long.SIZE);
+        this.words = new AtomicLongArray(wordCount);
+        this.bitCount = (long) wordCount * Long.SIZE;
+        this.hashCount = hashCount;
+    }
+
+    /**
+     * Create a Bloom filter of optimal size for the expected number of insertions
+     * @param expectedInsertions The number of keys, expected to be inserted
+     * @param falsePositiveRate The accepted rate of false positives, once all expected keys are inserted
+     * @return An empty Bloom filter
+     */
+    public static BloomFilter create(long expectedInsertions, double falsePositiveRate) {
+        if (expectedInsertions <= 0) throw new IllegalArgumentException("The expected insertions must be positive");
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) throw new IllegalArgumentException("The false positive rate must be between 0 and 1");
+        long bitCount = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (LN_2 * LN_2));
+        int hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedInsertions * LN_2));
+        return new BloomFilter(bitCount, hashCount);
+    }
+
+    public boolean mightContain(String key) {
+        long hash = hash(key);
+        long firstHash = mix(hash);
+        long secondHash = mix(hash ^ GOLDEN_RATIO) | 1;
+        for (int index = 0; index < hashCount; index++) {
+            if (!isSet(position(firstHash, secondHash, index))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Insert a key
+     * @param key The key to insert
+     * @return The bit positions of the key, so they can be mirrored elsewhere
+     */
+    public long[] put(String key) {
+        long hash = hash(key);
+        long firstHash = mix(hash);
+        long secondHash = mix(hash ^ GOLDEN_RATIO) | 1;
+        long[] positions = new long[hashCount];
+        for (int index = 0; index < hashCount; index++) {
+            positions[index] = position(firstHash, secondHash, index);
+            set(positions[index]);
+        }
+        return positions;
+    }
+
+    /**
+     * Set all bits, which are set in a bitmap, stored in the format of Redis {@code SETBIT}, where bit {@code 0} is the most significant bit of the first byte
+     * @param bitmap The bitmap
+     */
+    public void merge(byte[] bitmap) {
+        for (int byteIndex = 0; byteIndex < bitmap.length; byteIndex++) {
+            if (bitmap[byteIndex] == 0) continue;
+            for (int bit = 0; bit < Byte.SIZE; bit++) {
+                long position = (long) byteIndex * Byte.SIZE + bit;
+                if (position < bitCount && (bitmap[byteIndex] & (0x80 >>> bit)) != 0) set(position);
+            }
+        }
+    }
+
+    /**
+     * @return The probability of a false positive, given the bits which are currently set
+     */
+    public double expectedFalsePositiveRate() {
+        return Math.pow((double) setBitCount.get() / bitCount, hashCount);
+    }
+
+    public long bitCount() {
+        return bitCount;
+    }
+
+    public int hashCount() {
+        return hashCount;
+    }
+
+    private boolean isSet(long position) {
+        return (words.get((int) (position >>> 6)) & (1L << position)) != 0;
+    }
+
+    private void set(long position) {
+        int wordIndex = (int) (position >>> 6);
+        long mask = 1L << position;
+        long word;
+        do {
+            word = words.get(wordIndex);
+            if ((word & mask) != 0) return;
+        } while (!words.compareAndSet(wordIndex, word, word | mask));
+        setBitCount.incrementAndGet();
+    }
+
+    private long position(long firstHash, long secondHash, int index) {
+        return Math.floorMod(firstHash + index * secondHash, bitCount);
+    }
+
+    private static long hash(String key) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte keyByte : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= keyByte & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,218 @@
+package com.akarakoutev.consumer_group.deduplication;
+
+import com.akarakoutev.consumer_group.redis.ManagedConnection;
+import com.akarakoutev.consumer_group.redis.RedisConfig;
+import com.akarakoutev.consumer_group.redis.RedisConnectionService;
+import io.lettuce.core.BitFieldArgs;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Long-horizon deduplication of consumed messages through rotating Bloom filters. The deduplication window is split into {@code generations} time slots,
+ * each with its own Bloom filter, sized for the expected message rate. Keys are inserted into the filter of the current slot and looked up in all of them,
+ * and the filter of the oldest slot is dropped once a new slot starts, so memory stays bounded however long the application runs.
+ * Each filter is sized for a share of the configured false positive rate, so the rate over the whole window does not exceed it.
+ * <br>
+ * Slots are aligned to the wall clock, so every instance uses the same slots. The filter of the next slot is created ahead of time by a scheduled task,
+ * and swapped in by the first lookup or insertion of the new slot with a compare-and-set, so messages never wait for a rotation.
+ * If mirroring is enabled, insertions are also written to a Redis bitmap per slot, which is loaded when an instance starts or a filter is created,
+ * so instances share their history and keep it across restarts. Bitmaps are only loaded by the scheduled task, never while a message is checked or inserted.
+ * All instances have to use the same settings for the bitmaps to be compatible, and mirrored filters can have at most {@code 2^31} bits,
+ * the largest offset {@code BITFIELD} takes.
+ */
+@Component
+@ConditionalOnProperty(name = "consumer.deduplication.bloom.enabled", havingValue = "true")
+public class BloomFilterDeduplicator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BloomFilterDeduplicator.class);
+    private static final String BITMAP_KEY_FORMAT = "dedup:bloom:%d";
+    private static final long MAX_MIRRORED_BIT_COUNT = (long) Integer.MAX_VALUE + 1;
+    private static final long ROTATION_CHECK_MILLIS = 1000;
+    private static final long ROTATION_LEAD_MILLIS = 5 * ROTATION_CHECK_MILLIS;
+
+    private final long expectedInsertions;
+    private final double generationFalsePositiveRate;
+    private final long generationMillis;
+    private final int generationCount;
+    private final ManagedConnection<String, byte[]> mirrorConnection;
+    private final Counter rejectedCounter;
+    private final AtomicReference<Generation[]> generations;
+    private volatile Generation upcoming;
+
+    @Autowired
+    public BloomFilterDeduplicator(
+            RedisConnectionService redisConnectionService,
+            MeterRegistry meterRegistry,
+            @Value("${consumer.deduplication.bloom.expected-rate}") long expectedRate,
+            @Value("${consumer.deduplication.bloom.window-minutes}") long windowMinutes,
+            @Value("${consumer.deduplication.bloom.generations}") int generationCount,
+            @Value("${consumer.deduplication.bloom.false-positive-rate}") double falsePositiveRate,
+            @Value("${consumer.deduplication.bloom.redis-mirror}") boolean redisMirror
+    ) {
+        if (generationCount < 2) throw new IllegalArgumentException("At least two Bloom filter generations are required");
+        this.generationCount = generationCount;
+        this.generationMillis = Duration.ofMinutes(windowMinutes).toMillis() / generationCount;
+        this.expectedInsertions = Math.max(1, expectedRate * generationMillis / 1000);
+        this.generationFalsePositiveRate = falsePositiveRate / generationCount;
+        long slot = currentSlot();
+        Generation[] initialGenerations = new Generation[generationCount];
+        for (int index = 0; index < generationCount; index++) initialGenerations[index] = newGeneration(slot - index);
+        if (redisMirror && initialGenerations[0].filter().bitCount() > MAX_MIRRORED_BIT_COUNT) {
+            throw new IllegalArgumentException("Mirrored Bloom filters can have at most " + MAX_MIRRORED_BIT_COUNT + " bits, lower the expected rate or the window");
+        }
+        this.generations = new AtomicReference<>(initialGenerations);
+        this.mirrorConnection = redisMirror ? redisConnectionService.openDedicatedConnection(RedisConfig.RAW_VALUE_CODEC) : null;
+        // The history is loaded before the first message is checked, which is the only time loading blocks
+        for (Generation generation : initialGenerations) load(generation).block();
+
+        this.rejectedCounter = Counter.builder("consumer.deduplication.bloom.rejected")
+                .description("Messages rejected as duplicates by the Bloom filters")
+                .register(meterRegistry);
+        Gauge.builder("consumer.deduplication.bloom.false.positive.rate.configured", () -> falsePositiveRate)
+                .description("The configured false positive rate over the whole deduplication window")
+                .register(meterRegistry);
+        Gauge.builder("consumer.deduplication.bloom.false.positive.rate.expected", this, BloomFilterDeduplicator::expectedFalsePositiveRate)
+                .description("The false positive rate, given the bits currently set in all Bloom filters")
+                .register(meterRegistry);
+        Gauge.builder("consumer.deduplication.bloom.bits", this, deduplicator -> Arrays.stream(deduplicator.generations.get()).mapToLong(generation -> generation.filter().bitCount()).sum())
+                .description("The size of all Bloom filters in bits")
+                .register(meterRegistry);
+        LOGGER.info("Deduplicating over {} Bloom filters of {} bits and {} hashes each", generationCount, initialGenerations[0].filter().bitCount(), initialGenerations[0].filter().hashCount());
+    }
+
+    /**
+     * Check whether a message has been consumed within the deduplication window. May report a message, which has not been consumed, at the false positive rate
+     * @param key The unique message identifier
+     * @return {@code true} if the message has likely been consumed before
+     */
+    public boolean mightContain(String key) {
+        for (Generation generation : currentGenerations()) {
+            if (generation.filter().mightContain(key)) {
+                rejectedCounter.increment();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remember a consumed message for the length of the deduplication window
+     * @param key The unique message identifier
+     */
+    public void put(String key) {
+        Generation current = currentGenerations()[0];
+        long[] positions = current.filter().put(key);
+        if (mirrorConnection == null) return;
+
+        BitFieldArgs bitFieldArgs = new BitFieldArgs();
+        for (long position : positions) bitFieldArgs.set(BitFieldArgs.unsigned(1), BitFieldArgs.offset((int) position), 1);
+        mirrorConnection.async().bitfield(current.bitmapKey(), bitFieldArgs);
+    }
+
+    public double expectedFalsePositiveRate() {
+        double trueNegativeRate = 1;
+        for (Generation generation : generations.get()) trueNegativeRate *= 1 - generation.filter().expectedFalsePositiveRate();
+        return 1 - trueNegativeRate;
+    }
+
+    @PreDestroy
+    void close() {
+        if (mirrorConnection != null) mirrorConnection.close();
+    }
+
+    /**
+     * Rotate the generations, if no message has done so since the current slot started, load the bitmaps of generations, which have not been loaded yet,
+     * and create the generation of the next slot, once it is about to start, so the rotation itself does no I/O
+     */
+    @Scheduled(fixedRate = ROTATION_CHECK_MILLIS)
+    private void rotateAhead() {
+        long slot = currentSlot();
+        for (Generation generation : rotate(slot)) load(generation).subscribe();
+        boolean nextSlotStarting = (slot + 1) * generationMillis - System.currentTimeMillis() <= ROTATION_LEAD_MILLIS;
+        if (nextSlotStarting && (upcoming == null || upcoming.slot() <= slot)) {
+            Generation next = newGeneration(slot + 1);
+            upcoming = next;
+            load(next).subscribe();
+        }
+    }
+
+    /**
+     * @return The generations, newest first, after rotating them if a new slot has started
+     */
+    private Generation[] currentGenerations() {
+        return rotate(currentSlot());
+    }
+
+    /**
+     * Rotate the generations to a slot without blocking. The generation of the slot is taken from the one created ahead of time, or created empty,
+     * if the scheduled task has fallen behind, in which case its bitmap is loaded by the next run of the task
+     * @return The generations, newest first
+     */
+    private Generation[] rotate(long slot) {
+        Generation[] current = generations.get();
+        while (current[0].slot() < slot) {
+            Generation[] previous = current;
+            Generation next = upcoming;
+            Generation[] rotated = new Generation[generationCount];
+            for (int index = 0; index < generationCount; index++) {
+                long generationSlot = slot - index;
+                rotated[index] = Arrays.stream(previous)
+                        .filter(generation -> generation.slot() == generationSlot)
+                        .findFirst()
+                        .orElseGet(() -> next != null && next.slot() == generationSlot ? next : newGeneration(generationSlot));
+            }
+            if (generations.compareAndSet(previous, rotated)) return rotated;
+            current = generations.get();
+        }
+        return current;
+    }
+
+    private Generation newGeneration(long slot) {
+        return new Generation(slot, String.format(BITMAP_KEY_FORMAT, slot), BloomFilter.create(expectedInsertions, generationFalsePositiveRate), new AtomicBoolean());
+    }
+
+    /**
+     * Merge the mirrored bitmap of a generation into its filter, once, and extend the expiry of the bitmap to the end of the deduplication window.
+     * If loading fails, it is attempted again by the next run of {@link #rotateAhead()}.
+     * @return A {@code Mono<Void>}, which completes once the bitmap has been merged
+     */
+    private Mono<Void> load(Generation generation) {
+        if (mirrorConnection == null || !generation.loaded().compareAndSet(false, true)) return Mono.empty();
+        return mirrorConnection.reactive().get(generation.bitmapKey())
+                .publishOn(Schedulers.boundedElastic())
+                .doOnNext(bitmap -> generation.filter().merge(bitmap))
+                .then(mirrorConnection.reactive().pexpire(generation.bitmapKey(), generationMillis * (generationCount + 1)))
+                .doOnError(error -> {
+                    generation.loaded().set(false);
+                    LOGGER.error("Error loading Bloom filter bitmap '{}'", generation.bitmapKey(), error);
+                })
+                .onErrorComplete()
+                .then();
+    }
+
+    private long currentSlot() {
+        return System.currentTimeMillis() / generationMillis;
+    }
+
+    /**
+     * @param loaded Whether the mirrored bitmap of the slot has been merged into the filter
+     */
+    private record Generation(long slot, String bitmapKey, BloomFilter filter, AtomicBoolean loaded) {
+    }
+}
@@ -0,0 +1,24 @@
+package com.akarakoutev.consumer_group.deduplication;
+
+public interface Deduplicator {
+
+    /**
+     * Mark a message as seen
+     * @param key The unique message identifier
+     * @return {@code true} if the message has not been seen before, {@code false} if it is a duplicate
+     */
+    boolean markSeen(String key);
+
+    /**
+     * Mark a message as consumed, after it has been recorded
+     * @param key The unique message identifier
+     */
+    default void markConsumed(String key) {
+    }
+
+    /**
+     * Forget a message, which could not be consumed, so that it is not treated as a duplicate when it is delivered again
+     * @param key The unique message identifier
+     */
+    void forget(String key);
+}
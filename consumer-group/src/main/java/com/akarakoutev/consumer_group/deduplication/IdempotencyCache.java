@@ -0,0 +1,62 @@
+package com.akarakoutev.consumer_group.deduplication;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * A bounded in-process cache of the messages, recently seen by this JVM. Entries expire after the lock duration, since until then a duplicate
+ * could not acquire the lock of the message anyway, so a hit saves the lock round trip to Redis.
+ */
+@Component
+public class IdempotencyCache implements Deduplicator {
+
+    private final Cache<String, Boolean> seenKeys;
+    private final Counter hitCounter;
+    private final Counter missCounter;
+
+    @Autowired
+    public IdempotencyCache(
+            @Value("${spring.redis.lock.duration-seconds}") long lockDurationSeconds,
+            @Value("${consumer.idempotency-cache.maximum-size}") long maximumSize,
+            MeterRegistry meterRegistry
+    ) {
+        this.seenKeys = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofSeconds(lockDurationSeconds))
+                .maximumSize(maximumSize)
+                .build();
+        this.hitCounter = Counter.builder("consumer.idempotency.hits")
+                .description("Duplicate messages, skipped without a round trip to Redis")
+                .register(meterRegistry);
+        this.missCounter = Counter.builder("consumer.idempotency.misses")
+                .description("Messages, which were not seen recently by this JVM")
+                .register(meterRegistry);
+        Gauge.builder("consumer.idempotency.size", seenKeys, Cache::estimatedSize)
+                .description("Messages currently remembered by the idempotency cache")
+                .register(meterRegistry);
+    }
+
+    /**
+     * {@inheritDoc}
+     * @param key The unique message identifier
+     * @return {@code true} if the message has not been seen within the lock duration, {@code false} if it is a duplicate
+     */
+    @Override
+    public boolean markSeen(String key) {
+        boolean unseen = seenKeys.asMap().putIfAbsent(key, Boolean.TRUE) == null;
+        (unseen ? missCounter : hitCounter).increment();
+        return unseen;
+    }
+
+    @Override
+    public void forget(String key) {
+        seenKeys.invalidate(key);
+    }
+}
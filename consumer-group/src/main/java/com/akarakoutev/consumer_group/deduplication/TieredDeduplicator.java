@@ -0,0 +1,40 @@
+package com.akarakoutev.consumer_group.deduplication;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+/**
+ * Deduplicates messages in two tiers. The {@link IdempotencyCache} exactly tracks the messages seen within the lock duration, including the ones still in flight,
+ * while the {@link BloomFilterDeduplicator} tracks consumed messages over a much longer window, at a bounded false positive rate.
+ */
+@Primary
+@Component
+@ConditionalOnProperty(name = "consumer.deduplication.bloom.enabled", havingValue = "true")
+public class TieredDeduplicator implements Deduplicator {
+
+    private final IdempotencyCache idempotencyCache;
+    private final BloomFilterDeduplicator bloomFilterDeduplicator;
+
+    @Autowired
+    public TieredDeduplicator(IdempotencyCache idempotencyCache, BloomFilterDeduplicator bloomFilterDeduplicator) {
+        this.idempotencyCache = idempotencyCache;
+        this.bloomFilterDeduplicator = bloomFilterDeduplicator;
+    }
+
+    @Override
+    public boolean markSeen(String key) {
+        return idempotencyCache.markSeen(key) && !bloomFilterDeduplicator.mightContain(key);
+    }
+
+    @Override
+    public void markConsumed(String key) {
+        bloomFilterDeduplicator.put(key);
+    }
+
+    @Override
+    public void forget(String key) {
+        idempotencyCache.forget(key);
+    }
+}
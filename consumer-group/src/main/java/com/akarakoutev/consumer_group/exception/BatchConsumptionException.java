@@ -0,0 +1,38 @@
+package com.akarakoutev.consumer_group.exception;
+
+import java.util.List;
+
+/**
+ * Thrown when consuming a batch of messages fails, with what is known of the outcome of each message. Its cause is the error, with which the batch failed.
+ */
+public class BatchConsumptionException extends RuntimeException {
+
+    public enum Outcome {
+        /**
+         * The message was recorded, or skipped as a duplicate, and must not be consumed again
+         */
+        RECORDED,
+        /**
+         * The message was not recorded, since its lock is held by another consumer, which is responsible for it
+         */
+        CONTENDED,
+        /**
+         * The message failed before it was recorded, and can be consumed again
+         */
+        FAILED
+    }
+
+    private final List<Outcome> outcomes;
+
+    public BatchConsumptionException(Throwable cause, List<Outcome> outcomes) {
+        super(String.format("Consuming batch of %d messages failed: %s", outcomes.size(), cause.getMessage()), cause);
+        this.outcomes = outcomes;
+    }
+
+    /**
+     * @return The outcome of each message, in the order of the messages of the batch
+     */
+    public List<Outcome> outcomes() {
+        return outcomes;
+    }
+}
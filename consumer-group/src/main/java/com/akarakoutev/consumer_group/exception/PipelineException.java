@@ -0,0 +1,34 @@
+package com.akarakoutev.consumer_group.exception;
+
+import java.util.List;
+
+/**
+ * Thrown when some commands of a pipeline fail, while the others may have succeeded. Carries the result of every command, so callers can tell which
+ * commands took effect. Its cause is the error of the first command, which failed.
+ */
+public class PipelineException extends RuntimeException {
+
+    private final List<Object> results;
+    private final boolean[] failed;
+
+    public PipelineException(Throwable cause, List<Object> results, boolean[] failed) {
+        super(String.format("Pipelined command failed: %s", cause.getMessage()), cause);
+        this.results = results;
+        this.failed = failed;
+    }
+
+    /**
+     * @return The results of all commands, in the order of their futures, with {@code null} for commands, which failed
+     */
+    public List<Object> results() {
+        return results;
+    }
+
+    /**
+     * @param index The index of a command
+     * @return Whether the command failed
+     */
+    public boolean failed(int index) {
+        return failed[index];
+    }
+}
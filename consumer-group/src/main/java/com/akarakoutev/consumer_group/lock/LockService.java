@@ -1,7 +1,11 @@
 package com.akarakoutev.consumer_group.lock;
 
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+import java.util.Map;
+
 public interface LockService {
 
     /**
@@ -18,4 +22,56 @@ public interface LockService {
      */
     Mono<Boolean> releaseLock(String key);
 
+    /**
+     * Acquire a lock for a key on behalf of an owner. Implementations, which do not track ownership, fall back to {@link #acquireLock(String)}.
+     * @param key The key, for which to acquire the lock
+     * @param owner The unique identifier of the lock owner
+     * @return A {@code Mono<Boolean>} containing the result of the lock creation
+     */
+    default Mono<Boolean> acquireLock(String key, String owner) {
+        return acquireLock(key);
+    }
+
+    /**
+     * Release a lock, acquired by an owner. Implementations, which do not track ownership, fall back to {@link #releaseLock(String)}.
+     * @param key The key, for which to release the lock
+     * @param owner The unique identifier of the lock owner
+     * @return A {@code Mono<Boolean>} containing the result of the lock releasing
+     */
+    default Mono<Boolean> releaseLock(String key, String owner) {
+        return releaseLock(key);
+    }
+
+    /**
+     * Acquire locks for a batch of keys on behalf of an owner. By default, each lock is acquired separately.
+     * @param keys The keys, for which to acquire locks
+     * @param owner The unique identifier of the lock owner
+     * @return A {@code Mono<List<Boolean>>} containing the result of each lock creation, in the order of the keys
+     */
+    default Mono<List<Boolean>> acquireLocks(List<String> keys, String owner) {
+        return Flux.fromIterable(keys)
+                .flatMapSequential(key -> acquireLock(key, owner).defaultIfEmpty(false))
+                .collectList();
+    }
+
+    /**
+     * Release locks for a batch of keys, acquired by an owner. By default, each lock is released separately.
+     * @param keys The keys, for which to release the locks
+     * @param owner The unique identifier of the lock owner
+     * @return A {@code Mono<List<Boolean>>} containing the result of each lock releasing, in the order of the keys
+     */
+    default Mono<List<Boolean>> releaseLocks(List<String> keys, String owner) {
+        return Flux.fromIterable(keys)
+                .flatMapSequential(key -> releaseLock(key, owner).defaultIfEmpty(false))
+                .collectList();
+    }
+
+    /**
+     * Extend the expiration of held locks by another lock duration, so locks can be kept short-lived while the messages they guard take longer to consume.
+     * All locks are renewed at once, regardless of their owners.
+     * @param owners The unique identifiers of the lock owners, by the keys of their locks
+     * @return A {@code Mono<List<String>>} containing the keys of the locks, which could not be renewed, since they have expired or are held by someone else
+     */
+    Mono<List<String>> renewLocks(Map<String, String> owners);
+
 }
@@ -1,9 +1,9 @@
 package com.akarakoutev.consumer_group.parsing;
 
-import io.lettuce.core.pubsub.api.reactive.ChannelMessage;
+import com.akarakoutev.consumer_group.source.SourceMessage;
 
 public interface Parser<T> {
 
-    T parse(ChannelMessage<String, String> rawMessage);
+    T parse(SourceMessage rawMessage);
 
 }
@@ -0,0 +1,38 @@
+package com.akarakoutev.consumer_group.parsing;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import java.util.function.Supplier;
+
+/**
+ * Encoding of the incoming message payloads, selected via {@code consumer.format}. Every format is read through a Jackson {@link JsonFactory}, so consumers
+ * parse payloads in the same way, either into a tree or with a streaming parser, regardless of the format. The binary formats may carry UUIDs
+ * as 16 raw bytes instead of their 36 character text.
+ */
+public enum PayloadFormat {
+    JSON(JsonFactory::new),
+    SMILE(SmileFactory::new),
+    CBOR(CBORFactory::new),
+    MSGPACK(MessagePackFactory::new);
+
+    private final Supplier<JsonFactory> factorySupplier;
+
+    PayloadFormat(Supplier<JsonFactory> factorySupplier) {
+        this.factorySupplier = factorySupplier;
+    }
+
+    /**
+     * @return A new {@code ObjectMapper}, which reads and writes this format
+     */
+    public ObjectMapper createObjectMapper() {
+        return new ObjectMapper(factorySupplier.get());
+    }
+
+    public static PayloadFormat fromProperty(String value) {
+        return valueOf(value.trim().toUpperCase());
+    }
+}
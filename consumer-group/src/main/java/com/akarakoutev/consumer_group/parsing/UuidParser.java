@@ -0,0 +1,122 @@
+package com.akarakoutev.consumer_group.parsing;
+
+import java.util.UUID;
+
+/**
+ * Parses the canonical 36 character textual representation of a {@link UUID} directly from a character buffer, without creating an intermediate {@code String}.
+ * Also converts UUIDs from and to their compact 16 byte binary representation, as carried by binary payloads and stream entries.
+ */
+public final class UuidParser {
+
+    private static final int UUID_LENGTH = 36;
+    public static final int UUID_BYTES = 16;
+
+    private UuidParser() {
+    }
+
+    /**
+     * Parse a UUID in its canonical form {@code xxxxxxxx-xxxx-xxxx-xxxx-xxxxxxxxxxxx}
+     * @param chars The buffer, containing the UUID
+     * @param offset The offset of the UUID in the buffer
+     * @param length The length of the UUID in the buffer
+     * @return The parsed {@code UUID}
+     * @throws IllegalArgumentException If the characters are not a UUID in its canonical form
+     */
+    public static UUID parse(char[] chars, int offset, int length) {
+        if (length != UUID_LENGTH
+                || chars[offset + 8] != '-' || chars[offset + 13] != '-' || chars[offset + 18] != '-' || chars[offset + 23] != '-') {
+            throw new IllegalArgumentException(String.format("Invalid UUID %s", new String(chars, offset, length)));
+        }
+        long mostSignificantBits = parseHex(chars, offset, 8) << 32
+                | parseHex(chars, offset + 9, 4) << 16
+                | parseHex(chars, offset + 14, 4);
+        long leastSignificantBits = parseHex(chars, offset + 19, 4) << 48
+                | parseHex(chars, offset + 24, 12);
+        return new UUID(mostSignificantBits, leastSignificantBits);
+    }
+
+    /**
+     * Check whether a string is a UUID in the canonical, lowercase form produced by {@link UUID#toString()}, so it can be restored exactly from its bits
+     * @param chars The string to check
+     * @return Whether the string is a canonical UUID
+     */
+    public static boolean isCanonical(CharSequence chars) {
+        if (chars.length() != UUID_LENGTH) return false;
+        for (int index = 0; index < UUID_LENGTH; index++) {
+            char character = chars.charAt(index);
+            boolean valid = index == 8 || index == 13 || index == 18 || index == 23
+                    ? character == '-'
+                    : character >= '0' && character <= '9' || character >= 'a' && character <= 'f';
+            if (!valid) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param chars A canonical UUID, as checked by {@link #isCanonical(CharSequence)}
+     * @return The most significant 64 bits of the UUID, without creating a {@code UUID}
+     */
+    public static long mostSignificantBits(CharSequence chars) {
+        return parseHex(chars, 0, 8) << 32 | parseHex(chars, 9, 4) << 16 | parseHex(chars, 14, 4);
+    }
+
+    /**
+     * @param chars A canonical UUID, as checked by {@link #isCanonical(CharSequence)}
+     * @return The least significant 64 bits of the UUID, without creating a {@code UUID}
+     */
+    public static long leastSignificantBits(CharSequence chars) {
+        return parseHex(chars, 19, 4) << 48 | parseHex(chars, 24, 12);
+    }
+
+    /**
+     * Parse a UUID from its 16 byte binary representation, most significant byte first
+     * @param bytes The bytes of the UUID
+     * @return The parsed {@code UUID}
+     * @throws IllegalArgumentException If the bytes are not 16 bytes long
+     */
+    public static UUID parse(byte[] bytes) {
+        if (bytes.length != UUID_BYTES) throw new IllegalArgumentException(String.format("Invalid binary UUID of %d bytes", bytes.length));
+        return new UUID(readLong(bytes, 0), readLong(bytes, 8));
+    }
+
+    /**
+     * Convert a UUID to its 16 byte binary representation, most significant byte first
+     * @param uuid The UUID
+     * @return The bytes of the UUID
+     */
+    public static byte[] toBytes(UUID uuid) {
+        byte[] bytes = new byte[UUID_BYTES];
+        writeLong(bytes, 0, uuid.getMostSignificantBits());
+        writeLong(bytes, 8, uuid.getLeastSignificantBits());
+        return bytes;
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int index = offset; index < offset + Long.BYTES; index++) value = value << 8 | (bytes[index] & 0xFF);
+        return value;
+    }
+
+    private static void writeLong(byte[] bytes, int offset, long value) {
+        for (int index = offset + Long.BYTES - 1; index >= offset; index--) {
+            bytes[index] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static long parseHex(CharSequence chars, int offset, int digits) {
+        long value = 0;
+        for (int index = offset; index < offset + digits; index++) value = value << 4 | Character.digit(chars.charAt(index), 16);
+        return value;
+    }
+
+    private static long parseHex(char[] chars, int offset, int digits) {
+        long value = 0;
+        for (int index = offset; index < offset + digits; index++) {
+            int digit = Character.digit(chars[index], 16);
+            if (digit < 0) throw new IllegalArgumentException(String.format("Invalid hex digit '%s' in UUID", chars[index]));
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,164 @@
+package com.akarakoutev.consumer_group.recording;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A ring buffer of stream entries, which are waiting to be written to Redis, in a file mapped into memory. Entries are appended at the write offset and
+ * read back in the same order from the read offset. Once an entry does not fit before the end of the file, it is written at the start of the file again,
+ * if the entries there have already been read, so the space of read entries is reused, while entries keep being appended. Both offsets are kept in the
+ * header of the file, so the file survives a crash of the process and its remaining entries are replayed after a restart.
+ * <br>
+ * Each entry is stored as the length and UTF-8 bytes of its stream key, followed by the number of its fields and values and the length and bytes of each.
+ * Where writing wrapped around to the start of the file, the rest of the file is skipped, marked by a length of {@code -1}, if there is room for it.
+ * Not thread-safe, callers are expected to synchronize.
+ */
+final class MappedSpillFile implements AutoCloseable {
+
+    private static final int READ_OFFSET_POSITION = 0;
+    private static final int WRITE_OFFSET_POSITION = Integer.BYTES;
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+    private static final int WRAP_MARKER = -1;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private int readOffset;
+    private int writeOffset;
+
+    /**
+     * Open the spill file, creating it if it does not exist yet, and map it into memory
+     * @param path The path of the file
+     * @param capacity The size of the file in bytes, which bounds the size of all entries, which have been appended but not yet read
+     */
+    MappedSpillFile(Path path, int capacity) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        this.readOffset = buffer.getInt(READ_OFFSET_POSITION);
+        this.writeOffset = buffer.getInt(WRITE_OFFSET_POSITION);
+        // A new file is filled with zeros, an existing one resumes from its header
+        if (writeOffset < HEADER_BYTES || writeOffset > capacity || readOffset < HEADER_BYTES || readOffset > capacity) reset();
+    }
+
+    /**
+     * Append an entry
+     * @param entry The entry to append
+     * @return Whether the entry was appended, or {@code false} if the file is full
+     */
+    boolean append(StreamEntry entry) {
+        byte[] streamKey = entry.streamKey().getBytes(StandardCharsets.UTF_8);
+        List<byte[]> fieldsAndValues = entry.rawFieldsAndValues();
+        int entryBytes = Integer.BYTES + streamKey.length + Integer.BYTES;
+        for (byte[] fieldOrValue : fieldsAndValues) entryBytes += Integer.BYTES + fieldOrValue.length;
+        if (isEmpty() && writeOffset != HEADER_BYTES) reset();
+
+        // The write offset never catches up with the read offset, which would make the file appear empty
+        int position = writeOffset;
+        if (writeOffset < readOffset) {
+            if (writeOffset + entryBytes >= readOffset) return false;
+        } else if (writeOffset + entryBytes > buffer.capacity()) {
+            position = HEADER_BYTES;
+            if (position + entryBytes >= readOffset) return false;
+        }
+
+        buffer.position(position);
+        writeBytes(streamKey);
+        buffer.putInt(fieldsAndValues.size());
+        for (byte[] fieldOrValue : fieldsAndValues) writeBytes(fieldOrValue);
+        if (position != writeOffset && buffer.capacity() - writeOffset >= Integer.BYTES) buffer.putInt(writeOffset, WRAP_MARKER);
+        writeOffset = buffer.position();
+        buffer.putInt(WRITE_OFFSET_POSITION, writeOffset);
+        return true;
+    }
+
+    /**
+     * Read the oldest entries, without removing them. They are removed via {@link #advance(int)}, once they have been written to Redis.
+     * @param maxEntries The maximum number of entries to read
+     * @return The entries, along with the offset after the last of them
+     */
+    ReadEntries read(int maxEntries) {
+        List<StreamEntry> entries = new ArrayList<>(maxEntries);
+        buffer.position(readOffset);
+        while (entries.size() < maxEntries && buffer.position() != writeOffset) {
+            if (buffer.remaining() < Integer.BYTES || buffer.getInt(buffer.position()) == WRAP_MARKER) {
+                buffer.position(HEADER_BYTES);
+                continue;
+            }
+            String streamKey = new String(readBytes(), StandardCharsets.UTF_8);
+            int fieldAndValueCount = buffer.getInt();
+            Object[] fieldsAndValues = new Object[fieldAndValueCount];
+            for (int index = 0; index < fieldAndValueCount; index++) {
+                byte[] fieldOrValue = readBytes();
+                fieldsAndValues[index] = index % 2 == 0 ? new String(fieldOrValue, StandardCharsets.UTF_8) : fieldOrValue;
+            }
+            entries.add(new StreamEntry(streamKey, fieldsAndValues));
+        }
+        return new ReadEntries(entries, buffer.position());
+    }
+
+    /**
+     * Remove all entries before an offset, as returned by {@link #read(int)}
+     * @param offset The offset after the last removed entry
+     */
+    void advance(int offset) {
+        readOffset = offset;
+        buffer.putInt(READ_OFFSET_POSITION, readOffset);
+    }
+
+    boolean isEmpty() {
+        return readOffset == writeOffset;
+    }
+
+    /**
+     * @return The bytes of all entries, which have been appended but not yet removed
+     */
+    int pendingBytes() {
+        return writeOffset >= readOffset ? writeOffset - readOffset : buffer.capacity() - readOffset + writeOffset - HEADER_BYTES;
+    }
+
+    /**
+     * Drop all entries and start writing from the beginning of the file again
+     */
+    void reset() {
+        readOffset = HEADER_BYTES;
+        writeOffset = HEADER_BYTES;
+        // Both offsets are written at once, so a crash never leaves the header with only one of them reset
+        buffer.putLong(READ_OFFSET_POSITION, (long) readOffset << Integer.SIZE | writeOffset);
+    }
+
+    /**
+     * Write the changes of the mapped file to the storage device, so they survive a crash of the operating system as well
+     */
+    void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    private void writeBytes(byte[] bytes) {
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private byte[] readBytes() {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @param entries The entries, which have been read
+     * @param endOffset The offset after the last of them
+     */
+    record ReadEntries(List<StreamEntry> entries, int endOffset) {
+    }
+}
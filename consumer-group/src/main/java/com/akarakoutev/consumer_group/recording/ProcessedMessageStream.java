@@ -0,0 +1,141 @@
+package com.akarakoutev.consumer_group.recording;
+
+import io.lettuce.core.XAddArgs;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Layout of the stream of processed messages. Messages are spread across {@code consumer.output.shards} stream keys by the hash of their identifier.
+ * With a single shard, the key is {@code messages:processed}. Otherwise, the shard number is the hash tag of each key, as in {@code messages:processed:{3}},
+ * so the slot of each shard can be chosen independently. Other keys of a message, such as its lock, carry the hash tag of its shard, so with a Redis Cluster
+ * they are kept on the same node as its record. Each shard is trimmed approximately on every {@code XADD}, according to {@code consumer.output.trim}.
+ * The values of the entries are encoded according to {@code consumer.output.format}.
+ */
+@Component
+public class ProcessedMessageStream {
+
+    public static final String PROCESSED_MESSAGES_KEY = "messages:processed";
+    private static final String HASH_TAG_FORMAT = "{%d}";
+    private static final String SHARD_KEY_FORMAT = PROCESSED_MESSAGES_KEY + ":" + HASH_TAG_FORMAT;
+
+    /**
+     * How the stream shards are trimmed
+     */
+    public enum TrimStrategy {
+        /**
+         * The shards are never trimmed
+         */
+        NONE,
+        /**
+         * Each shard keeps about {@code consumer.output.trim.max-length} of its newest entries
+         */
+        MAXLEN,
+        /**
+         * Each shard keeps about the entries of the last {@code consumer.output.trim.max-age-seconds}
+         */
+        MINID;
+
+        public static TrimStrategy fromProperty(String value) {
+            return valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    /**
+     * How the values of the stream entries are encoded
+     */
+    public enum EntryFormat {
+        /**
+         * Every value is stored as text, so UUIDs take up 36 bytes
+         */
+        TEXT,
+        /**
+         * UUIDs are stored as their 16 raw bytes, other values as UTF-8 text
+         */
+        BINARY;
+
+        public static EntryFormat fromProperty(String value) {
+            return valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    private final List<String> keys;
+    private final List<String> hashTags;
+    private final TrimStrategy trimStrategy;
+    private final long maxLength;
+    private final Duration maxAge;
+    private final EntryFormat entryFormat;
+
+    @Autowired
+    public ProcessedMessageStream(
+            @Value("${consumer.output.shards}") int shards,
+            @Value("${consumer.output.trim}") String trimStrategy,
+            @Value("${consumer.output.trim.max-length}") long maxLength,
+            @Value("${consumer.output.trim.max-age-seconds}") long maxAgeSeconds,
+            @Value("${consumer.output.format}") String entryFormat
+    ) {
+        if (shards < 1) throw new IllegalArgumentException("At least one output shard is required");
+        this.keys = shards == 1
+                ? List.of(PROCESSED_MESSAGES_KEY)
+                : IntStream.range(0, shards).mapToObj(shard -> String.format(SHARD_KEY_FORMAT, shard)).toList();
+        this.hashTags = shards == 1
+                ? List.of("")
+                : IntStream.range(0, shards).mapToObj(shard -> String.format(HASH_TAG_FORMAT, shard)).toList();
+        this.trimStrategy = TrimStrategy.fromProperty(trimStrategy);
+        this.maxLength = maxLength;
+        this.maxAge = Duration.ofSeconds(maxAgeSeconds);
+        this.entryFormat = EntryFormat.fromProperty(entryFormat);
+    }
+
+    /**
+     * Select the shard for a message
+     * @param messageKey The unique message identifier
+     * @return The stream key of the shard
+     */
+    public String key(String messageKey) {
+        return keys.get(shard(messageKey));
+    }
+
+    /**
+     * Select the hash tag of the shard for a message
+     * @param messageKey The unique message identifier
+     * @return The hash tag of the shard, as in {@code {3}}, or an empty string with a single shard, whose key has no hash tag
+     */
+    public String hashTag(String messageKey) {
+        return hashTags.get(shard(messageKey));
+    }
+
+    /**
+     * @return The stream keys of all shards
+     */
+    public List<String> keys() {
+        return keys;
+    }
+
+    /**
+     * Build the arguments of an {@code XADD} to a shard, which trim it approximately, so Redis only trims whole macro nodes
+     * @return The {@code XADD} arguments
+     */
+    public XAddArgs addArgs() {
+        return switch (trimStrategy) {
+            case NONE -> new XAddArgs();
+            case MAXLEN -> new XAddArgs().maxlen(maxLength).approximateTrimming();
+            case MINID -> new XAddArgs().minId(String.valueOf(System.currentTimeMillis() - maxAge.toMillis())).approximateTrimming();
+        };
+    }
+
+    /**
+     * @return Whether UUIDs in the stream entries are stored as raw bytes
+     */
+    public boolean binaryEntries() {
+        return entryFormat == EntryFormat.BINARY;
+    }
+
+    private int shard(String messageKey) {
+        return keys.size() == 1 ? 0 : Math.floorMod(messageKey.hashCode(), keys.size());
+    }
+}
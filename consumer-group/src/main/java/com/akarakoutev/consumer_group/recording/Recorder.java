@@ -1,7 +1,10 @@
 package com.akarakoutev.consumer_group.recording;
 
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+
 public interface Recorder<T> {
 
     /**
@@ -11,4 +14,15 @@ public interface Recorder<T> {
      */
     Mono<Boolean> record(T message);
 
+    /**
+     * Record a batch of processed messages. By default, each message is recorded separately.
+     * @param messages The messages to record
+     * @return A {@code Mono<List<Boolean>>} which contains the result of each recording operation, in the order of the messages
+     */
+    default Mono<List<Boolean>> recordAll(List<T> messages) {
+        return Flux.fromIterable(messages)
+                .flatMapSequential(message -> record(message).defaultIfEmpty(false))
+                .collectList();
+    }
+
 }
@@ -0,0 +1,49 @@
+package com.akarakoutev.consumer_group.recording;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A stream entry, which is waiting to be written. Field names are kept as strings, while values are kept as raw bytes, so text and binary entries
+ * are written in the same way.
+ * @param streamKey The key of the stream shard
+ * @param fieldsAndValues The field-value pairs, as expected by {@code XADD}
+ */
+record StreamEntry(String streamKey, Object[] fieldsAndValues) {
+
+    /**
+     * @param streamKey The key of the stream shard
+     * @param fieldsAndValues The field-value pairs, whose values are either strings or raw bytes
+     * @return The entry, with every value as raw bytes
+     */
+    static StreamEntry of(String streamKey, Object[] fieldsAndValues) {
+        Object[] rawFieldsAndValues = new Object[fieldsAndValues.length];
+        for (int index = 0; index < fieldsAndValues.length; index += 2) {
+            rawFieldsAndValues[index] = fieldsAndValues[index].toString();
+            Object value = fieldsAndValues[index + 1];
+            rawFieldsAndValues[index + 1] = value instanceof byte[] rawValue ? rawValue : value.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        return new StreamEntry(streamKey, rawFieldsAndValues);
+    }
+
+    /**
+     * @return The field names and values, all as raw bytes
+     */
+    List<byte[]> rawFieldsAndValues() {
+        List<byte[]> rawFieldsAndValues = new ArrayList<>(fieldsAndValues.length);
+        for (Object fieldOrValue : fieldsAndValues) {
+            rawFieldsAndValues.add(fieldOrValue instanceof byte[] rawValue ? rawValue : fieldOrValue.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return rawFieldsAndValues;
+    }
+
+    /**
+     * @return The approximate number of bytes, which the entry takes up in memory
+     */
+    int bytes() {
+        int bytes = streamKey.length();
+        for (Object fieldOrValue : fieldsAndValues) bytes += fieldOrValue instanceof byte[] rawValue ? rawValue.length : fieldOrValue.toString().length();
+        return bytes;
+    }
+}
@@ -0,0 +1,299 @@
+package com.akarakoutev.consumer_group.recording;
+
+import com.akarakoutev.consumer_group.redis.RedisConnectionService;
+import io.lettuce.core.RedisFuture;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records processed messages into the processed messages stream behind the back of the consumers. Entries are buffered and written
+ * by a single background thread, which coalesces them into pipelined batches of up to {@code consumer.output.write-behind.batch-size} {@code XADD}s,
+ * flushed once a batch is full or every {@code consumer.output.write-behind.flush-interval-millis}. The entries of all consumers therefore share
+ * a few large pipelines, instead of each consumer waiting for a small pipeline of its own.
+ * <br>
+ * An entry only counts as recorded once it has been written to Redis or spilled, so the lock of its message is held and its source message is
+ * only acknowledged until then. Entries, which are buffered in memory, are lost by a crash, but as their messages have not been acknowledged yet,
+ * a stream source delivers them again.
+ * <br>
+ * Buffered entries are bounded by {@code consumer.output.write-behind.memory-budget-bytes}. Once the budget is exceeded, or a batch could not be written
+ * within {@code consumer.output.write-behind.flush-timeout-millis}, entries are spilled to the memory-mapped {@link MappedSpillFile} at
+ * {@code consumer.output.write-behind.spill-file} instead, and keep being spilled until the file has been replayed to Redis in order. Entries are only
+ * rejected once the spill file is full as well. The spill file survives a crash of the process and is replayed once the application starts again.
+ * Spilled entries are only forced to disk, once a failed batch has been spilled, so they may be lost, if the whole host fails.
+ * <br>
+ * A batch, which fails part way through, is spilled as a whole, so its entries may be recorded twice.
+ */
+@Component
+@ConditionalOnProperty(name = "consumer.output.write-behind.enabled", havingValue = "true")
+public class WriteBehindRecorder {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindRecorder.class);
+
+    private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(5);
+
+    private final RedisConnectionService redisConnectionService;
+    private final ProcessedMessageStream processedMessageStream;
+    private final int batchSize;
+    private final Duration flushTimeout;
+    private final long memoryBudgetBytes;
+    private final MappedSpillFile spillFile;
+    private final Queue<BufferedEntry> bufferedEntries = new ConcurrentLinkedQueue<>();
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private final AtomicLong bufferedEntryCount = new AtomicLong();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Scheduler flushScheduler = Schedulers.newSingle("write-behind");
+    private final Counter writtenCounter;
+    private final Counter spilledCounter;
+    private final Counter rejectedCounter;
+    private boolean spilling;
+
+    @Autowired
+    public WriteBehindRecorder(
+            RedisConnectionService redisConnectionService,
+            ProcessedMessageStream processedMessageStream,
+            MeterRegistry meterRegistry,
+            @Value("${consumer.output.write-behind.batch-size}") int batchSize,
+            @Value("${consumer.output.write-behind.flush-interval-millis}") long flushIntervalMillis,
+            @Value("${consumer.output.write-behind.flush-timeout-millis}") long flushTimeoutMillis,
+            @Value("${consumer.output.write-behind.memory-budget-bytes}") long memoryBudgetBytes,
+            @Value("${consumer.output.write-behind.spill-file}") String spillFile,
+            @Value("${consumer.output.write-behind.spill-file-bytes}") int spillFileBytes
+    ) throws IOException {
+        this.redisConnectionService = redisConnectionService;
+        this.processedMessageStream = processedMessageStream;
+        this.batchSize = batchSize;
+        this.flushTimeout = Duration.ofMillis(flushTimeoutMillis);
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.spillFile = new MappedSpillFile(Path.of(spillFile), spillFileBytes);
+        if (!this.spillFile.isEmpty()) {
+            LOGGER.info("Replaying {} bytes of spilled entries from {}", this.spillFile.pendingBytes(), spillFile);
+            spilling = true;
+        }
+
+        this.writtenCounter = Counter.builder("consumer.output.write-behind.written")
+                .description("Entries written to the processed messages stream")
+                .register(meterRegistry);
+        this.spilledCounter = Counter.builder("consumer.output.write-behind.spilled")
+                .description("Entries spilled to the local spill file")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("consumer.output.write-behind.rejected")
+                .description("Entries rejected, since both the memory budget and the spill file were exhausted")
+                .register(meterRegistry);
+        Gauge.builder("consumer.output.write-behind.buffered.bytes", bufferedBytes, AtomicLong::get)
+                .description("Bytes of entries buffered in memory")
+                .register(meterRegistry);
+        Gauge.builder("consumer.output.write-behind.spill.bytes", this, recorder -> recorder.spillFileBytes())
+                .description("Bytes of entries in the spill file, which have not been replayed yet")
+                .register(meterRegistry);
+
+        flushScheduler.schedulePeriodically(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Append entries to the processed messages stream. The entries are buffered in memory, or spilled to the spill file, and written later.
+     * @param messageKeys The unique identifiers of the messages, which select their shards
+     * @param entries The field-value pairs of the entry of each message, whose values are either strings or raw bytes
+     * @return A {@code Mono<List<Boolean>>} containing whether each entry was written or spilled, in the order of the entries, which completes
+     * once every entry has been written or spilled
+     */
+    public Mono<List<Boolean>> append(List<String> messageKeys, List<Object[]> entries) {
+        return Mono.<List<Boolean>>create(sink -> {
+                    PendingAppend pendingAppend = new PendingAppend(sink, entries.size());
+                    for (int index = 0; index < entries.size(); index++) {
+                        append(new BufferedEntry(StreamEntry.of(processedMessageStream.key(messageKeys.get(index)), entries.get(index)), pendingAppend, index));
+                    }
+                    if (bufferedEntryCount.get() >= batchSize && flushScheduled.compareAndSet(false, true)) flushScheduler.schedule(this::flush);
+                })
+                // The consumers continue off the flush thread, so they never hold up the next flush
+                .publishOn(Schedulers.parallel());
+    }
+
+    private synchronized void append(BufferedEntry bufferedEntry) {
+        StreamEntry entry = bufferedEntry.entry();
+        if (!spilling && bufferedBytes.get() + entry.bytes() > memoryBudgetBytes) {
+            LOGGER.warn("Write-behind buffer exceeded its budget of {} bytes, spilling entries to disk", memoryBudgetBytes);
+            spilling = true;
+        }
+        if (!spilling) {
+            bufferedEntries.add(bufferedEntry);
+            bufferedBytes.addAndGet(entry.bytes());
+            bufferedEntryCount.incrementAndGet();
+            return;
+        }
+        bufferedEntry.settle(spill(entry));
+    }
+
+    /**
+     * Write buffered entries to Redis, oldest first. Entries buffered in memory are always older than the spilled ones, since entries are only buffered
+     * in memory again once the spill file has been replayed. Runs on the flush thread only.
+     */
+    private void flush() {
+        flushScheduled.set(false);
+        List<BufferedEntry> batch = List.of();
+        try {
+            while (!(batch = drainBuffer()).isEmpty()) {
+                if (!write(batch.stream().map(BufferedEntry::entry).toList())) {
+                    spillBuffer(batch);
+                    return;
+                }
+                batch.forEach(bufferedEntry -> bufferedEntry.settle(true));
+            }
+            replaySpillFile();
+        } catch (RuntimeException e) {
+            LOGGER.error("Error flushing write-behind entries", e);
+            batch.forEach(bufferedEntry -> bufferedEntry.settle(false));
+        }
+    }
+
+    private List<BufferedEntry> drainBuffer() {
+        List<BufferedEntry> batch = new ArrayList<>(batchSize);
+        BufferedEntry bufferedEntry;
+        while (batch.size() < batchSize && (bufferedEntry = bufferedEntries.poll()) != null) {
+            batch.add(bufferedEntry);
+            bufferedBytes.addAndGet(-bufferedEntry.entry().bytes());
+            bufferedEntryCount.decrementAndGet();
+        }
+        return batch;
+    }
+
+    /**
+     * Spill a batch, which could not be written, along with every entry buffered after it, so they are replayed in order. The entries only count
+     * as recorded once the spill file has been forced to disk.
+     */
+    private synchronized void spillBuffer(List<BufferedEntry> failedBatch) {
+        spilling = true;
+        List<BufferedEntry> spilledEntries = new ArrayList<>(failedBatch);
+        List<BufferedEntry> batch;
+        while (!(batch = drainBuffer()).isEmpty()) spilledEntries.addAll(batch);
+        boolean[] results = new boolean[spilledEntries.size()];
+        for (int index = 0; index < spilledEntries.size(); index++) results[index] = spill(spilledEntries.get(index).entry());
+        spillFile.force();
+        for (int index = 0; index < spilledEntries.size(); index++) spilledEntries.get(index).settle(results[index]);
+    }
+
+    private void replaySpillFile() {
+        while (true) {
+            MappedSpillFile.ReadEntries spilled;
+            synchronized (this) {
+                if (spillFile.isEmpty()) {
+                    if (spilling) LOGGER.info("Replayed all spilled entries, buffering entries in memory again");
+                    spillFile.reset();
+                    spilling = false;
+                    return;
+                }
+                spilled = spillFile.read(batchSize);
+            }
+            if (!write(spilled.entries())) return;
+            synchronized (this) {
+                spillFile.advance(spilled.endOffset());
+            }
+        }
+    }
+
+    /**
+     * Write a batch of entries as a single pipeline
+     * @return Whether all entries were written within the flush timeout
+     */
+    private boolean write(List<StreamEntry> batch) {
+        try {
+            redisConnectionService
+                    .executeRawPipelined(asyncCommands -> batch.stream()
+                            .<RedisFuture<?>>map(entry -> asyncCommands.xadd(entry.streamKey(), processedMessageStream.addArgs(), entry.fieldsAndValues()))
+                            .toList())
+                    .block(flushTimeout);
+            writtenCounter.increment(batch.size());
+            return true;
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not write {} entries to the processed messages stream, spilling them to disk", batch.size(), e);
+            return false;
+        }
+    }
+
+    private boolean spill(StreamEntry entry) {
+        if (spillFile.append(entry)) {
+            spilledCounter.increment();
+            return true;
+        }
+        LOGGER.error("Spill file is full, rejecting entry for stream {}", entry.streamKey());
+        rejectedCounter.increment();
+        return false;
+    }
+
+    private synchronized int spillFileBytes() {
+        return spillFile.pendingBytes();
+    }
+
+    /**
+     * An entry, which has been buffered in memory, but not yet written or spilled
+     * @param entry The stream entry
+     * @param pendingAppend The append, which the entry belongs to
+     * @param index The index of the entry within its append
+     */
+    private record BufferedEntry(StreamEntry entry, PendingAppend pendingAppend, int index) {
+
+        void settle(boolean recorded) {
+            pendingAppend.settle(index, recorded);
+        }
+    }
+
+    /**
+     * The entries of a single append, which completes once every one of them has been written, spilled or rejected
+     */
+    private static final class PendingAppend {
+        private final MonoSink<List<Boolean>> sink;
+        private final boolean[] recorded;
+        private final AtomicInteger remainingEntries;
+
+        private PendingAppend(MonoSink<List<Boolean>> sink, int entryCount) {
+            this.sink = sink;
+            this.recorded = new boolean[entryCount];
+            this.remainingEntries = new AtomicInteger(entryCount);
+            if (entryCount == 0) sink.success(List.of());
+        }
+
+        private void settle(int index, boolean entryRecorded) {
+            recorded[index] = entryRecorded;
+            if (remainingEntries.decrementAndGet() != 0) return;
+            List<Boolean> results = new ArrayList<>(recorded.length);
+            for (boolean entryResult : recorded) results.add(entryResult);
+            sink.success(results);
+        }
+    }
+
+    /**
+     * Stop the flush thread and make a last attempt to write the remaining entries. Entries, which could not be written, are spilled, so they are replayed
+     * once the application starts again.
+     */
+    @PreDestroy
+    void close() throws IOException {
+        flushScheduler.disposeGracefully().timeout(SHUTDOWN_TIMEOUT).onErrorComplete().block();
+        flush();
+        synchronized (this) {
+            spillBuffer(List.of());
+            spillFile.close();
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.akarakoutev.consumer_group.redis;
+
+import com.akarakoutev.consumer_group.exception.PipelineException;
+import com.akarakoutev.consumer_group.lock.LockService;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.SetArgs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+@Service
+@ConditionalOnProperty(name = "spring.redis.lock.type", havingValue = "atomic", matchIfMissing = true)
+public class AtomicRedisLockService implements LockService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AtomicRedisLockService.class);
+
+    static final String RELEASE_SCRIPT = """
+            if redis.call('get', KEYS[1]) == ARGV[1] then
+                return redis.call('del', KEYS[1])
+            end
+            return 0
+            """;
+
+    static final String RENEW_SCRIPT = """
+            if redis.call('get', KEYS[1]) == ARGV[1] then
+                return redis.call('pexpire', KEYS[1], ARGV[2])
+            end
+            return 0
+            """;
+
+    private final RedisConnectionService redisConnectionService;
+    private final SetArgs lockArgs;
+    private final String defaultOwner;
+    private final String releaseScriptSha;
+    private final String renewScriptSha;
+    private final String lockDurationMillis;
+
+    @Autowired
+    public AtomicRedisLockService(
+            RedisConnectionService redisConnectionService,
+            @Value("${spring.redis.lock.duration-seconds}") long redisLockDurationSeconds
+    ) {
+        this.redisConnectionService = redisConnectionService;
+        this.lockArgs = SetArgs.Builder.nx().px(redisLockDurationSeconds * 1000);
+        this.defaultOwner = UUID.randomUUID().toString();
+        this.releaseScriptSha = redisConnectionService.executeSync(syncCommands -> syncCommands.scriptLoad(RELEASE_SCRIPT));
+        this.renewScriptSha = redisConnectionService.executeSync(syncCommands -> syncCommands.scriptLoad(RENEW_SCRIPT));
+        this.lockDurationMillis = String.valueOf(redisLockDurationSeconds * 1000);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The lock is owned by this service instance.
+     * @param key The key, for which to acquire the lock
+     * @return A {@code Mono<Boolean>} containing the result of the lock creation
+     */
+    @Override
+    public Mono<Boolean> acquireLock(String key) {
+        return acquireLock(key, defaultOwner);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The lock is released only if it is still owned by this service instance.
+     * @param key The key, for which to release the lock
+     * @return A {@code Mono<Boolean>} containing the result of the lock releasing
+     */
+    @Override
+    public Mono<Boolean> releaseLock(String key) {
+        return releaseLock(key, defaultOwner);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The lock is created together with its expiration of {@code spring.redis.lock.duration-seconds} via a single {@code SET key owner NX PX}, so a lock
+     * can never be left without an expiration.
+     * @param key The key, for which to acquire the lock
+     * @param owner The unique identifier of the lock owner, stored as the lock value
+     * @return A {@code Mono<Boolean>} containing {@code true} if the lock was acquired, or an empty {@code Mono} if it is held by someone else
+     */
+    @Override
+    public Mono<Boolean> acquireLock(String key, String owner) {
+        return redisConnectionService.executeReactive(reactiveCommands ->
+                reactiveCommands
+                        .set(key, owner, lockArgs)
+                        .map("OK"::equals)
+                        .doOnError(error -> LOGGER.error("Error acquiring lock on key {}", key, error))
+                        .doOnNext(lockAcquired -> LOGGER.debug("Acquiring lock {} successful: {}", key, lockAcquired))
+                        .filter(lockAcquired -> lockAcquired)
+        );
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The owner is compared and the lock is deleted atomically in a preloaded script, so a lock which has expired and has been acquired by another
+     * owner is never deleted.
+     * @param key The key, for which to release the lock
+     * @param owner The unique identifier of the lock owner
+     * @return A {@code Mono<Boolean>} containing the result of the lock releasing
+     */
+    @Override
+    public Mono<Boolean> releaseLock(String key, String owner) {
+        String[] keys = {key};
+        return redisConnectionService.executeReactive(reactiveCommands ->
+                reactiveCommands
+                        .<Long>evalsha(releaseScriptSha, ScriptOutputType.INTEGER, keys, owner)
+                        .onErrorResume(RedisNoScriptException.class, __ -> reactiveCommands.<Long>eval(RELEASE_SCRIPT, ScriptOutputType.INTEGER, keys, owner))
+                        .next()
+                        .map(deletedKeyCount -> deletedKeyCount > 0)
+                        .doOnNext(lockReleased -> LOGGER.debug("Releasing lock {} successful: {}", key, lockReleased))
+        );
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * All locks are acquired in a single pipeline. If the pipeline fails for some of the keys, the locks, which were acquired for the others, are released
+     * before the error is passed on, so a failed batch never leaves locks behind, which its owner no longer knows of.
+     * @param keys The keys, for which to acquire locks
+     * @param owner The unique identifier of the lock owner
+     * @return A {@code Mono<List<Boolean>>} containing the result of each lock creation, in the order of the keys
+     */
+    @Override
+    public Mono<List<Boolean>> acquireLocks(List<String> keys, String owner) {
+        return redisConnectionService
+                .executePipelined(asyncCommands -> keys.stream()
+                        .<RedisFuture<?>>map(key -> asyncCommands.set(key, owner, lockArgs))
+                        .toList())
+                .map(results -> results.stream().map("OK"::equals).toList())
+                .onErrorResume(PipelineException.class, error -> releaseAcquired(keys, owner, error).then(Mono.error(error)))
+                .doOnError(error -> LOGGER.error("Error acquiring {} locks", keys.size(), error))
+                .doOnNext(locksAcquired -> LOGGER.debug("Acquired {} locks", locksAcquired.stream().filter(lockAcquired -> lockAcquired).count()));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * All locks are released in a single pipeline. If the release script is missing from the script cache, the locks are released separately.
+     * @param keys The keys, for which to release the locks
+     * @param owner The unique identifier of the lock owner
+     * @return A {@code Mono<List<Boolean>>} containing the result of each lock releasing, in the order of the keys
+     */
+    @Override
+    public Mono<List<Boolean>> releaseLocks(List<String> keys, String owner) {
+        return redisConnectionService
+                .executePipelined(asyncCommands -> keys.stream()
+                        .<RedisFuture<?>>map(key -> asyncCommands.evalsha(releaseScriptSha, ScriptOutputType.INTEGER, new String[]{key}, owner))
+                        .toList())
+                .map(results -> results.stream().map(deletedKeyCount -> (Long) deletedKeyCount > 0).toList())
+                .onErrorResume(AtomicRedisLockService::isNoScript, __ -> LockService.super.releaseLocks(keys, owner))
+                .doOnNext(locksReleased -> LOGGER.debug("Released {} locks", locksReleased.stream().filter(lockReleased -> lockReleased).count()));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The owner is compared and the expiration is extended via {@code PEXPIRE} atomically in a preloaded script, so a lock which has expired and has been
+     * acquired by another owner is never extended. All locks are renewed in a single pipeline.
+     * @param owners The unique identifiers of the lock owners, by the keys of their locks
+     * @return A {@code Mono<List<String>>} containing the keys of the locks, which are no longer owned by their owners
+     */
+    @Override
+    public Mono<List<String>> renewLocks(Map<String, String> owners) {
+        List<Map.Entry<String, String>> locks = List.copyOf(owners.entrySet());
+        return renewLocks(locks, renewScriptSha)
+                .onErrorResume(AtomicRedisLockService::isNoScript, __ -> {
+                    LOGGER.warn("Renewal script is missing from the script cache, renewing {} locks via EVAL", locks.size());
+                    return renewLocks(locks, null);
+                })
+                .map(renewed -> {
+                    List<String> lostKeys = new ArrayList<>();
+                    for (int index = 0; index < locks.size(); index++) {
+                        if ((Long) renewed.get(index) == 0) lostKeys.add(locks.get(index).getKey());
+                    }
+                    return lostKeys;
+                })
+                .doOnNext(lostKeys -> LOGGER.debug("Renewed {} locks", locks.size() - lostKeys.size()));
+    }
+
+    /**
+     * Release the locks, which a lock pipeline acquired, before it failed for other keys. Errors are logged, in which case the locks expire.
+     */
+    private Mono<Void> releaseAcquired(List<String> keys, String owner, PipelineException error) {
+        List<String> acquiredKeys = new ArrayList<>();
+        for (int index = 0; index < keys.size() && index < error.results().size(); index++) {
+            if (!error.failed(index) && "OK".equals(error.results().get(index))) acquiredKeys.add(keys.get(index));
+        }
+        if (acquiredKeys.isEmpty()) return Mono.empty();
+        return releaseLocks(acquiredKeys, owner)
+                .doOnNext(__ -> LOGGER.warn("Released {} locks, which were acquired by a failed lock pipeline", acquiredKeys.size()))
+                .onErrorResume(releaseError -> {
+                    LOGGER.error("Error releasing {} locks of a failed lock pipeline, they will expire", acquiredKeys.size(), releaseError);
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    /**
+     * @return Whether a pipeline failed, since the script was missing from the script cache
+     */
+    private static boolean isNoScript(Throwable error) {
+        return error instanceof RedisNoScriptException || error instanceof PipelineException && error.getCause() instanceof RedisNoScriptException;
+    }
+
+    private Mono<List<Object>> renewLocks(List<Map.Entry<String, String>> locks, String scriptSha) {
+        return redisConnectionService.executePipelined(asyncCommands -> locks.stream()
+                .<RedisFuture<?>>map(lock -> {
+                    String[] keys = {lock.getKey()};
+                    return scriptSha == null
+                            ? asyncCommands.eval(RENEW_SCRIPT, ScriptOutputType.INTEGER, keys, lock.getValue(), lockDurationMillis)
+                            : asyncCommands.evalsha(scriptSha, ScriptOutputType.INTEGER, keys, lock.getValue(), lockDurationMillis);
+                })
+                .toList());
+    }
+}
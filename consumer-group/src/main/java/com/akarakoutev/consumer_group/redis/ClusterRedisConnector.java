@@ -0,0 +1,43 @@
+package com.akarakoutev.consumer_group.redis;
+
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
+import io.lettuce.core.cluster.models.partitions.RedisClusterNode;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+
+class ClusterRedisConnector implements RedisConnector {
+
+    private final RedisClusterClient redisClusterClient;
+
+    ClusterRedisConnector(RedisClusterClient redisClusterClient) {
+        this.redisClusterClient = redisClusterClient;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The connections to all upstream nodes are established right away. A command for a node, whose connection is still being established, is only
+     * written once it is connected, so with automatic flushing disabled it could otherwise miss the flush of its pipeline.
+     * @param codec The codec, used to encode keys and values
+     * @return A new cluster connection
+     */
+    @Override
+    public <K, V> ManagedConnection<K, V> connect(RedisCodec<K, V> codec) {
+        StatefulRedisClusterConnection<K, V> connection = redisClusterClient.connect(codec);
+        for (RedisClusterNode node : connection.getPartitions()) {
+            if (node.is(RedisClusterNode.NodeFlag.UPSTREAM)) connection.getConnection(node.getNodeId());
+        }
+        return ManagedConnection.of(connection);
+    }
+
+    @Override
+    public <K, V> StatefulRedisPubSubConnection<K, V> connectPubSub(RedisCodec<K, V> codec) {
+        return redisClusterClient.connectPubSub(codec);
+    }
+
+    @Override
+    public void shutdown() {
+        redisClusterClient.shutdown();
+    }
+}
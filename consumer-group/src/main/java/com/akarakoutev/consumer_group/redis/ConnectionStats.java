@@ -0,0 +1,18 @@
+package com.akarakoutev.consumer_group.redis;
+
+/**
+ * A snapshot of the connections, managed by {@link RedisConnectionService}
+ * @param sharedConnections The number of long-lived shared connections
+ * @param openSharedConnections The number of shared connections, which are currently open
+ * @param sharedExecutions The number of executions over all shared connections
+ * @param pipelinedBatches The number of batches, sent through the pipelining connection
+ * @param dedicatedConnectionsOpened The number of dedicated connections, opened on request
+ */
+public record ConnectionStats (
+        int sharedConnections,
+        int openSharedConnections,
+        long sharedExecutions,
+        long pipelinedBatches,
+        long dedicatedConnectionsOpened
+) {
+}
@@ -0,0 +1,56 @@
+package com.akarakoutev.consumer_group.redis;
+
+import io.lettuce.core.api.StatefulConnection;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import io.lettuce.core.cluster.api.reactive.RedisClusterReactiveCommands;
+import io.lettuce.core.cluster.api.sync.RedisClusterCommands;
+
+/**
+ * A connection either to a single Redis node or to a Redis Cluster. The commands are exposed through the interfaces, which both kinds of connections share,
+ * so callers do not depend on the deployment. Commands on a cluster connection are routed to the node, which owns the slot of their key.
+ * @param connection The underlying connection
+ * @param sync The synchronous commands of the connection
+ * @param async The asynchronous commands of the connection
+ * @param reactive The reactive commands of the connection
+ */
+public record ManagedConnection<K, V>(
+        StatefulConnection<K, V> connection,
+        RedisClusterCommands<K, V> sync,
+        RedisClusterAsyncCommands<K, V> async,
+        RedisClusterReactiveCommands<K, V> reactive
+) implements AutoCloseable {
+
+    static <K, V> ManagedConnection<K, V> of(StatefulRedisConnection<K, V> connection) {
+        return new ManagedConnection<>(connection, connection.sync(), connection.async(), connection.reactive());
+    }
+
+    static <K, V> ManagedConnection<K, V> of(StatefulRedisClusterConnection<K, V> connection) {
+        return new ManagedConnection<>(connection, connection.sync(), connection.async(), connection.reactive());
+    }
+
+    public boolean isOpen() {
+        return connection.isOpen();
+    }
+
+    /**
+     * Disable or enable flushing every command as soon as it is issued. On a cluster connection, this applies to the connections to all nodes.
+     * @param autoFlush Whether to flush every command
+     */
+    public void setAutoFlushCommands(boolean autoFlush) {
+        connection.setAutoFlushCommands(autoFlush);
+    }
+
+    /**
+     * Flush all buffered commands. On a cluster connection, the commands buffered for every node are flushed to it at once.
+     */
+    public void flushCommands() {
+        connection.flushCommands();
+    }
+
+    @Override
+    public void close() {
+        connection.close();
+    }
+}
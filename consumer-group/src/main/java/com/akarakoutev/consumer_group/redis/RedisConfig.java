@@ -2,40 +2,73 @@ package com.akarakoutev.consumer_group.redis;
 
 import io.lettuce.core.RedisClient;
 import io.lettuce.core.RedisURI;
-import io.lettuce.core.api.StatefulRedisConnection;
-import io.lettuce.core.pubsub.api.reactive.RedisPubSubReactiveCommands;
-import io.lettuce.core.support.ConnectionPoolSupport;
-import org.apache.commons.pool2.impl.GenericObjectPool;
-import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import io.lettuce.core.cluster.ClusterClientOptions;
+import io.lettuce.core.cluster.ClusterTopologyRefreshOptions;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Lazy;
 
+import java.util.Arrays;
+import java.util.List;
+
 @Configuration
 public class RedisConfig {
 
+    /**
+     * Codec for connections, which receive raw message payloads. Keys are decoded as strings, while values are kept as the raw bytes, received from Redis.
+     */
+    public static final RedisCodec<String, byte[]> RAW_VALUE_CODEC = RedisCodec.of(StringCodec.UTF8, ByteArrayCodec.INSTANCE);
+
+    public static final String STANDALONE_MODE = "standalone";
+    public static final String CLUSTER_MODE = "cluster";
+
     @Bean
     @Lazy
     RedisURI redisUri(@Value("${spring.redis.host}") String redisHost, @Value("${spring.redis.port}") int redisPort) {
         return RedisURI.create(redisHost, redisPort);
     }
 
-    @Bean
-    @Lazy
-    RedisClient redisClient(RedisURI redisUri) {
-        return RedisClient.create(redisUri);
-    }
-
-    @Bean
+    /**
+     * Connector to the Redis deployment, selected via {@code spring.redis.mode}:
+     * <ul>
+     *     <li>{@code standalone} - a single node at {@code spring.redis.host} and {@code spring.redis.port}</li>
+     *     <li>{@code cluster} - a Redis Cluster, discovered from the comma-separated {@code host:port} seed nodes in {@code spring.redis.cluster.nodes},
+     *     or from {@code spring.redis.host} and {@code spring.redis.port} if there are none. The topology is refreshed whenever Redis redirects a command,
+     *     so slot migrations and failovers are followed without a restart</li>
+     * </ul>
+     */
+    @Bean(destroyMethod = "shutdown")
     @Lazy
-    public RedisPubSubReactiveCommands<String, String> reactivePubSubCommands(RedisClient redisClient) {
-        return redisClient.connectPubSub().reactive();
+    RedisConnector redisConnector(
+            @Value("${spring.redis.mode}") String mode,
+            @Value("${spring.redis.cluster.nodes}") String clusterNodes,
+            RedisURI redisUri
+    ) {
+        return switch (mode.trim().toLowerCase()) {
+            case STANDALONE_MODE -> RedisConnector.standalone(RedisClient.create(redisUri));
+            case CLUSTER_MODE -> {
+                List<RedisURI> seedUris = clusterNodes.isBlank()
+                        ? List.of(redisUri)
+                        : Arrays.stream(clusterNodes.split(",")).map(String::trim).map(node -> RedisURI.create("redis://" + node)).toList();
+                RedisClusterClient redisClusterClient = RedisClusterClient.create(seedUris);
+                redisClusterClient.setOptions(ClusterClientOptions.builder()
+                        .topologyRefreshOptions(ClusterTopologyRefreshOptions.builder().enableAllAdaptiveRefreshTriggers().build())
+                        .build());
+                yield RedisConnector.cluster(redisClusterClient);
+            }
+            default -> throw new IllegalArgumentException(String.format("Unknown Redis mode %s", mode));
+        };
     }
 
     @Bean
     @Lazy
-    public GenericObjectPool<StatefulRedisConnection<String, String>> connectionPool(RedisClient redisClient) {
-        return ConnectionPoolSupport.createGenericObjectPool(redisClient::connect, new GenericObjectPoolConfig<>());
+    public StatefulRedisPubSubConnection<String, byte[]> pubSubConnection(RedisConnector redisConnector) {
+        return redisConnector.connectPubSub(RAW_VALUE_CODEC);
     }
 }
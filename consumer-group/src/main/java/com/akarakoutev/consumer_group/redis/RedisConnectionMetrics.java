@@ -0,0 +1,39 @@
+package com.akarakoutev.consumer_group.redis;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes the {@link ConnectionStats} of the {@link RedisConnectionService} as metrics
+ */
+@Component
+public class RedisConnectionMetrics implements MeterBinder {
+
+    private final RedisConnectionService redisConnectionService;
+
+    public RedisConnectionMetrics(RedisConnectionService redisConnectionService) {
+        this.redisConnectionService = redisConnectionService;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry meterRegistry) {
+        Gauge.builder("redis.connections.shared", redisConnectionService, service -> service.getStats().sharedConnections())
+                .description("Long-lived shared connections")
+                .register(meterRegistry);
+        Gauge.builder("redis.connections.shared.open", redisConnectionService, service -> service.getStats().openSharedConnections())
+                .description("Shared connections, which are currently open")
+                .register(meterRegistry);
+        FunctionCounter.builder("redis.executions.shared", redisConnectionService, service -> service.getStats().sharedExecutions())
+                .description("Executions over the shared connections")
+                .register(meterRegistry);
+        FunctionCounter.builder("redis.pipelined.batches", redisConnectionService, service -> service.getStats().pipelinedBatches())
+                .description("Batches sent through the pipelining connection")
+                .register(meterRegistry);
+        FunctionCounter.builder("redis.connections.dedicated.opened", redisConnectionService, service -> service.getStats().dedicatedConnectionsOpened())
+                .description("Dedicated connections, opened on request")
+                .register(meterRegistry);
+    }
+}
@@ -1,55 +1,231 @@
 package com.akarakoutev.consumer_group.redis;
 
-import io.lettuce.core.api.StatefulRedisConnection;
-import io.lettuce.core.api.async.RedisAsyncCommands;
-import io.lettuce.core.api.reactive.RedisReactiveCommands;
-import io.lettuce.core.api.sync.RedisCommands;
+import com.akarakoutev.consumer_group.exception.PipelineException;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.cluster.SlotHash;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import io.lettuce.core.cluster.api.reactive.RedisClusterReactiveCommands;
+import io.lettuce.core.cluster.api.sync.RedisClusterCommands;
+import io.lettuce.core.cluster.pubsub.StatefulRedisClusterPubSubConnection;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
 import io.lettuce.core.pubsub.api.reactive.RedisPubSubReactiveCommands;
-import org.apache.commons.pool2.impl.GenericObjectPool;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.IntStream;
 
+/**
+ * Manages a small, fixed set of long-lived shared connections. Lettuce connections are thread-safe and multiplex the commands of all callers,
+ * so commands are executed directly on a shared connection, picked either round-robin or by the hash of a routing key, without borrowing it.
+ * The connections are opened by the {@link RedisConnector} of the deployment. With a Redis Cluster, every connection routes each command to the node,
+ * which owns the slot of its key, so callers issue the same commands in both deployments.
+ */
 @Service
 public class RedisConnectionService {
 
-    private final GenericObjectPool<StatefulRedisConnection<String, String>> connectionPool;
-    private final RedisPubSubReactiveCommands<String, String> reactiveCommands;
+    private final RedisConnector redisConnector;
+    private final List<ManagedConnection<String, String>> sharedConnections;
+    private final StatefulRedisPubSubConnection<String, byte[]> pubSubConnection;
+    private final ManagedConnection<String, String> pipelineConnection;
+    private volatile ManagedConnection<String, byte[]> rawPipelineConnection;
+    private final AtomicInteger nextConnectionIndex = new AtomicInteger();
+    private final LongAdder sharedExecutions = new LongAdder();
+    private final LongAdder pipelinedBatches = new LongAdder();
+    private final AtomicLong dedicatedConnectionsOpened = new AtomicLong();
 
+    @Autowired
     public RedisConnectionService(
-            GenericObjectPool<StatefulRedisConnection<String, String>> connectionPool,
-            RedisPubSubReactiveCommands<String, String> reactiveCommands
+            RedisConnector redisConnector,
+            StatefulRedisPubSubConnection<String, byte[]> pubSubConnection,
+            @Value("${spring.redis.connections}") int connectionCount
     ) {
-        this.connectionPool = connectionPool;
-        this.reactiveCommands = reactiveCommands;
+        if (connectionCount < 1) throw new IllegalArgumentException("At least one shared Redis connection is required");
+        this.redisConnector = redisConnector;
+        this.sharedConnections = IntStream.range(0, connectionCount)
+                .mapToObj(__ -> redisConnector.connect(StringCodec.UTF8))
+                .toList();
+        this.pubSubConnection = pubSubConnection;
+        this.pipelineConnection = redisConnector.connect(StringCodec.UTF8);
+        this.pipelineConnection.setAutoFlushCommands(false);
     }
 
-    public <T> T executeSync(Function<RedisCommands<String, String>, T> syncCommands) {
-        try (StatefulRedisConnection<String, String> connection = connectionPool.borrowObject()) {
-            return syncCommands.apply(connection.sync());
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    public <T> T executeSync(Function<RedisClusterCommands<String, String>, T> syncCommands) {
+        return syncCommands.apply(nextConnection().sync());
+    }
+
+    public void executeAsync(Consumer<RedisClusterAsyncCommands<String, String>> asyncCommands) {
+        asyncCommands.accept(nextConnection().async());
+    }
+
+    public <T> T executeReactive(Function<RedisClusterReactiveCommands<String, String>, T> reactiveCommands) {
+        return reactiveCommands.apply(nextConnection().reactive());
+    }
+
+    /**
+     * Execute reactive commands on the shared connection, selected by the hash of a routing key. Commands for the same key are always sent through
+     * the same connection, and therefore reach Redis in the order in which they were issued.
+     * @param routingKey The key, by which to select the connection
+     * @param reactiveCommands The commands to execute
+     * @return The result of the commands
+     */
+    public <T> T executeReactive(String routingKey, Function<RedisClusterReactiveCommands<String, String>, T> reactiveCommands) {
+        return reactiveCommands.apply(connection(routingKey).reactive());
+    }
+
+    /**
+     * Execute a batch of commands as a single pipeline. The commands are issued on a dedicated connection, which does not flush commands automatically,
+     * and are sent to Redis together in a single flush, so the whole batch costs a single round trip. With a Redis Cluster, the commands are buffered
+     * per node, by the slot of their key, and the single flush sends every node its share of the batch, so the batch costs a single round trip
+     * to each node involved, made in parallel.
+     * If some of the commands fail, the batch fails with a {@link PipelineException}, which carries the results of the others.
+     * @param pipelinedCommands Issues the commands of the batch and returns their futures
+     * @return A {@code Mono<List<Object>>} containing the results of all commands, in the order of their futures
+     */
+    public Mono<List<Object>> executePipelined(Function<RedisClusterAsyncCommands<String, String>, List<RedisFuture<?>>> pipelinedCommands) {
+        return Mono.defer(() -> executePipelined(pipelineConnection, pipelinedCommands));
+    }
+
+    /**
+     * Execute a batch of commands with raw byte array values as a single pipeline, in the same way as {@link #executePipelined(Function)}. Meant for values,
+     * which are not text, such as binary stream entries. The pipeline connection for raw values is only opened once it is first needed.
+     * @param pipelinedCommands Issues the commands of the batch and returns their futures
+     * @return A {@code Mono<List<Object>>} containing the results of all commands, in the order of their futures
+     */
+    public Mono<List<Object>> executeRawPipelined(Function<RedisClusterAsyncCommands<String, byte[]>, List<RedisFuture<?>>> pipelinedCommands) {
+        return Mono.defer(() -> executePipelined(rawPipelineConnection(), pipelinedCommands));
+    }
+
+    private <V> Mono<List<Object>> executePipelined(ManagedConnection<String, V> connection, Function<RedisClusterAsyncCommands<String, V>, List<RedisFuture<?>>> pipelinedCommands) {
+        List<RedisFuture<?>> futures = pipelinedCommands.apply(connection.async());
+        connection.flushCommands();
+        pipelinedBatches.increment();
+        CompletableFuture<?>[] completableFutures = futures.stream()
+                .map(RedisFuture::toCompletableFuture)
+                .toArray(CompletableFuture[]::new);
+        return Mono.fromFuture(CompletableFuture.allOf(completableFutures).exceptionally(__ -> null))
+                .then(Mono.fromCallable(() -> {
+                    List<Object> results = new ArrayList<>(completableFutures.length);
+                    boolean[] failed = new boolean[completableFutures.length];
+                    Throwable firstError = null;
+                    for (int index = 0; index < completableFutures.length; index++) {
+                        try {
+                            results.add(completableFutures[index].join());
+                        } catch (CompletionException | CancellationException e) {
+                            results.add(null);
+                            failed[index] = true;
+                            if (firstError == null) firstError = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                        }
+                    }
+                    if (firstError != null) throw new PipelineException(firstError, results, failed);
+                    return results;
+                }));
     }
 
-    public void executeAsync(Consumer<RedisAsyncCommands<String, String>> asyncCommands) {
-        try (StatefulRedisConnection<String, String> connection = connectionPool.borrowObject()) {
-            asyncCommands.accept(connection.async());
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+    private ManagedConnection<String, byte[]> rawPipelineConnection() {
+        if (rawPipelineConnection == null) {
+            synchronized (this) {
+                if (rawPipelineConnection == null) {
+                    ManagedConnection<String, byte[]> connection = redisConnector.connect(RedisConfig.RAW_VALUE_CODEC);
+                    connection.setAutoFlushCommands(false);
+                    rawPipelineConnection = connection;
+                }
+            }
         }
+        return rawPipelineConnection;
     }
 
-    public <T> T executeReactive(Function<RedisReactiveCommands<String, String>, T> reactiveCommands) {
-        try (StatefulRedisConnection<String, String> connection = connectionPool.borrowObject()) {
-            return reactiveCommands.apply(connection.reactive());
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+    /**
+     * Open a new connection, which is not shared with any other caller. Meant for blocking commands or transactions, which would otherwise stall
+     * or interleave with all other commands on a shared connection. The caller is responsible for closing the connection.
+     * @return A new dedicated connection
+     */
+    public ManagedConnection<String, String> openDedicatedConnection() {
+        return openDedicatedConnection(StringCodec.UTF8);
+    }
+
+    /**
+     * Open a new dedicated connection with a specific codec. The caller is responsible for closing the connection.
+     * @param codec The codec, used to encode keys and values
+     * @return A new dedicated connection
+     * @see #openDedicatedConnection()
+     */
+    public <K, V> ManagedConnection<K, V> openDedicatedConnection(RedisCodec<K, V> codec) {
+        dedicatedConnectionsOpened.incrementAndGet();
+        return redisConnector.connect(codec);
+    }
+
+    public <T> T executeReactivePubSub(Function<RedisPubSubReactiveCommands<String, byte[]>, T> reactiveCommandSupplier) {
+        return reactiveCommandSupplier.apply(pubSubConnection.reactive());
+    }
+
+    /**
+     * Subscribe to sharded Pub/Sub channels via {@code SSUBSCRIBE}. A sharded channel lives in the slot of its name, like a key, and its messages are only
+     * propagated within the shard, which owns that slot. With a Redis Cluster, the channels are therefore grouped by the node, which owns their slots,
+     * and each group is subscribed on the connection to that node. Messages received by any node are propagated to
+     * {@link RedisPubSubReactiveCommands#observeChannels()} of the shared Pub/Sub connection.
+     * @param shardChannels The sharded channels to subscribe to
+     * @return A {@code Mono<Void>}, which completes once all channels are subscribed
+     */
+    public Mono<Void> subscribeSharded(String... shardChannels) {
+        if (!(pubSubConnection instanceof StatefulRedisClusterPubSubConnection<String, byte[]> clusterPubSubConnection)) {
+            return pubSubConnection.reactive().ssubscribe(shardChannels);
         }
+        clusterPubSubConnection.setNodeMessagePropagation(true);
+        return Flux.fromArray(shardChannels)
+                .groupBy(shardChannel -> clusterPubSubConnection.getPartitions().getPartitionBySlot(SlotHash.getSlot(shardChannel)).getNodeId())
+                .flatMap(nodeChannels -> nodeChannels.collectList().flatMap(channels -> clusterPubSubConnection
+                        .getConnection(nodeChannels.key())
+                        .reactive()
+                        .ssubscribe(channels.toArray(String[]::new))))
+                .then();
+    }
+
+    /**
+     * Take a snapshot of the managed connections
+     * @return The current {@link ConnectionStats}
+     */
+    public ConnectionStats getStats() {
+        int openSharedConnections = (int) sharedConnections.stream().filter(ManagedConnection::isOpen).count();
+        return new ConnectionStats(
+                sharedConnections.size(),
+                openSharedConnections,
+                sharedExecutions.sum(),
+                pipelinedBatches.sum(),
+                dedicatedConnectionsOpened.get()
+        );
+    }
+
+    @PreDestroy
+    void close() {
+        sharedConnections.forEach(ManagedConnection::close);
+        pipelineConnection.close();
+        if (rawPipelineConnection != null) rawPipelineConnection.close();
+    }
+
+    private ManagedConnection<String, String> nextConnection() {
+        sharedExecutions.increment();
+        int index = Math.floorMod(nextConnectionIndex.getAndIncrement(), sharedConnections.size());
+        return sharedConnections.get(index);
     }
 
-    public <T> T executeReactivePubSub(Function<RedisPubSubReactiveCommands<String, String>, T> reactiveCommandSupplier) {
-        return reactiveCommandSupplier.apply(reactiveCommands);
+    private ManagedConnection<String, String> connection(String routingKey) {
+        sharedExecutions.increment();
+        return sharedConnections.get(Math.floorMod(routingKey.hashCode(), sharedConnections.size()));
     }
 }
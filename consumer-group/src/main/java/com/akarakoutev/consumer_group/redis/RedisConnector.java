@@ -0,0 +1,36 @@
+package com.akarakoutev.consumer_group.redis;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+
+/**
+ * Opens connections to the Redis deployment, selected via {@code spring.redis.mode} - either a single node or a Redis Cluster.
+ */
+public interface RedisConnector {
+
+    /**
+     * Open a new connection
+     * @param codec The codec, used to encode keys and values
+     * @return A new connection, which the caller is responsible for closing
+     */
+    <K, V> ManagedConnection<K, V> connect(RedisCodec<K, V> codec);
+
+    /**
+     * Open a new Pub/Sub connection. With a Redis Cluster, this is a {@link io.lettuce.core.cluster.pubsub.StatefulRedisClusterPubSubConnection}.
+     * @param codec The codec, used to encode keys and values
+     * @return A new Pub/Sub connection, which the caller is responsible for closing
+     */
+    <K, V> StatefulRedisPubSubConnection<K, V> connectPubSub(RedisCodec<K, V> codec);
+
+    void shutdown();
+
+    static RedisConnector standalone(RedisClient redisClient) {
+        return new StandaloneRedisConnector(redisClient);
+    }
+
+    static RedisConnector cluster(RedisClusterClient redisClusterClient) {
+        return new ClusterRedisConnector(redisClusterClient);
+    }
+}
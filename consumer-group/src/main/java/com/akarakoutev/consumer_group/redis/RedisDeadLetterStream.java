@@ -0,0 +1,65 @@
+package com.akarakoutev.consumer_group.redis;
+
+import com.akarakoutev.consumer_group.source.SourceMessage;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.XAddArgs;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The {@code messages:dead} stream of messages, which are given up on. Each entry holds the raw payload of a message, exactly as received, along with
+ * the channel it was received from, the number of attempts made to consume it, the error of the last attempt and the time it was given up on,
+ * so it can be inspected and published again by hand. The stream is trimmed approximately to {@code consumer.dead-letter.max-length} entries.
+ */
+@Service
+public class RedisDeadLetterStream {
+
+    public static final String DEAD_MESSAGES_KEY = "messages:dead";
+    static final String PAYLOAD_FIELD = "payload";
+    static final String SOURCE_FIELD = "source";
+    static final String ATTEMPTS_FIELD = "attempts";
+    static final String ERROR_FIELD = "error";
+    static final String FAILED_AT_FIELD = "failed_at";
+
+    private final RedisConnectionService redisConnectionService;
+    private final XAddArgs addArgs;
+
+    @Autowired
+    public RedisDeadLetterStream(
+            RedisConnectionService redisConnectionService,
+            @Value("${consumer.dead-letter.max-length}") long maxLength
+    ) {
+        this.redisConnectionService = redisConnectionService;
+        this.addArgs = new XAddArgs().maxlen(maxLength).approximateTrimming();
+    }
+
+    /**
+     * Append a message to the dead-letter stream
+     * @param message The message, which is given up on
+     * @param attempts The number of attempts, which have been made to consume the message
+     * @param error The error of the last attempt
+     * @return A {@code Mono<Boolean>} containing whether the message was appended
+     */
+    public Mono<Boolean> append(SourceMessage message, int attempts, String error) {
+        Object[] entry = {
+                PAYLOAD_FIELD, message.payload() == null ? new byte[0] : message.payload(),
+                SOURCE_FIELD, bytes(message.source()),
+                ATTEMPTS_FIELD, bytes(String.valueOf(attempts)),
+                ERROR_FIELD, bytes(error),
+                FAILED_AT_FIELD, bytes(String.valueOf(System.currentTimeMillis()))
+        };
+        return redisConnectionService
+                .executeRawPipelined(asyncCommands -> List.<RedisFuture<?>>of(asyncCommands.xadd(DEAD_MESSAGES_KEY, addArgs, entry)))
+                .map(messageStreamIds -> Objects.nonNull(messageStreamIds.get(0)));
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+    }
+}
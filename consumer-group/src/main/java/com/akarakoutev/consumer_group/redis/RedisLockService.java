@@ -2,14 +2,21 @@ package com.akarakoutev.consumer_group.redis;
 
 import com.akarakoutev.consumer_group.lock.LockService;
 import com.akarakoutev.consumer_group.exception.MessageLockException;
+import io.lettuce.core.RedisFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 @Service
+@ConditionalOnProperty(name = "spring.redis.lock.type", havingValue = "setnx")
 public class RedisLockService implements LockService {
     private static final Logger LOGGER = LoggerFactory.getLogger(RedisLockService.class);
 
@@ -63,4 +70,29 @@ public class RedisLockService implements LockService {
                         .doOnNext(lockReleased -> LOGGER.debug("Releasing lock {} successful: {}", key, lockReleased))
         );
     }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Locks do not track their owners, so the expiration of every lock, which still exists, is extended via {@code PEXPIRE}. All locks are renewed in a single pipeline.
+     * @param owners The unique identifiers of the lock owners, by the keys of their locks
+     * @return A {@code Mono<List<String>>} containing the keys of the locks, which have already expired
+     */
+    @Override
+    public Mono<List<String>> renewLocks(Map<String, String> owners) {
+        List<String> keys = List.copyOf(owners.keySet());
+        long lockDurationMillis = redisLockDurationSeconds * 1000;
+        return redisConnectionService
+                .executePipelined(asyncCommands -> keys.stream()
+                        .<RedisFuture<?>>map(key -> asyncCommands.pexpire(key, lockDurationMillis))
+                        .toList())
+                .map(renewed -> {
+                    List<String> lostKeys = new ArrayList<>();
+                    for (int index = 0; index < keys.size(); index++) {
+                        if (!Boolean.TRUE.equals(renewed.get(index))) lostKeys.add(keys.get(index));
+                    }
+                    return lostKeys;
+                })
+                .doOnNext(lostKeys -> LOGGER.debug("Renewed {} locks", keys.size() - lostKeys.size()));
+    }
 }
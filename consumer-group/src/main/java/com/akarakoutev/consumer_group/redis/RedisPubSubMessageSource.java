@@ -0,0 +1,112 @@
+package com.akarakoutev.consumer_group.redis;
+
+import com.akarakoutev.consumer_group.source.ChannelRoute;
+import com.akarakoutev.consumer_group.source.MessageSource;
+import com.akarakoutev.consumer_group.source.SourceMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Receives messages published to the {@code messages:published} channel. With {@code consumer.source.pubsub.shards} above {@code 1}, publishers spread
+ * messages across the channels {@code messages:published:{<shard>}}, which are all subscribed to. The shard number is the hash tag of each channel, as
+ * with the shards of the processed messages stream, so channel and output shard with the same number share a slot.
+ * <br>
+ * With {@code consumer.source.pubsub.sharded}, the channels are subscribed via {@code SSUBSCRIBE} instead of {@code SUBSCRIBE} and have to be published
+ * to via {@code SPUBLISH}. In a Redis Cluster, a classic message is broadcast to every node, while a sharded message stays on the node, which owns
+ * the slot of its channel, so ingestion scales with the number of shards.
+ * <br>
+ * The channels of the {@link ChannelRoute}s, configured via {@code consumer.routes}, are subscribed as well, where patterns are subscribed via {@code PSUBSCRIBE}.
+ * A message, published to a channel which is subscribed both directly and via a pattern, is received twice, so route patterns should not match other subscribed channels.
+ */
+@Service
+@ConditionalOnProperty(name = "consumer.source", havingValue = "pubsub", matchIfMissing = true)
+public class RedisPubSubMessageSource implements MessageSource {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RedisPubSubMessageSource.class);
+
+    public static final String PUBLISHED_MESSAGES_CHANNEL = "messages:published";
+    private static final String SHARD_CHANNEL_FORMAT = PUBLISHED_MESSAGES_CHANNEL + ":{%d}";
+
+    private final RedisConnectionService redisConnectionService;
+    private final String[] channels;
+    private final String[] patterns;
+    private final boolean sharded;
+
+    @Autowired
+    public RedisPubSubMessageSource(
+            RedisConnectionService redisConnectionService,
+            @Value("${consumer.source.pubsub.shards}") int shards,
+            @Value("${consumer.source.pubsub.sharded}") boolean sharded,
+            @Value("${consumer.routes}") String routes
+    ) {
+        if (shards < 1) throw new IllegalArgumentException("At least one Pub/Sub channel is required");
+        List<ChannelRoute> channelRoutes = ChannelRoute.fromProperty(routes);
+        this.redisConnectionService = redisConnectionService;
+        Stream<String> publishedChannels = shards == 1
+                ? Stream.of(PUBLISHED_MESSAGES_CHANNEL)
+                : IntStream.range(0, shards).mapToObj(shard -> String.format(SHARD_CHANNEL_FORMAT, shard));
+        Stream<String> routeChannels = channelRoutes.stream().filter(route -> !route.isPattern()).map(ChannelRoute::channel);
+        this.channels = Stream.concat(publishedChannels, routeChannels).distinct().toArray(String[]::new);
+        this.patterns = channelRoutes.stream().filter(ChannelRoute::isPattern).map(ChannelRoute::channel).distinct().toArray(String[]::new);
+        if (sharded && patterns.length > 0) throw new IllegalArgumentException("Sharded Pub/Sub channels can not be subscribed via patterns");
+        this.sharded = sharded;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Messages published while no subscription is active are lost. Payloads are received as raw bytes.
+     * @return A {@code Flux<SourceMessage>} of all messages published to the {@code messages:published} channel, or to all of its shards,
+     * and to the channels of all routes, each with the channel it was published to
+     */
+    @Override
+    public Flux<SourceMessage> receive() {
+        Mono<Void> subscription = sharded
+                ? redisConnectionService.subscribeSharded(channels)
+                : redisConnectionService.executeReactivePubSub(reactivePubSubCommands -> reactivePubSubCommands.subscribe(channels));
+        Mono<Void> patternSubscription = patterns.length == 0
+                ? Mono.empty()
+                : redisConnectionService.executeReactivePubSub(reactivePubSubCommands -> reactivePubSubCommands.psubscribe(patterns))
+                        .doOnSuccess(__ -> LOGGER.info("Subscribed to channel patterns {}", String.join(", ", patterns)));
+        Flux<SourceMessage> channelMessages = redisConnectionService.executeReactivePubSub(reactivePubSubCommands -> reactivePubSubCommands.observeChannels())
+                .map(channelMessage -> new SourceMessage(channelMessage.getChannel(), null, channelMessage.getMessage()));
+        Flux<SourceMessage> patternMessages = patterns.length == 0
+                ? Flux.empty()
+                : redisConnectionService.executeReactivePubSub(reactivePubSubCommands -> reactivePubSubCommands.observePatterns())
+                        .map(patternMessage -> new SourceMessage(patternMessage.getChannel(), null, patternMessage.getMessage()));
+        return subscription
+                .doOnSuccess(__ -> LOGGER.info("Subscribed to {} channels {}", sharded ? "sharded" : "classic", String.join(", ", channels)))
+                .then(patternSubscription)
+                .thenMany(Flux.merge(channelMessages, patternMessages));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Pub/Sub does not track delivery, so this is a no-op.
+     * @param message The message to acknowledge
+     */
+    @Override
+    public void acknowledge(SourceMessage message) {
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Every subscribed consumer group instance receives every published message.
+     * @return {@code true}
+     */
+    @Override
+    public boolean requiresLock() {
+        return true;
+    }
+}
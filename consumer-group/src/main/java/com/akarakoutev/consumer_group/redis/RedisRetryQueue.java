@@ -0,0 +1,137 @@
+package com.akarakoutev.consumer_group.redis;
+
+import com.akarakoutev.consumer_group.source.SourceMessage;
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.ScriptOutputType;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Schedules failed messages to be consumed again later. Messages are kept in the {@code messages:{retry}} sorted set, scored by the time of their next attempt,
+ * and replayed in batches once they are due. Each member of the set holds the payload of a message, along with its channel and the number of attempts so far,
+ * so retried messages take the same route and are eventually given up on. Messages with the same payload, channel and attempt are only retried once.
+ * <br>
+ * Replayed messages are not removed right away, but claimed: they are moved to the {@code messages:{retry}:processing} sorted set, scored by the deadline
+ * of their claim, {@code consumer.retry.visibility-timeout-millis} later. A claimed message is only removed once it has been
+ * {@link #acknowledge(SourceMessage) acknowledged}, after it was consumed, retried again or dead-lettered. If that does not happen before the deadline,
+ * e.g. since the instance was drained or crashed before the message was delivered, it is due again and replayed by any instance.
+ * Both keys share a hash tag, so they are kept on the same node of a cluster.
+ */
+@Service
+@ConditionalOnProperty(name = "consumer.retry.enabled", havingValue = "true")
+public class RedisRetryQueue {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RedisRetryQueue.class);
+
+    public static final String RETRY_MESSAGES_KEY = "messages:{retry}";
+    public static final String PROCESSING_MESSAGES_KEY = "messages:{retry}:processing";
+    private static final Duration POLL_MIN_BACKOFF = Duration.ofMillis(100);
+    private static final Duration POLL_MAX_BACKOFF = Duration.ofSeconds(5);
+
+    /**
+     * Claim up to {@code ARGV[2]} members of {@code KEYS[1]}, which are due by {@code ARGV[1]}, by moving them to {@code KEYS[2]} with the deadline {@code ARGV[3]},
+     * so no two instances replay the same message. Claims, which have expired by {@code ARGV[1]}, are returned to {@code KEYS[1]} first.
+     */
+    static final String CLAIM_DUE_SCRIPT = """
+            local expired = redis.call('zrangebyscore', KEYS[2], '-inf', ARGV[1], 'limit', 0, ARGV[2])
+            for _, member in ipairs(expired) do
+                redis.call('zadd', KEYS[1], ARGV[1], member)
+                redis.call('zrem', KEYS[2], member)
+            end
+            local due = redis.call('zrangebyscore', KEYS[1], '-inf', ARGV[1], 'limit', 0, ARGV[2])
+            for _, member in ipairs(due) do
+                redis.call('zadd', KEYS[2], ARGV[3], member)
+                redis.call('zrem', KEYS[1], member)
+            end
+            return due
+            """;
+
+    private final ManagedConnection<String, byte[]> connection;
+    private final String claimDueScriptSha;
+    private final byte[] batchSize;
+    private final Duration pollInterval;
+    private final Duration visibilityTimeout;
+
+    @Autowired
+    public RedisRetryQueue(
+            RedisConnectionService redisConnectionService,
+            @Value("${consumer.retry.batch-size}") int batchSize,
+            @Value("${consumer.retry.poll-interval-millis}") long pollIntervalMillis,
+            @Value("${consumer.retry.visibility-timeout-millis}") long visibilityTimeoutMillis
+    ) {
+        this.connection = redisConnectionService.openDedicatedConnection(RedisConfig.RAW_VALUE_CODEC);
+        this.claimDueScriptSha = redisConnectionService.executeSync(syncCommands -> syncCommands.scriptLoad(CLAIM_DUE_SCRIPT));
+        this.batchSize = String.valueOf(batchSize).getBytes(StandardCharsets.UTF_8);
+        this.pollInterval = Duration.ofMillis(pollIntervalMillis);
+        this.visibilityTimeout = Duration.ofMillis(visibilityTimeoutMillis);
+    }
+
+    /**
+     * Schedule a message to be consumed again
+     * @param message The message, which failed
+     * @param attempt The number of attempts, which have been made to consume the message so far
+     * @param delay How long to wait before the next attempt
+     * @return A {@code Mono<Boolean>} containing whether the message was scheduled, or an empty {@code Mono} if the message has no payload
+     */
+    public Mono<Boolean> schedule(SourceMessage message, int attempt, Duration delay) {
+        if (message.payload() == null) return Mono.empty();
+        double nextAttemptMillis = System.currentTimeMillis() + delay.toMillis();
+        return connection.reactive().zadd(RETRY_MESSAGES_KEY, nextAttemptMillis, SourceMessageCodec.encode(message, attempt)).map(added -> added > 0);
+    }
+
+    /**
+     * Remove a replayed message, once it has been consumed, retried again or dead-lettered, so it is not replayed again once its claim expires
+     * @param message The replayed message, as emitted by {@link #replay()}
+     * @return A {@code Mono<Boolean>} containing whether the claim of the message was still held
+     */
+    public Mono<Boolean> acknowledge(SourceMessage message) {
+        if (message.payload() == null) return Mono.empty();
+        return connection.reactive().zrem(PROCESSING_MESSAGES_KEY, SourceMessageCodec.encode(message, message.attempt())).map(removed -> removed > 0);
+    }
+
+    /**
+     * Replay due messages in batches of up to {@code consumer.retry.batch-size}. The next batch is only claimed once the previous one has been requested
+     * in full. While no message is due, the set is polled every {@code consumer.retry.poll-interval-millis}. Failed polls are retried with an exponential backoff
+     * of up to {@code POLL_MAX_BACKOFF}, so an unavailable Redis does not end the replay.
+     * @return A {@code Flux<SourceMessage>} of the due messages, each with the channel it was originally received from and the number of attempts so far
+     */
+    public Flux<SourceMessage> replay() {
+        return Flux.defer(this::claimDue)
+                .concatMap(members -> members.isEmpty()
+                        ? Mono.delay(pollInterval).then(Mono.<SourceMessage>empty())
+                        : Flux.fromIterable(members).map(member -> SourceMessageCodec.decode(member, null)))
+                .repeat()
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, POLL_MIN_BACKOFF)
+                        .maxBackoff(POLL_MAX_BACKOFF)
+                        .transientErrors(true)
+                        .doBeforeRetry(signal -> LOGGER.warn("Error polling messages to retry, retrying after {} failures",
+                                signal.totalRetriesInARow() + 1, signal.failure())));
+    }
+
+    private Mono<List<byte[]>> claimDue() {
+        String[] keys = {RETRY_MESSAGES_KEY, PROCESSING_MESSAGES_KEY};
+        long nowMillis = System.currentTimeMillis();
+        byte[] now = String.valueOf(nowMillis).getBytes(StandardCharsets.UTF_8);
+        byte[] deadline = String.valueOf(nowMillis + visibilityTimeout.toMillis()).getBytes(StandardCharsets.UTF_8);
+        return connection.reactive()
+                .<byte[]>evalsha(claimDueScriptSha, ScriptOutputType.MULTI, keys, now, batchSize, deadline)
+                .onErrorResume(RedisNoScriptException.class, __ -> connection.reactive().eval(CLAIM_DUE_SCRIPT, ScriptOutputType.MULTI, keys, now, batchSize, deadline))
+                .collectList();
+    }
+
+    @PreDestroy
+    void close() {
+        connection.close();
+    }
+}
@@ -0,0 +1,139 @@
+package com.akarakoutev.consumer_group.redis;
+
+import com.akarakoutev.consumer_group.source.SourceMessage;
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.ScriptOutputType;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Overflow storage for incoming messages, which arrive faster than they can be consumed. Spilled messages are kept in the {@code messages:{spilled}} list
+ * and replayed in the order they were spilled, once there is demand for them again. Each message is kept along with the channel it was received from
+ * and the number of attempts so far, so it takes the route of its channel once it is replayed, and a retried message keeps counting its attempts.
+ * <br>
+ * Replayed messages are not removed right away, but claimed: they are moved to the {@code messages:{spilled}:processing} sorted set, scored by the deadline
+ * of their claim, {@code consumer.group.spill-visibility-timeout-millis} later, and only removed once they have been
+ * {@link #acknowledge(SourceMessage) acknowledged}. Claims, which expire, e.g. since the instance was drained or crashed before the message was consumed,
+ * are pushed back to the list and replayed first.
+ * Both keys share a hash tag, so they are kept on the same node of a cluster.
+ */
+@Service
+@ConditionalOnProperty(name = "consumer.group.overflow", havingValue = "spill")
+public class RedisSpillQueue {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RedisSpillQueue.class);
+
+    public static final String SPILLED_MESSAGES_KEY = "messages:{spilled}";
+    public static final String PROCESSING_MESSAGES_KEY = "messages:{spilled}:processing";
+    private static final byte[] REPLAY_BATCH_SIZE = "256".getBytes(StandardCharsets.UTF_8);
+    private static final Duration REPLAY_IDLE_INTERVAL = Duration.ofMillis(100);
+    private static final Duration POLL_MIN_BACKOFF = Duration.ofMillis(100);
+    private static final Duration POLL_MAX_BACKOFF = Duration.ofSeconds(5);
+
+    /**
+     * Push claims of {@code KEYS[2]}, which have expired by {@code ARGV[1]}, back to the consuming end of {@code KEYS[1]}, then claim up to {@code ARGV[2]}
+     * members of {@code KEYS[1]} by moving them to {@code KEYS[2]} with the deadline {@code ARGV[3]}, so no two instances replay the same message
+     */
+    static final String CLAIM_SCRIPT = """
+            local expired = redis.call('zrangebyscore', KEYS[2], '-inf', ARGV[1], 'limit', 0, ARGV[2])
+            for _, member in ipairs(expired) do
+                redis.call('rpush', KEYS[1], member)
+                redis.call('zrem', KEYS[2], member)
+            end
+            local claimed = redis.call('rpop', KEYS[1], ARGV[2])
+            if not claimed then return {} end
+            for _, member in ipairs(claimed) do
+                redis.call('zadd', KEYS[2], ARGV[3], member)
+            end
+            return claimed
+            """;
+
+    private final ManagedConnection<String, byte[]> connection;
+    private final String claimScriptSha;
+    private final Duration visibilityTimeout;
+
+    @Autowired
+    public RedisSpillQueue(
+            RedisConnectionService redisConnectionService,
+            @Value("${consumer.group.spill-visibility-timeout-millis}") long visibilityTimeoutMillis
+    ) {
+        this.connection = redisConnectionService.openDedicatedConnection(RedisConfig.RAW_VALUE_CODEC);
+        this.claimScriptSha = redisConnectionService.executeSync(syncCommands -> syncCommands.scriptLoad(CLAIM_SCRIPT));
+        this.visibilityTimeout = Duration.ofMillis(visibilityTimeoutMillis);
+    }
+
+    /**
+     * Append a message to the spill list
+     * @param message The message, which could not be buffered
+     * @return A {@code Mono<Long>} containing the length of the spill list, or an empty {@code Mono} if the message has no payload
+     */
+    public Mono<Long> spill(SourceMessage message) {
+        if (message.payload() == null) return Mono.empty();
+        return connection.reactive().lpush(SPILLED_MESSAGES_KEY, SourceMessageCodec.encode(message, message.attempt()));
+    }
+
+    /**
+     * Check whether a message was replayed by this queue, in which case it has to be acknowledged via {@link #acknowledge(SourceMessage)} instead of to its source
+     * @param message The message
+     * @return Whether the message was replayed from the spill list
+     */
+    public boolean isReplayed(SourceMessage message) {
+        return SPILLED_MESSAGES_KEY.equals(message.id());
+    }
+
+    /**
+     * Remove a replayed message, once it has been consumed, retried or dead-lettered, so it is not replayed again once its claim expires
+     * @param message The replayed message, as emitted by {@link #replay()}
+     * @return A {@code Mono<Boolean>} containing whether the claim of the message was still held
+     */
+    public Mono<Boolean> acknowledge(SourceMessage message) {
+        if (message.payload() == null) return Mono.empty();
+        return connection.reactive().zrem(PROCESSING_MESSAGES_KEY, SourceMessageCodec.encode(message, message.attempt())).map(removed -> removed > 0);
+    }
+
+    /**
+     * Replay spilled messages in batches. The next batch is only claimed once the previous one has been requested in full, so messages stay in Redis
+     * while there is no demand for them. While the list is empty, it is polled every {@code 100ms}. Failed polls are retried with an exponential backoff
+     * of up to {@code POLL_MAX_BACKOFF}, so an unavailable Redis does not end the replay.
+     * @return A {@code Flux<SourceMessage>} of the spilled messages, each with the channel it was originally received from, identified by the key of the spill list
+     */
+    public Flux<SourceMessage> replay() {
+        return Flux.defer(this::claim)
+                .concatMap(members -> members.isEmpty()
+                        ? Mono.delay(REPLAY_IDLE_INTERVAL).then(Mono.<SourceMessage>empty())
+                        : Flux.fromIterable(members).map(member -> SourceMessageCodec.decode(member, SPILLED_MESSAGES_KEY)))
+                .repeat()
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, POLL_MIN_BACKOFF)
+                        .maxBackoff(POLL_MAX_BACKOFF)
+                        .transientErrors(true)
+                        .doBeforeRetry(signal -> LOGGER.warn("Error polling spilled messages, retrying after {} failures",
+                                signal.totalRetriesInARow() + 1, signal.failure())));
+    }
+
+    private Mono<List<byte[]>> claim() {
+        String[] keys = {SPILLED_MESSAGES_KEY, PROCESSING_MESSAGES_KEY};
+        long nowMillis = System.currentTimeMillis();
+        byte[] now = String.valueOf(nowMillis).getBytes(StandardCharsets.UTF_8);
+        byte[] deadline = String.valueOf(nowMillis + visibilityTimeout.toMillis()).getBytes(StandardCharsets.UTF_8);
+        return connection.reactive()
+                .<byte[]>evalsha(claimScriptSha, ScriptOutputType.MULTI, keys, now, REPLAY_BATCH_SIZE, deadline)
+                .onErrorResume(RedisNoScriptException.class, __ -> connection.reactive().eval(CLAIM_SCRIPT, ScriptOutputType.MULTI, keys, now, REPLAY_BATCH_SIZE, deadline))
+                .collectList();
+    }
+
+    @PreDestroy
+    void close() {
+        connection.close();
+    }
+}
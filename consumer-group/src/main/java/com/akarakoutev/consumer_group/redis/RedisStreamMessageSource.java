@@ -0,0 +1,293 @@
+package com.akarakoutev.consumer_group.redis;
+
+import com.akarakoutev.consumer_group.source.MessageSource;
+import com.akarakoutev.consumer_group.source.SourceMessage;
+import io.lettuce.core.Consumer;
+import io.lettuce.core.Limit;
+import io.lettuce.core.Range;
+import io.lettuce.core.RedisBusyException;
+import io.lettuce.core.StreamMessage;
+import io.lettuce.core.XAutoClaimArgs;
+import io.lettuce.core.XGroupCreateArgs;
+import io.lettuce.core.XPendingArgs;
+import io.lettuce.core.XReadArgs;
+import io.lettuce.core.cluster.api.reactive.RedisClusterReactiveCommands;
+import io.lettuce.core.models.stream.ClaimedMessages;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@Service
+@ConditionalOnProperty(name = "consumer.source", havingValue = "stream")
+public class RedisStreamMessageSource implements MessageSource {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RedisStreamMessageSource.class);
+
+    public static final String PUBLISHED_MESSAGES_STREAM = "messages:incoming";
+    public static final String PAYLOAD_FIELD = "payload";
+    private static final String CURSOR_START = "0-0";
+    private static final Duration ACKNOWLEDGE_INTERVAL = Duration.ofMillis(10);
+    private static final Duration ACKNOWLEDGE_FLUSH_TIMEOUT = Duration.ofSeconds(1);
+    private static final Sinks.EmitFailureHandler EMIT_FAILURE_HANDLER = Sinks.EmitFailureHandler.busyLooping(Duration.ofSeconds(1));
+    private static final long READ_MAX_RETRIES = 10;
+    private static final Duration READ_MIN_BACKOFF = Duration.ofMillis(100);
+    private static final Duration READ_MAX_BACKOFF = Duration.ofSeconds(5);
+    private static final String NO_GROUP_ERROR = "NOGROUP";
+
+    private final RedisConnectionService redisConnectionService;
+    private final String groupName;
+    private final Consumer<String> streamConsumer;
+    private final int batchSize;
+    private final Duration blockDuration;
+    private final Duration claimIdleDuration;
+    private final Sinks.Many<SourceMessage> claimedMessages = Sinks.many().unicast().onBackpressureBuffer();
+    private final Sinks.Many<String> pendingAcknowledgements = Sinks.many().unicast().onBackpressureBuffer();
+    private final CountDownLatch acknowledgementsFlushed = new CountDownLatch(1);
+    private final ManagedConnection<String, byte[]> claimConnection;
+    private final Counter readRetriesCounter;
+    private final Counter removedConsumersCounter;
+
+    @Autowired
+    public RedisStreamMessageSource(
+            RedisConnectionService redisConnectionService,
+            MeterRegistry meterRegistry,
+            @Value("${consumer.source.stream.group}") String groupName,
+            @Value("${consumer.source.stream.batch-size}") int batchSize,
+            @Value("${consumer.source.stream.block-millis}") long blockMillis,
+            @Value("${consumer.source.stream.claim-idle-millis}") long claimIdleMillis
+    ) {
+        this.redisConnectionService = redisConnectionService;
+        this.groupName = groupName;
+        this.streamConsumer = Consumer.from(groupName, UUID.randomUUID().toString());
+        this.batchSize = batchSize;
+        this.blockDuration = Duration.ofMillis(blockMillis);
+        this.claimIdleDuration = Duration.ofMillis(claimIdleMillis);
+        this.claimConnection = redisConnectionService.openDedicatedConnection(RedisConfig.RAW_VALUE_CODEC);
+        this.readRetriesCounter = Counter.builder("consumer.source.stream.read.retries")
+                .description("Reads from the incoming stream, which failed and were retried")
+                .register(meterRegistry);
+        this.removedConsumersCounter = Counter.builder("consumer.source.stream.consumers.removed")
+                .description("Idle members without pending messages, which were removed from the consumer group")
+                .register(meterRegistry);
+
+        init();
+    }
+
+    /**
+     * Create the consumer group on the incoming stream, if it does not exist yet, and start acknowledging processed messages in batches
+     */
+    private void init() {
+        createGroup().block();
+
+        pendingAcknowledgements.asFlux()
+                .bufferTimeout(batchSize, ACKNOWLEDGE_INTERVAL)
+                .concatMap(messageIds -> redisConnectionService.executeReactive(reactiveCommands ->
+                        reactiveCommands
+                                .xack(PUBLISHED_MESSAGES_STREAM, groupName, messageIds.toArray(String[]::new))
+                                .doOnNext(acknowledgedCount -> LOGGER.debug("Acknowledged {} messages in stream '{}'", acknowledgedCount, PUBLISHED_MESSAGES_STREAM))
+                                .onErrorResume(error -> {
+                                    LOGGER.error("Error acknowledging {} messages, they will be claimed again", messageIds.size(), error);
+                                    return Mono.empty();
+                                })
+                ))
+                .doFinally(__ -> acknowledgementsFlushed.countDown())
+                .subscribe();
+    }
+
+    /**
+     * Create the consumer group on the incoming stream, along with the stream itself, unless the group exists already
+     */
+    private Mono<Void> createGroup() {
+        return redisConnectionService.executeReactive(reactiveCommands ->
+                reactiveCommands
+                        .xgroupCreate(XReadArgs.StreamOffset.from(PUBLISHED_MESSAGES_STREAM, "0"), groupName, XGroupCreateArgs.Builder.mkstream())
+                        .doOnNext(__ -> LOGGER.info("Created consumer group '{}' on stream '{}'", groupName, PUBLISHED_MESSAGES_STREAM))
+                        .onErrorResume(RedisBusyException.class, __ -> {
+                            LOGGER.debug("Consumer group '{}' on stream '{}' already exists", groupName, PUBLISHED_MESSAGES_STREAM);
+                            return Mono.empty();
+                        })
+                        .then()
+        );
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * New messages are read in batches of {@code consumer.source.stream.batch-size} through {@code XREADGROUP} on a dedicated connection, since the read blocks
+     * for up to {@code consumer.source.stream.block-millis}. Payloads are received as raw bytes. Messages, claimed from inactive group members, are merged
+     * into the same flux.
+     * <br>
+     * Failed reads, e.g. during a failover, are retried with an exponential backoff of up to {@code READ_MAX_BACKOFF}, and counted in
+     * {@code consumer.source.stream.read.retries}. If the group has been lost, e.g. because the stream was deleted, it is created again before retrying.
+     * Only after {@code READ_MAX_RETRIES} failures in a row does the flux fail.
+     * @return A {@code Flux<SourceMessage>} of all messages delivered to this group member
+     */
+    @Override
+    public Flux<SourceMessage> receive() {
+        Flux<SourceMessage> newMessages = Flux.using(
+                () -> redisConnectionService.openDedicatedConnection(RedisConfig.RAW_VALUE_CODEC),
+                connection -> Flux
+                        .defer(() -> connection.reactive().xreadgroup(
+                                streamConsumer,
+                                XReadArgs.Builder.block(blockDuration).count(batchSize),
+                                XReadArgs.StreamOffset.lastConsumed(PUBLISHED_MESSAGES_STREAM)
+                        ))
+                        .repeat()
+                        .retryWhen(Retry.backoff(READ_MAX_RETRIES, READ_MIN_BACKOFF)
+                                .maxBackoff(READ_MAX_BACKOFF)
+                                .transientErrors(true)
+                                .doBeforeRetry(signal -> {
+                                    readRetriesCounter.increment();
+                                    LOGGER.warn("Error reading from stream '{}', retrying after {} failures", PUBLISHED_MESSAGES_STREAM,
+                                            signal.totalRetriesInARow() + 1, signal.failure());
+                                })
+                                .doBeforeRetryAsync(signal -> isNoGroup(signal.failure()) ? createGroup() : Mono.empty())),
+                ManagedConnection::close
+        ).map(this::toSourceMessage);
+
+        return Flux.merge(newMessages, claimedMessages.asFlux());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Acknowledgements are collected and sent in batches via a single {@code XACK}.
+     * @param message The message to acknowledge
+     */
+    @Override
+    public void acknowledge(SourceMessage message) {
+        if (message.id() == null) return;
+        pendingAcknowledgements.emitNext(message.id(), EMIT_FAILURE_HANDLER);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The consumer group delivers every message to a single member, so no lock is required.
+     * @return {@code false}
+     */
+    @Override
+    public boolean requiresLock() {
+        return false;
+    }
+
+    /**
+     * Claim messages, which have been pending for longer than {@code consumer.source.stream.claim-idle-millis}. Such messages were delivered to a member,
+     * which has stopped or failed before acknowledging them, and are redelivered to this one. Once all their messages have been claimed, members, which
+     * have been idle for as long, are removed from the group, so members of stopped instances do not pile up.
+     */
+    @Scheduled(fixedRateString = "${consumer.source.stream.claim-idle-millis}")
+    private void claimPendingMessages() {
+        RedisClusterReactiveCommands<String, byte[]> reactiveCommands = claimConnection.reactive();
+        autoClaim(reactiveCommands, CURSOR_START)
+                .expand(claimed -> CURSOR_START.equals(claimed.getId()) ? Mono.empty() : autoClaim(reactiveCommands, claimed.getId()))
+                .flatMapIterable(ClaimedMessages::getMessages)
+                .doOnNext(streamMessage -> claimedMessages.emitNext(toSourceMessage(streamMessage), EMIT_FAILURE_HANDLER))
+                .count()
+                .filter(claimedCount -> claimedCount > 0)
+                .doOnNext(claimedCount -> LOGGER.info("Claimed {} pending messages from stream '{}'", claimedCount, PUBLISHED_MESSAGES_STREAM))
+                .doOnError(error -> LOGGER.error("Error claiming pending messages from stream '{}'", PUBLISHED_MESSAGES_STREAM, error))
+                .onErrorComplete()
+                .then(removeIdleConsumers())
+                .subscribe();
+    }
+
+    /**
+     * Remove the other members of the group, which have no pending messages and have not read from the stream for {@code consumer.source.stream.claim-idle-millis}.
+     * A member, which is still running, is added to the group again by its next read.
+     */
+    private Mono<Void> removeIdleConsumers() {
+        return redisConnectionService.executeReactive(reactiveCommands -> reactiveCommands
+                .xinfoConsumers(PUBLISHED_MESSAGES_STREAM, groupName)
+                .map(RedisStreamMessageSource::toFields)
+                .filter(fields -> !streamConsumer.getName().equals(String.valueOf(fields.get("name")))
+                        && fields.get("pending") instanceof Long pending && pending == 0
+                        && fields.get("idle") instanceof Long idleMillis && idleMillis >= claimIdleDuration.toMillis())
+                .concatMap(fields -> reactiveCommands.xgroupDelconsumer(PUBLISHED_MESSAGES_STREAM, Consumer.from(groupName, String.valueOf(fields.get("name")))))
+                .count()
+                .filter(removedCount -> removedCount > 0)
+                .doOnNext(removedCount -> {
+                    removedConsumersCounter.increment(removedCount);
+                    LOGGER.info("Removed {} idle members from consumer group '{}'", removedCount, groupName);
+                })
+                .doOnError(error -> LOGGER.error("Error removing idle members from consumer group '{}'", groupName, error))
+                .onErrorComplete()
+                .then());
+    }
+
+    /**
+     * Send the remaining acknowledgements, waiting for up to a second, so messages finished while the consumer group was drained are not claimed again
+     */
+    @PreDestroy
+    void close() throws InterruptedException {
+        pendingAcknowledgements.tryEmitComplete();
+        if (!acknowledgementsFlushed.await(ACKNOWLEDGE_FLUSH_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+            LOGGER.warn("Could not send the remaining acknowledgements within {}, the messages will be claimed again", ACKNOWLEDGE_FLUSH_TIMEOUT);
+        }
+        claimConnection.close();
+        removeConsumer();
+    }
+
+    /**
+     * Remove this member from the group, unless it still has pending messages, which would be dropped along with it. Those are claimed by the remaining
+     * members, which then remove this member once it has been idle for long enough.
+     */
+    private void removeConsumer() {
+        try {
+            boolean hasPendingMessages = redisConnectionService.executeSync(syncCommands -> !syncCommands
+                    .xpending(PUBLISHED_MESSAGES_STREAM, XPendingArgs.Builder.xpending(streamConsumer, Range.create("-", "+"), Limit.from(1)))
+                    .isEmpty());
+            if (hasPendingMessages) {
+                LOGGER.info("Member '{}' still has pending messages, leaving it in consumer group '{}' to be claimed", streamConsumer.getName(), groupName);
+                return;
+            }
+            redisConnectionService.executeSync(syncCommands -> syncCommands.xgroupDelconsumer(PUBLISHED_MESSAGES_STREAM, streamConsumer));
+            LOGGER.info("Removed member '{}' from consumer group '{}'", streamConsumer.getName(), groupName);
+        } catch (RuntimeException e) {
+            LOGGER.error("Error removing member '{}' from consumer group '{}'", streamConsumer.getName(), groupName, e);
+        }
+    }
+
+    private Mono<ClaimedMessages<String, byte[]>> autoClaim(RedisClusterReactiveCommands<String, byte[]> reactiveCommands, String cursor) {
+        return reactiveCommands.xautoclaim(
+                PUBLISHED_MESSAGES_STREAM,
+                XAutoClaimArgs.Builder.xautoclaim(streamConsumer, claimIdleDuration, cursor).count(batchSize)
+        );
+    }
+
+    private static boolean isNoGroup(Throwable error) {
+        return error.getMessage() != null && error.getMessage().startsWith(NO_GROUP_ERROR);
+    }
+
+    /**
+     * @return The fields of an entry of {@code XINFO CONSUMERS}, which is a flat list of field names and values
+     */
+    private static Map<String, Object> toFields(Object consumerInfo) {
+        Map<String, Object> fields = new HashMap<>();
+        if (!(consumerInfo instanceof List<?> values)) return fields;
+        for (int index = 0; index + 1 < values.size(); index += 2) fields.put(String.valueOf(values.get(index)), values.get(index + 1));
+        return fields;
+    }
+
+    private SourceMessage toSourceMessage(StreamMessage<String, byte[]> streamMessage) {
+        return new SourceMessage(streamMessage.getStream(), streamMessage.getId(), streamMessage.getBody().get(PAYLOAD_FIELD));
+    }
+}
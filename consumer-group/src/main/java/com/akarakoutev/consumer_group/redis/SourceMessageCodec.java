@@ -0,0 +1,42 @@
+package com.akarakoutev.consumer_group.redis;
+
+import com.akarakoutev.consumer_group.source.SourceMessage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes messages, which are kept in Redis to be consumed later, along with the channel they were received from and the number of attempts so far,
+ * so they take the same route once they are consumed, and are eventually given up on. A message is stored as its attempt, the length and UTF-8 bytes
+ * of its channel, and its payload. A message without a channel is decoded with an empty one, so it encodes to the same bytes again.
+ */
+final class SourceMessageCodec {
+
+    private SourceMessageCodec() {
+    }
+
+    static byte[] encode(SourceMessage message, int attempt) {
+        byte[] source = message.source() == null ? new byte[0] : message.source().getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(2 * Integer.BYTES + source.length + message.payload().length)
+                .putInt(attempt)
+                .putInt(source.length)
+                .put(source)
+                .put(message.payload())
+                .array();
+    }
+
+    /**
+     * @param encoded The encoded message
+     * @param id The identifier, by which the message is acknowledged, or {@code null}
+     * @return The decoded message
+     */
+    static SourceMessage decode(byte[] encoded, String id) {
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        int attempt = buffer.getInt();
+        byte[] source = new byte[buffer.getInt()];
+        buffer.get(source);
+        byte[] payload = new byte[buffer.remaining()];
+        buffer.get(payload);
+        return new SourceMessage(new String(source, StandardCharsets.UTF_8), id, payload, attempt);
+    }
+}
@@ -0,0 +1,29 @@
+package com.akarakoutev.consumer_group.redis;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+
+class StandaloneRedisConnector implements RedisConnector {
+
+    private final RedisClient redisClient;
+
+    StandaloneRedisConnector(RedisClient redisClient) {
+        this.redisClient = redisClient;
+    }
+
+    @Override
+    public <K, V> ManagedConnection<K, V> connect(RedisCodec<K, V> codec) {
+        return ManagedConnection.of(redisClient.connect(codec));
+    }
+
+    @Override
+    public <K, V> StatefulRedisPubSubConnection<K, V> connectPubSub(RedisCodec<K, V> codec) {
+        return redisClient.connectPubSub(codec);
+    }
+
+    @Override
+    public void shutdown() {
+        redisClient.shutdown();
+    }
+}
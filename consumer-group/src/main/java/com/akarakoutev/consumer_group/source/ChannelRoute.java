@@ -0,0 +1,127 @@
+package com.akarakoutev.consumer_group.source;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A route of incoming messages, selected by the channel they were received from. Each route is consumed in its own lanes with its own concurrency budget,
+ * and routes share the messages in flight by their weight, so a flood of messages on one route does not starve the others.
+ * <br>
+ * Routes are configured via {@code consumer.routes} as a comma-separated list of {@code <channel>:<weight>:<concurrency>}, such as
+ * {@code messages:priority:8:4,messages:bulk:*:1:2}. A channel containing one of the glob characters {@code *}, {@code ?} or {@code [} is a pattern,
+ * which is subscribed via {@code PSUBSCRIBE}. Messages, which match no route, take the {@link #isDefault() default} route.
+ * @param channel The channel or channel pattern, or {@code null} for the default route
+ * @param weight The share of the messages in flight, which the route receives while routes compete for them
+ * @param concurrency The maximum number of messages, or batches, of the route, which each consumer has in flight
+ */
+public record ChannelRoute(String channel, int weight, int concurrency) {
+
+    private static final Pattern GLOB_CHARACTERS = Pattern.compile("[*?\\[]");
+
+    public ChannelRoute {
+        if (weight < 1) throw new IllegalArgumentException("The weight of a route must be positive");
+        if (concurrency < 1) throw new IllegalArgumentException("The concurrency of a route must be positive");
+    }
+
+    /**
+     * @param weight The weight of the default route
+     * @param concurrency The concurrency of the default route
+     * @return The route of all messages, which match no other route
+     */
+    public static ChannelRoute defaultRoute(int weight, int concurrency) {
+        return new ChannelRoute(null, weight, concurrency);
+    }
+
+    /**
+     * Parse the routes, configured via {@code consumer.routes}. The weight and concurrency are read from the end of each route, so channels may contain colons.
+     * @param value The configured routes
+     * @return The routes, in the order in which they are matched
+     */
+    public static List<ChannelRoute> fromProperty(String value) {
+        List<ChannelRoute> routes = new ArrayList<>();
+        if (value == null || value.isBlank()) return routes;
+        for (String route : value.split(",")) {
+            String trimmedRoute = route.trim();
+            int concurrencySeparator = trimmedRoute.lastIndexOf(':');
+            int weightSeparator = concurrencySeparator < 0 ? -1 : trimmedRoute.lastIndexOf(':', concurrencySeparator - 1);
+            if (weightSeparator <= 0) throw new IllegalArgumentException(String.format("Route %s is not of the form <channel>:<weight>:<concurrency>", trimmedRoute));
+            routes.add(new ChannelRoute(
+                    trimmedRoute.substring(0, weightSeparator),
+                    Integer.parseInt(trimmedRoute.substring(weightSeparator + 1, concurrencySeparator)),
+                    Integer.parseInt(trimmedRoute.substring(concurrencySeparator + 1))
+            ));
+        }
+        return routes;
+    }
+
+    public boolean isDefault() {
+        return channel == null;
+    }
+
+    /**
+     * @return Whether the channel of the route is a glob-style pattern, which is subscribed via {@code PSUBSCRIBE}
+     */
+    public boolean isPattern() {
+        return channel != null && GLOB_CHARACTERS.matcher(channel).find();
+    }
+
+    /**
+     * Check whether a message, received from a channel, takes this route. Patterns are matched as by Redis, where {@code *} matches any characters,
+     * {@code ?} a single character and {@code [...]} one of a set of characters.
+     * @param sourceChannel The channel, from which the message was received
+     * @return Whether the message takes this route
+     */
+    public boolean matches(String sourceChannel) {
+        if (channel == null) return true;
+        if (!isPattern()) return channel.equals(sourceChannel);
+        return sourceChannel != null && globMatches(channel, 0, sourceChannel, 0);
+    }
+
+    private static boolean globMatches(String pattern, int patternIndex, String text, int textIndex) {
+        while (patternIndex < pattern.length()) {
+            char patternChar = pattern.charAt(patternIndex);
+            switch (patternChar) {
+                case '*' -> {
+                    for (int skipped = textIndex; skipped <= text.length(); skipped++) {
+                        if (globMatches(pattern, patternIndex + 1, text, skipped)) return true;
+                    }
+                    return false;
+                }
+                case '?' -> {
+                    if (textIndex == text.length()) return false;
+                    patternIndex++;
+                    textIndex++;
+                }
+                case '[' -> {
+                    int setEnd = pattern.indexOf(']', patternIndex + 1);
+                    if (setEnd < 0 || textIndex == text.length()) return false;
+                    if (!setContains(pattern, patternIndex + 1, setEnd, text.charAt(textIndex))) return false;
+                    patternIndex = setEnd + 1;
+                    textIndex++;
+                }
+                default -> {
+                    if (patternChar == '\\' && patternIndex + 1 < pattern.length()) patternChar = pattern.charAt(++patternIndex);
+                    if (textIndex == text.length() || text.charAt(textIndex) != patternChar) return false;
+                    patternIndex++;
+                    textIndex++;
+                }
+            }
+        }
+        return textIndex == text.length();
+    }
+
+    private static boolean setContains(String pattern, int setStart, int setEnd, char textChar) {
+        boolean negated = setStart < setEnd && pattern.charAt(setStart) == '^';
+        boolean contained = false;
+        for (int index = negated ? setStart + 1 : setStart; index < setEnd; index++) {
+            if (index + 2 < setEnd && pattern.charAt(index + 1) == '-') {
+                contained |= textChar >= pattern.charAt(index) && textChar <= pattern.charAt(index + 2);
+                index += 2;
+            } else {
+                contained |= textChar == pattern.charAt(index);
+            }
+        }
+        return contained != negated;
+    }
+}
@@ -0,0 +1,25 @@
+package com.akarakoutev.consumer_group.source;
+
+import reactor.core.publisher.Flux;
+
+public interface MessageSource {
+
+    /**
+     * Start receiving raw messages. A single subscription is expected per consumer group instance.
+     * @return A {@code Flux<SourceMessage>} of all incoming raw messages
+     */
+    Flux<SourceMessage> receive();
+
+    /**
+     * Acknowledge a message after it has been fully processed and recorded. Sources which do not track delivery may ignore this.
+     * @param message The message to acknowledge
+     */
+    void acknowledge(SourceMessage message);
+
+    /**
+     * Check if messages from this source can be delivered to more than one consumer group instance, in which case they have to be locked before processing
+     * @return Whether a lock is required before processing a message
+     */
+    boolean requiresLock();
+
+}
@@ -0,0 +1,30 @@
+package com.akarakoutev.consumer_group.source;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A raw message, as received from a {@link MessageSource}
+ * @param source The channel or stream, from which the message was received
+ * @param id The source specific identifier of the message, used for acknowledgement. May be {@code null} if the source does not support acknowledgement
+ * @param payload The raw message payload, exactly as received from Redis
+ * @param attempt The number of previous attempts to consume the message, which is {@code 0} unless the message is a retry
+ */
+public record SourceMessage (
+        String source,
+        String id,
+        byte[] payload,
+        int attempt
+) {
+
+    public SourceMessage(String source, String id, byte[] payload) {
+        this(source, id, payload, 0);
+    }
+
+    /**
+     * Decode the payload as a UTF-8 string. Meant for logging, parsers should read the payload bytes directly.
+     * @return The decoded payload, or {@code null} if there is no payload
+     */
+    public String payloadAsString() {
+        return payload == null ? null : new String(payload, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,344 @@
+package com.akarakoutev.consumer_group.consumption;
+
+import com.akarakoutev.consumer_group.consumption.domain.Message;
+import com.akarakoutev.consumer_group.deduplication.Deduplicator;
+import com.akarakoutev.consumer_group.exception.BatchConsumptionException;
+import com.akarakoutev.consumer_group.exception.BatchConsumptionException.Outcome;
+import com.akarakoutev.consumer_group.exception.PipelineException;
+import com.akarakoutev.consumer_group.lock.LockService;
+import com.akarakoutev.consumer_group.recording.ProcessedMessageStream;
+import com.akarakoutev.consumer_group.redis.RedisConnectionService;
+import com.akarakoutev.consumer_group.redis.RedisDeadLetterStream;
+import com.akarakoutev.consumer_group.source.MessageSource;
+import com.akarakoutev.consumer_group.source.SourceMessage;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.redis.testcontainers.RedisContainer;
+import io.lettuce.core.AclSetuserArgs;
+import io.lettuce.core.Range;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.StreamMessage;
+import io.lettuce.core.api.sync.RedisServerCommands;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@Testcontainers
+class BatchConsumptionUnitTest {
+
+    private static final int SHARDS = 4;
+    private static final String OTHER_OWNER = "other-consumer";
+    private static final String CHANNEL = "messages:published";
+    private static final String DEFAULT_USER = "default";
+    private static final Duration SETTLE_TIMEOUT = Duration.ofSeconds(10);
+
+    @Autowired
+    public ObjectMapper objectMapper;
+
+    @Autowired
+    private MessageIdJsonConsumer messageIdJsonConsumer;
+
+    @Autowired
+    private LockService lockService;
+
+    @Autowired
+    private ConsumerMetrics consumerMetrics;
+
+    @Autowired
+    private Deduplicator deduplicator;
+
+    @Autowired
+    private ProcessedMessageStream processedMessageStream;
+
+    @Autowired
+    private FailedMessageHandler failedMessageHandler;
+
+    @Autowired
+    private RedisConnectionService redisConnectionService;
+
+    private static final RedisContainer redisContainer = new RedisContainer(DockerImageName.parse("redis:latest"));
+
+    @BeforeAll
+    public static void setupClass() {
+        redisContainer.withExposedPorts(6379).start();
+    }
+
+    @AfterAll
+    public static void teardownClass() {
+        redisContainer.stop();
+    }
+
+    @BeforeEach
+    public void setup() {
+        redisConnectionService.executeSync(RedisServerCommands::flushdb);
+    }
+
+    @DynamicPropertySource
+    static void configureProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.redis.host", redisContainer::getHost);
+        registry.add("spring.redis.port", () -> redisContainer.getMappedPort(6379));
+        registry.add("spring.redis.lock.duration-seconds", () -> 10);
+        registry.add("consumer.group.size", () -> 0);
+        registry.add("spring.task.scheduling.pool.size", () -> 1);
+        registry.add("consumer.output.shards", () -> SHARDS);
+    }
+
+    @Test
+    public void testLocksAcquiredAndReleasedOnlyWhereNotHeld() {
+        String owner = UUID.randomUUID().toString();
+        List<String> lockKeys = List.of("lock:a", "lock:b", "lock:c", "lock:d");
+        assertEquals(Boolean.TRUE, lockService.acquireLock(lockKeys.get(1), OTHER_OWNER).block());
+        assertEquals(Boolean.TRUE, lockService.acquireLock(lockKeys.get(3), OTHER_OWNER).block());
+
+        assertEquals(List.of(true, false, true, false), lockService.acquireLocks(lockKeys, owner).block());
+        assertEquals(List.of(true, false, true, false), lockService.releaseLocks(lockKeys, owner).block());
+
+        // The locks of the other owner are neither taken over nor released
+        assertEquals(0, (long) redisConnectionService.executeSync(syncCommands -> syncCommands.exists(lockKeys.get(0), lockKeys.get(2))));
+        assertEquals(OTHER_OWNER, redisConnectionService.executeSync(syncCommands -> syncCommands.get(lockKeys.get(1))));
+        assertEquals(OTHER_OWNER, redisConnectionService.executeSync(syncCommands -> syncCommands.get(lockKeys.get(3))));
+    }
+
+    @Test
+    public void testPartiallyContendedBatchRecordedOnce() throws JsonProcessingException {
+        List<String> messageIds = messageIds(2, 4);
+        List<String> contendedIds = List.of(messageIds.get(1), messageIds.get(4));
+        for (String contendedId : contendedIds) lockService.acquireLock(messageIdJsonConsumer.lockKey(contendedId), OTHER_OWNER).block();
+        List<JsonNode> messages = messages(messageIds);
+
+        List<Boolean> recorded = messageIdJsonConsumer.consume(messages, true).block();
+        assertNotNull(recorded);
+        List<String> expectedIds = new ArrayList<>();
+        for (int index = 0; index < messageIds.size(); index++) {
+            assertEquals(!contendedIds.contains(messageIds.get(index)), recorded.get(index));
+            if (recorded.get(index)) expectedIds.add(messageIds.get(index));
+        }
+        assertEquals(sorted(expectedIds), sorted(recordedIds()));
+
+        // Only the locks of this consumer were released, the contended messages are still locked by the other consumer
+        for (String messageId : messageIds) {
+            String owner = redisConnectionService.executeSync(syncCommands -> syncCommands.get(messageIdJsonConsumer.lockKey(messageId)));
+            assertEquals(contendedIds.contains(messageId) ? OTHER_OWNER : null, owner);
+        }
+
+        // A redelivery of the same batch records nothing twice
+        assertEquals(List.of(true, true, true, true, true, true), messageIdJsonConsumer.consume(messages, true).block());
+        assertEquals(sorted(expectedIds), sorted(recordedIds()));
+    }
+
+    @Test
+    public void testPartiallyFailedLockingLeavesNoLocks() throws JsonProcessingException {
+        List<String> messageIds = messageIds(1, 3);
+        // Message identifiers are UUIDs, whose locks stay writable, while the lock of this message can not be written
+        String deniedId = "x-" + UUID.randomUUID();
+        List<String> batchIds = new ArrayList<>(messageIds);
+        batchIds.add(1, deniedId);
+        List<JsonNode> messages = messages(batchIds);
+
+        BatchConsumptionException error;
+        redisConnectionService.executeSync(syncCommands -> syncCommands.aclSetuser(DEFAULT_USER,
+                AclSetuserArgs.Builder.resetKeys().keyPattern("[^l]*").keyPattern("lock:{?}:[0-9a-f]*")));
+        try {
+            error = assertThrows(BatchConsumptionException.class, () -> messageIdJsonConsumer.consume(messages, true).block());
+        } finally {
+            redisConnectionService.executeSync(syncCommands -> syncCommands.aclSetuser(DEFAULT_USER, AclSetuserArgs.Builder.allKeys()));
+        }
+        assertTrue(error.outcomes().stream().allMatch(outcome -> outcome == Outcome.FAILED));
+        assertTrue(error.getCause().getMessage().contains("NOPERM"));
+
+        // The locks, which were acquired before the pipeline failed, are released, so the messages are not found contended by their own consumer
+        assertTrue(redisConnectionService.executeSync(syncCommands -> syncCommands.keys("lock:*")).isEmpty());
+        Map<String, String> heldLocks = new HashMap<>();
+        messageIdJsonConsumer.collectHeldLocks(heldLocks);
+        assertTrue(heldLocks.isEmpty());
+        assertEquals(List.of(true, true, true, true), messageIdJsonConsumer.consume(messages(messageIds), true).block());
+        assertEquals(sorted(messageIds), sorted(recordedIds()));
+    }
+
+    @Test
+    public void testPipelineReportsEachFailedCommand() {
+        String blockedKey = processedMessageStream.keys().get(0);
+        String streamKey = processedMessageStream.keys().get(1);
+        redisConnectionService.executeSync(syncCommands -> syncCommands.set(blockedKey, "blocked"));
+
+        PipelineException error = assertThrows(PipelineException.class, () -> redisConnectionService
+                .executePipelined(asyncCommands -> List.<RedisFuture<?>>of(
+                        asyncCommands.xadd(streamKey, Message.MESSAGE_ID_KEY, "first"),
+                        asyncCommands.xadd(blockedKey, Message.MESSAGE_ID_KEY, "second"),
+                        asyncCommands.xadd(streamKey, Message.MESSAGE_ID_KEY, "third")))
+                .block());
+
+        assertFalse(error.failed(0));
+        assertTrue(error.failed(1));
+        assertFalse(error.failed(2));
+        assertNotNull(error.results().get(0));
+        assertNull(error.results().get(1));
+        assertNotNull(error.results().get(2));
+        assertTrue(error.getCause().getMessage().contains("WRONGTYPE"));
+        assertEquals(2, (long) redisConnectionService.executeSync(syncCommands -> syncCommands.xlen(streamKey)));
+    }
+
+    @Test
+    public void testPartiallyFailedRecordingForgetsOnlyFailedMessages() throws JsonProcessingException {
+        List<String> messageIds = messageIds(2, 4);
+        List<String> failedIds = messageIds.stream().filter(this::inBlockedShard).toList();
+        List<String> recordedIds = messageIds.stream().filter(messageId -> !inBlockedShard(messageId)).toList();
+        redisConnectionService.executeSync(syncCommands -> syncCommands.set(processedMessageStream.keys().get(0), "blocked"));
+        List<JsonNode> messages = messages(messageIds);
+
+        BatchConsumptionException error = assertThrows(BatchConsumptionException.class, () -> messageIdJsonConsumer.consume(messages, true).block());
+        for (int index = 0; index < messageIds.size(); index++) {
+            assertEquals(failedIds.contains(messageIds.get(index)) ? Outcome.FAILED : Outcome.RECORDED, error.outcomes().get(index));
+        }
+        assertEquals(sorted(recordedIds), sorted(recordedIds()));
+
+        // Every lock is released, whether its message was recorded or not
+        for (String messageId : messageIds) {
+            assertEquals(0, (long) redisConnectionService.executeSync(syncCommands -> syncCommands.exists(messageIdJsonConsumer.lockKey(messageId))));
+        }
+
+        // Once the shard can be written again, only the failed messages are recorded, while the recorded ones are skipped as duplicates
+        redisConnectionService.executeSync(syncCommands -> syncCommands.del(processedMessageStream.keys().get(0)));
+        assertEquals(List.of(true, true, true, true, true, true), messageIdJsonConsumer.consume(messages, true).block());
+        assertEquals(sorted(messageIds), sorted(recordedIds()));
+    }
+
+    @Test
+    public void testFailedMessagesOfBatchConsumedAgainAlone() throws InterruptedException {
+        List<String> messageIds = messageIds(2, 4);
+        List<String> failedIds = messageIds.stream().filter(this::inBlockedShard).toList();
+        List<String> recordedIds = messageIds.stream().filter(messageId -> !inBlockedShard(messageId)).toList();
+        redisConnectionService.executeSync(syncCommands -> syncCommands.set(processedMessageStream.keys().get(0), "blocked"));
+        TestMessageSource messageSource = new TestMessageSource(messageIds);
+
+        MessageDispatcher<JsonNode> messageDispatcher = new MessageDispatcher<>(
+                () -> new MessageIdJsonConsumer(lockService, redisConnectionService, consumerMetrics, deduplicator, processedMessageStream, objectMapper),
+                1, messageSource, consumerMetrics, null, null, failedMessageHandler,
+                messageIds.size(), 1, MessageDispatcher.OverflowPolicy.BLOCK, messageIds.size(), Duration.ofSeconds(1),
+                MessageDispatcher.ExecutionMode.REACTIVE, 1, List.of(), 1, 1
+        );
+        try {
+            long deadlineNanos = System.nanoTime() + SETTLE_TIMEOUT.toNanos();
+            while (messageSource.acknowledged.size() < messageIds.size() && System.nanoTime() - deadlineNanos < 0) Thread.sleep(10);
+        } finally {
+            messageDispatcher.close();
+        }
+
+        // Every message is acknowledged once, the recorded ones after the batch and the failed ones after being dead-lettered on their own
+        assertEquals(sorted(messageIds), sorted(new ArrayList<>(messageSource.acknowledged)));
+        assertEquals(sorted(recordedIds), sorted(recordedIds()));
+        List<StreamMessage<String, String>> deadLetters = redisConnectionService.executeSync(syncCommands ->
+                syncCommands.xrange(RedisDeadLetterStream.DEAD_MESSAGES_KEY, Range.create("-", "+")));
+        assertEquals(sorted(failedIds), sorted(deadLetters.stream().map(deadLetter -> deadLetter.getBody().get("payload")).map(this::messageIdOf).toList()));
+        assertTrue(deadLetters.stream().allMatch(deadLetter -> deadLetter.getBody().get("error").contains("WRONGTYPE")));
+    }
+
+    /**
+     * @return The identifiers of all messages in the processed messages stream, across the shards, which are streams
+     */
+    private List<String> recordedIds() {
+        List<String> messageIds = new ArrayList<>();
+        for (String key : processedMessageStream.keys()) {
+            if (!"stream".equals(redisConnectionService.executeSync(syncCommands -> syncCommands.type(key)))) continue;
+            redisConnectionService.executeSync(syncCommands -> syncCommands.xrange(key, Range.create("-", "+")))
+                    .forEach(recordedMessage -> messageIds.add(recordedMessage.getBody().get(Message.MESSAGE_ID_KEY)));
+        }
+        return messageIds;
+    }
+
+    /**
+     * Generate message identifiers, some of which are recorded into the first shard, so they fail once that shard has been blocked
+     */
+    private List<String> messageIds(int inBlockedShard, int inOtherShards) {
+        List<String> blocked = new ArrayList<>();
+        List<String> other = new ArrayList<>();
+        while (blocked.size() < inBlockedShard || other.size() < inOtherShards) {
+            String messageId = UUID.randomUUID().toString();
+            if (inBlockedShard(messageId)) {
+                if (blocked.size() < inBlockedShard) blocked.add(messageId);
+            } else if (other.size() < inOtherShards) {
+                other.add(messageId);
+            }
+        }
+        List<String> messageIds = new ArrayList<>(other);
+        messageIds.add(1, blocked.get(0));
+        messageIds.addAll(blocked.subList(1, blocked.size()));
+        return messageIds;
+    }
+
+    private boolean inBlockedShard(String messageId) {
+        return processedMessageStream.key(messageId).equals(processedMessageStream.keys().get(0));
+    }
+
+    private List<JsonNode> messages(List<String> messageIds) throws JsonProcessingException {
+        List<JsonNode> messages = new ArrayList<>();
+        for (String messageId : messageIds) messages.add(objectMapper.readTree(payloadOf(messageId)));
+        return messages;
+    }
+
+    private String messageIdOf(String payload) {
+        try {
+            return objectMapper.readTree(payload).get(Message.MESSAGE_ID_KEY).textValue();
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String payloadOf(String messageId) {
+        return String.format("{\"%s\":\"%s\"}", Message.MESSAGE_ID_KEY, messageId);
+    }
+
+    private static List<String> sorted(List<String> values) {
+        return values.stream().sorted().toList();
+    }
+
+    /**
+     * Delivers a fixed set of messages, each of which has to be locked, and collects the identifiers of the acknowledged ones
+     */
+    private static class TestMessageSource implements MessageSource {
+        private final List<String> messageIds;
+        private final Queue<String> acknowledged = new ConcurrentLinkedQueue<>();
+
+        private TestMessageSource(List<String> messageIds) {
+            this.messageIds = messageIds;
+        }
+
+        @Override
+        public Flux<SourceMessage> receive() {
+            return Flux.fromIterable(messageIds)
+                    .map(messageId -> new SourceMessage(CHANNEL, messageId, payloadOf(messageId).getBytes(StandardCharsets.UTF_8)));
+        }
+
+        @Override
+        public void acknowledge(SourceMessage message) {
+            acknowledged.add(message.id());
+        }
+
+        @Override
+        public boolean requiresLock() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.akarakoutev.consumer_group.consumption;
+
+import com.akarakoutev.consumer_group.redis.RedisConnectionService;
+import com.akarakoutev.consumer_group.redis.RedisDeadLetterStream;
+import com.akarakoutev.consumer_group.redis.RedisRetryQueue;
+import com.akarakoutev.consumer_group.source.SourceMessage;
+import com.redis.testcontainers.RedisContainer;
+import io.lettuce.core.Range;
+import io.lettuce.core.StreamMessage;
+import io.lettuce.core.api.sync.RedisServerCommands;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@Testcontainers
+class FailedMessageHandlerUnitTest {
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long INITIAL_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 400;
+    private static final long VISIBILITY_TIMEOUT_MILLIS = 200;
+    private static final Duration REPLAY_TIMEOUT = Duration.ofSeconds(5);
+    private static final String CHANNEL = "messages:published";
+
+    @Autowired
+    private FailedMessageHandler failedMessageHandler;
+
+    @Autowired
+    private RedisRetryQueue retryQueue;
+
+    @Autowired
+    private RedisConnectionService redisConnectionService;
+
+    private static final RedisContainer redisContainer = new RedisContainer(DockerImageName.parse("redis:latest"));
+
+    @BeforeAll
+    public static void setupClass() {
+        redisContainer.withExposedPorts(6379).start();
+    }
+
+    @AfterAll
+    public static void teardownClass() {
+        redisContainer.stop();
+    }
+
+    @BeforeEach
+    public void setup() {
+        redisConnectionService.executeSync(RedisServerCommands::flushdb);
+    }
+
+    @DynamicPropertySource
+    static void configureProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.redis.host", redisContainer::getHost);
+        registry.add("spring.redis.port", () -> redisContainer.getMappedPort(6379));
+        registry.add("spring.redis.lock.duration-seconds", () -> 10);
+        registry.add("consumer.group.size", () -> 0);
+        registry.add("spring.task.scheduling.pool.size", () -> 1);
+        registry.add("consumer.retry.enabled", () -> true);
+        registry.add("consumer.retry.max-attempts", () -> MAX_ATTEMPTS);
+        registry.add("consumer.retry.initial-backoff-millis", () -> INITIAL_BACKOFF_MILLIS);
+        registry.add("consumer.retry.max-backoff-millis", () -> MAX_BACKOFF_MILLIS);
+        registry.add("consumer.retry.visibility-timeout-millis", () -> VISIBILITY_TIMEOUT_MILLIS);
+        registry.add("consumer.retry.poll-interval-millis", () -> 10);
+    }
+
+    @Test
+    public void testBackoffDoublesUpToMaximum() {
+        for (int attempts = 1; attempts <= 8; attempts++) {
+            long expectedMillis = Math.min(INITIAL_BACKOFF_MILLIS << (attempts - 1), MAX_BACKOFF_MILLIS);
+            for (int sample = 0; sample < 100; sample++) {
+                long backoffMillis = failedMessageHandler.backoff(attempts).toMillis();
+                assertTrue(backoffMillis >= expectedMillis / 2 && backoffMillis <= expectedMillis, () -> "Backoff of " + backoffMillis + "ms");
+            }
+        }
+    }
+
+    @Test
+    public void testFailedMessageScheduledUntilOutOfAttempts() {
+        SourceMessage message = message(0);
+
+        assertEquals(Boolean.TRUE, failedMessageHandler.fail(message, new IllegalStateException("first")).block());
+        assertEquals(1, (long) redisConnectionService.executeSync(syncCommands -> syncCommands.zcard(RedisRetryQueue.RETRY_MESSAGES_KEY)));
+        assertEquals(0, deadLetters().size());
+
+        SourceMessage lastAttempt = new SourceMessage(CHANNEL, null, message.payload(), MAX_ATTEMPTS - 1);
+        assertEquals(Boolean.TRUE, failedMessageHandler.fail(lastAttempt, new IllegalStateException("last")).block());
+        assertEquals(1, (long) redisConnectionService.executeSync(syncCommands -> syncCommands.zcard(RedisRetryQueue.RETRY_MESSAGES_KEY)));
+
+        List<StreamMessage<String, String>> deadLetters = deadLetters();
+        assertEquals(1, deadLetters.size());
+        assertEquals(message.payloadAsString(), deadLetters.get(0).getBody().get("payload"));
+        assertEquals(CHANNEL, deadLetters.get(0).getBody().get("source"));
+        assertEquals(String.valueOf(MAX_ATTEMPTS), deadLetters.get(0).getBody().get("attempts"));
+        assertTrue(deadLetters.get(0).getBody().get("error").contains("last"));
+    }
+
+    @Test
+    public void testRejectedMessageDeadLetteredRightAway() {
+        assertEquals(Boolean.TRUE, failedMessageHandler.reject(message(0), "Message could not be parsed").block());
+
+        assertEquals(0, (long) redisConnectionService.executeSync(syncCommands -> syncCommands.zcard(RedisRetryQueue.RETRY_MESSAGES_KEY)));
+        assertEquals("Message could not be parsed", deadLetters().get(0).getBody().get("error"));
+    }
+
+    @Test
+    public void testReplayedMessageClaimedUntilAcknowledged() {
+        SourceMessage message = message(0);
+        assertEquals(Boolean.TRUE, retryQueue.schedule(message, 1, Duration.ZERO).block());
+
+        SourceMessage replayed = retryQueue.replay().blockFirst(REPLAY_TIMEOUT);
+        assertNotNull(replayed);
+        assertEquals(CHANNEL, replayed.source());
+        assertEquals(1, replayed.attempt());
+        assertTrue(failedMessageHandler.isRetry(replayed));
+        assertEquals(0, (long) redisConnectionService.executeSync(syncCommands -> syncCommands.zcard(RedisRetryQueue.RETRY_MESSAGES_KEY)));
+        assertEquals(1, (long) redisConnectionService.executeSync(syncCommands -> syncCommands.zcard(RedisRetryQueue.PROCESSING_MESSAGES_KEY)));
+
+        assertEquals(Boolean.TRUE, retryQueue.acknowledge(replayed).block());
+        assertEquals(0, (long) redisConnectionService.executeSync(syncCommands -> syncCommands.zcard(RedisRetryQueue.PROCESSING_MESSAGES_KEY)));
+    }
+
+    @Test
+    public void testUnacknowledgedMessageReplayedAfterVisibilityTimeout() throws InterruptedException {
+        SourceMessage message = message(0);
+        retryQueue.schedule(message, 1, Duration.ZERO).block();
+
+        // The first replay is dropped before it is consumed, as on a drain or a crash
+        assertNotNull(retryQueue.replay().blockFirst(REPLAY_TIMEOUT));
+        Thread.sleep(VISIBILITY_TIMEOUT_MILLIS * 2);
+
+        SourceMessage replayedAgain = retryQueue.replay().blockFirst(REPLAY_TIMEOUT);
+        assertNotNull(replayedAgain);
+        assertArrayEquals(message.payload(), replayedAgain.payload());
+        assertEquals(1, replayedAgain.attempt());
+    }
+
+    private List<StreamMessage<String, String>> deadLetters() {
+        return redisConnectionService.executeSync(syncCommands -> syncCommands.xrange(RedisDeadLetterStream.DEAD_MESSAGES_KEY, Range.create("-", "+")));
+    }
+
+    private static SourceMessage message(int attempt) {
+        String payload = String.format("{\"message_id\":\"%s\"}", UUID.randomUUID());
+        return new SourceMessage(CHANNEL, null, payload.getBytes(StandardCharsets.UTF_8), attempt);
+    }
+}
@@ -0,0 +1,75 @@
+package com.akarakoutev.consumer_group.consumption;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InFlightRegistryUnitTest {
+
+    private static final int EXPECTED_SIZE = 16;
+    private static final int KEY_COUNT = 10_000;
+
+    @Test
+    public void testLockOutlastsConsumption() {
+        InFlightRegistry registry = new InFlightRegistry(EXPECTED_SIZE);
+        String key = UUID.randomUUID().toString();
+
+        assertTrue(registry.register(key));
+        assertFalse(registry.register(key));
+        assertTrue(registry.lock(key));
+        assertTrue(registry.unregister(key));
+
+        // A cancelled message keeps its lock, until it is released on shutdown
+        assertFalse(registry.isInFlight(key));
+        assertTrue(registry.isLocked(key));
+        assertEquals(List.of(key), registry.lockedKeys());
+        assertTrue(registry.unlock(key));
+        assertFalse(registry.unlock(key));
+        assertEquals(0, registry.inFlightCount());
+        assertEquals(0, registry.lockedCount());
+    }
+
+    @Test
+    public void testEntriesReachableAfterGrowthAndRemoval() {
+        InFlightRegistry registry = new InFlightRegistry(EXPECTED_SIZE);
+        List<String> keys = new ArrayList<>();
+        for (int index = 0; index < KEY_COUNT; index++) {
+            // Identifiers, which differ in few bits, collide on their home slots without mixing
+            String key = new UUID(index >>> 4, index & 0xF).toString();
+            keys.add(key);
+            registry.register(key);
+            if (index % 2 == 0) registry.lock(key);
+        }
+        assertTrue(registry.capacity() >= 2 * KEY_COUNT);
+
+        for (int index = 0; index < KEY_COUNT; index += 3) registry.unregister(keys.get(index));
+        Set<String> expectedLockedKeys = new HashSet<>();
+        for (int index = 0; index < KEY_COUNT; index++) {
+            assertEquals(index % 3 != 0, registry.isInFlight(keys.get(index)));
+            assertEquals(index % 2 == 0, registry.isLocked(keys.get(index)));
+            if (index % 2 == 0) expectedLockedKeys.add(keys.get(index));
+        }
+        assertEquals(expectedLockedKeys, new HashSet<>(registry.lockedKeys()));
+        assertEquals(KEY_COUNT - (KEY_COUNT + 2) / 3, registry.inFlightCount());
+    }
+
+    @Test
+    public void testKeysOtherThanCanonicalUuids() {
+        InFlightRegistry registry = new InFlightRegistry(EXPECTED_SIZE);
+        String upperCaseKey = UUID.randomUUID().toString().toUpperCase();
+
+        assertTrue(registry.lock("message-1"));
+        assertTrue(registry.lock(upperCaseKey));
+
+        // Lock keys are derived from the identifiers, so they are kept exactly as given
+        assertEquals(Set.of("message-1", upperCaseKey), new HashSet<>(registry.lockedKeys()));
+        assertTrue(registry.unlock(upperCaseKey));
+        assertEquals(1, registry.lockedCount());
+    }
+}
@@ -0,0 +1,199 @@
+package com.akarakoutev.consumer_group.consumption;
+
+import com.akarakoutev.consumer_group.consumption.domain.Message;
+import com.akarakoutev.consumer_group.deduplication.Deduplicator;
+import com.akarakoutev.consumer_group.lock.LockService;
+import com.akarakoutev.consumer_group.recording.ProcessedMessageStream;
+import com.akarakoutev.consumer_group.redis.RedisConnectionService;
+import com.akarakoutev.consumer_group.source.MessageSource;
+import com.akarakoutev.consumer_group.source.SourceMessage;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.redis.testcontainers.RedisContainer;
+import io.lettuce.core.Range;
+import io.lettuce.core.StreamMessage;
+import io.lettuce.core.api.sync.RedisServerCommands;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@Testcontainers
+class MessageDispatcherUnitTest {
+
+    private static final int GROUP_SIZE = 2;
+    private static final int MESSAGE_COUNT = 5;
+    private static final Duration PROCESSING_DELAY = Duration.ofMillis(100);
+    private static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(10);
+    private static final String CHANNEL = "messages:published";
+
+    @Autowired
+    public ObjectMapper objectMapper;
+
+    @Autowired
+    private LockService lockService;
+
+    @Autowired
+    private ConsumerMetrics consumerMetrics;
+
+    @Autowired
+    private Deduplicator deduplicator;
+
+    @Autowired
+    private ProcessedMessageStream processedMessageStream;
+
+    @Autowired
+    private FailedMessageHandler failedMessageHandler;
+
+    @Autowired
+    private RedisConnectionService redisConnectionService;
+
+    private static final RedisContainer redisContainer = new RedisContainer(DockerImageName.parse("redis:latest"));
+
+    @BeforeAll
+    public static void setupClass() {
+        redisContainer.withExposedPorts(6379).start();
+    }
+
+    @AfterAll
+    public static void teardownClass() {
+        redisContainer.stop();
+    }
+
+    @BeforeEach
+    public void setup() {
+        redisConnectionService.executeSync(RedisServerCommands::flushdb);
+    }
+
+    @DynamicPropertySource
+    static void configureProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.redis.host", redisContainer::getHost);
+        registry.add("spring.redis.port", () -> redisContainer.getMappedPort(6379));
+        registry.add("spring.redis.lock.duration-seconds", () -> 10);
+        registry.add("consumer.group.size", () -> 0);
+        registry.add("spring.task.scheduling.pool.size", () -> 1);
+    }
+
+    @Test
+    public void testRetiringConsumerFinishesQueuedMessages() throws InterruptedException {
+        // Every message is routed to the last consumer of the group, which is the one to be retired
+        List<String> messageIds = new ArrayList<>();
+        while (messageIds.size() < MESSAGE_COUNT) {
+            String messageId = UUID.randomUUID().toString();
+            if (Math.floorMod(messageId.hashCode(), GROUP_SIZE) == GROUP_SIZE - 1) messageIds.add(messageId);
+        }
+        TestMessageSource messageSource = new TestMessageSource(messageIds);
+        List<MessageIdJsonConsumer> consumers = new ArrayList<>();
+
+        MessageDispatcher<JsonNode> messageDispatcher = new MessageDispatcher<>(
+                () -> {
+                    MessageIdJsonConsumer consumer = new SlowConsumer(lockService, redisConnectionService, consumerMetrics, deduplicator,
+                            processedMessageStream, objectMapper);
+                    consumers.add(consumer);
+                    return consumer;
+                },
+                GROUP_SIZE, messageSource, consumerMetrics, null, null, failedMessageHandler,
+                MESSAGE_COUNT, 1, MessageDispatcher.OverflowPolicy.BLOCK, 1, Duration.ZERO,
+                MessageDispatcher.ExecutionMode.REACTIVE, 1, List.of(), 1, 1
+        );
+        MessageIdJsonConsumer retiringConsumer = consumers.get(GROUP_SIZE - 1);
+        try {
+            // Retire the consumer once it has started on its messages, while the rest of them are still queued for it
+            long deadlineNanos = System.nanoTime() + DRAIN_TIMEOUT.toNanos();
+            while (recordedMessages().isEmpty() && System.nanoTime() - deadlineNanos < 0) Thread.sleep(10);
+            assertTrue(recordedMessages().size() < MESSAGE_COUNT);
+            assertTrue(retiringConsumer.isActive());
+
+            assertEquals(Boolean.TRUE, messageDispatcher.retireConsumer(DRAIN_TIMEOUT).block());
+        } finally {
+            messageDispatcher.close();
+        }
+
+        assertEquals(GROUP_SIZE - 1, messageDispatcher.size());
+        List<StreamMessage<String, String>> recordedMessages = recordedMessages();
+        assertEquals(MESSAGE_COUNT, recordedMessages.size());
+        for (StreamMessage<String, String> recordedMessage : recordedMessages) {
+            assertEquals(retiringConsumer.getConsumerId().toString(), recordedMessage.getBody().get(Message.PROCESSING_CONSUMER_ID_KEY));
+        }
+        assertEquals(MESSAGE_COUNT, messageSource.acknowledged.size());
+
+        // Only once its messages are finished, the consumer is deregistered
+        assertFalse(retiringConsumer.isActive());
+        assertFalse(redisConnectionService.executeSync(syncCommands ->
+                syncCommands.hexists(AbstractConsumer.CONSUMER_ID_KEY, retiringConsumer.getConsumerId().toString())));
+    }
+
+    private List<StreamMessage<String, String>> recordedMessages() {
+        return redisConnectionService.executeSync(syncCommands -> syncCommands.xrange(AbstractConsumer.PROCESSED_MESSAGES_KEY, Range.create("-", "+")));
+    }
+
+    /**
+     * Takes a while to process each message, so messages stay queued for it
+     */
+    private static class SlowConsumer extends MessageIdJsonConsumer {
+
+        private SlowConsumer(
+                LockService lockService,
+                RedisConnectionService redisConnectionService,
+                ConsumerMetrics metrics,
+                Deduplicator deduplicator,
+                ProcessedMessageStream processedMessageStream,
+                ObjectMapper objectMapper
+        ) {
+            super(lockService, redisConnectionService, metrics, deduplicator, processedMessageStream, objectMapper);
+        }
+
+        @Override
+        public Mono<JsonNode> process(JsonNode message) {
+            return super.process(message).delayElement(PROCESSING_DELAY);
+        }
+    }
+
+    /**
+     * Delivers a fixed set of messages, each of which has to be locked, and collects the identifiers of the acknowledged ones
+     */
+    private static class TestMessageSource implements MessageSource {
+        private final List<String> messageIds;
+        private final Queue<String> acknowledged = new ConcurrentLinkedQueue<>();
+
+        private TestMessageSource(List<String> messageIds) {
+            this.messageIds = messageIds;
+        }
+
+        @Override
+        public Flux<SourceMessage> receive() {
+            return Flux.fromIterable(messageIds)
+                    .map(messageId -> new SourceMessage(CHANNEL, messageId,
+                            String.format("{\"%s\":\"%s\"}", Message.MESSAGE_ID_KEY, messageId).getBytes(StandardCharsets.UTF_8)));
+        }
+
+        @Override
+        public void acknowledge(SourceMessage message) {
+            acknowledged.add(message.id());
+        }
+
+        @Override
+        public boolean requiresLock() {
+            return true;
+        }
+    }
+}
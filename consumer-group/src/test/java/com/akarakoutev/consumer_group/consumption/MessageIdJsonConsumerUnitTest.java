@@ -1,9 +1,11 @@
 package com.akarakoutev.consumer_group.consumption;
 
 import com.akarakoutev.consumer_group.consumption.domain.Message;
+import com.akarakoutev.consumer_group.deduplication.Deduplicator;
 import com.akarakoutev.consumer_group.exception.MessageValidationException;
+import com.akarakoutev.consumer_group.lock.LockService;
+import com.akarakoutev.consumer_group.recording.ProcessedMessageStream;
 import com.akarakoutev.consumer_group.redis.RedisConnectionService;
-import com.akarakoutev.consumer_group.redis.RedisLockService;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -38,7 +40,16 @@ class MessageIdJsonConsumerUnitTest {
     private MessageIdJsonConsumer messageIdJsonConsumer;
 
     @Autowired
-    private RedisLockService redisLockService;
+    private LockService lockService;
+
+    @Autowired
+    private ConsumerMetrics consumerMetrics;
+
+    @Autowired
+    private Deduplicator deduplicator;
+
+    @Autowired
+    private ProcessedMessageStream processedMessageStream;
 
     @Autowired
     private RedisConnectionService redisConnectionService;
@@ -83,7 +94,7 @@ class MessageIdJsonConsumerUnitTest {
 
     @Test
     public void testOnActiveConsumer() {
-        MessageIdJsonConsumer testConsumer = new MessageIdJsonConsumer(redisLockService, redisConnectionService, objectMapper);
+        MessageIdJsonConsumer testConsumer = new MessageIdJsonConsumer(lockService, redisConnectionService, consumerMetrics, deduplicator, processedMessageStream, objectMapper);
 
         // Consumer is active
         assertTrue(() -> redisConnectionService.executeSync(syncCommands ->
@@ -0,0 +1,78 @@
+package com.akarakoutev.consumer_group.consumption;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PartitionRingUnitTest {
+
+    private static final int VIRTUAL_NODES = 128;
+    private static final int CONSUMER_COUNT = 8;
+    private static final int KEY_COUNT = 100_000;
+
+    @Test
+    public void testEmptyRingHasNoOwner() {
+        assertNull(PartitionRing.EMPTY.ownerOf(UUID.randomUUID().toString()));
+    }
+
+    @Test
+    public void testOwnersIndependentOfMemberOrder() {
+        List<UUID> consumerIds = consumerIds(CONSUMER_COUNT);
+        PartitionRing ring = PartitionRing.of(consumerIds, VIRTUAL_NODES);
+        PartitionRing reversedRing = PartitionRing.of(consumerIds.reversed(), VIRTUAL_NODES);
+
+        assertTrue(ring.hasSameMembers(reversedRing));
+        for (int index = 0; index < KEY_COUNT; index++) {
+            String key = UUID.randomUUID().toString();
+            assertEquals(ring.ownerOf(key), reversedRing.ownerOf(key));
+        }
+    }
+
+    @Test
+    public void testKeysSpreadEvenly() {
+        List<UUID> consumerIds = consumerIds(CONSUMER_COUNT);
+        PartitionRing ring = PartitionRing.of(consumerIds, VIRTUAL_NODES);
+
+        Map<UUID, Integer> ownedKeys = new HashMap<>();
+        for (int index = 0; index < KEY_COUNT; index++) ownedKeys.merge(ring.ownerOf(UUID.randomUUID().toString()), 1, Integer::sum);
+
+        assertEquals(CONSUMER_COUNT, ownedKeys.size());
+        int fairShare = KEY_COUNT / CONSUMER_COUNT;
+        for (int owned : ownedKeys.values()) assertEquals(fairShare, owned, fairShare * 0.5);
+    }
+
+    @Test
+    public void testAddedConsumerOnlyTakesOverKeys() {
+        List<UUID> consumerIds = consumerIds(CONSUMER_COUNT);
+        PartitionRing ring = PartitionRing.of(consumerIds, VIRTUAL_NODES);
+        UUID addedConsumerId = UUID.randomUUID();
+        List<UUID> grownConsumerIds = new ArrayList<>(consumerIds);
+        grownConsumerIds.add(addedConsumerId);
+        PartitionRing grownRing = PartitionRing.of(grownConsumerIds, VIRTUAL_NODES);
+
+        int movedKeys = 0;
+        for (int index = 0; index < KEY_COUNT; index++) {
+            String key = UUID.randomUUID().toString();
+            UUID owner = grownRing.ownerOf(key);
+            if (owner.equals(ring.ownerOf(key))) continue;
+            // Keys only ever move to the added consumer
+            assertEquals(addedConsumerId, owner);
+            movedKeys++;
+        }
+
+        int fairShare = KEY_COUNT / (CONSUMER_COUNT + 1);
+        assertEquals(fairShare, movedKeys, fairShare * 0.5);
+    }
+
+    private static List<UUID> consumerIds(int count) {
+        List<UUID> consumerIds = new ArrayList<>(count);
+        for (int index = 0; index < count; index++) consumerIds.add(UUID.randomUUID());
+        return consumerIds;
+    }
+}
@@ -0,0 +1,58 @@
+package com.akarakoutev.consumer_group.consumption;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WeightedFairGateUnitTest {
+
+    private static final int PRIORITY_LANE = 0;
+    private static final int BULK_LANE = 1;
+    private static final int QUEUED_PER_LANE = 16;
+
+    @Test
+    public void testPermitsSharedByWeight() {
+        WeightedFairGate gate = new WeightedFairGate(1, new int[] {3, 1});
+        Sinks.Empty<Void> blocker = Sinks.empty();
+        gate.schedule(PRIORITY_LANE, blocker::asMono).subscribe();
+
+        // The bulk lane floods the gate first, while the only permit is taken
+        List<Integer> grantedLanes = new ArrayList<>();
+        for (int index = 0; index < QUEUED_PER_LANE; index++) gate.schedule(BULK_LANE, () -> Mono.fromRunnable(() -> grantedLanes.add(BULK_LANE))).subscribe();
+        for (int index = 0; index < QUEUED_PER_LANE; index++) gate.schedule(PRIORITY_LANE, () -> Mono.fromRunnable(() -> grantedLanes.add(PRIORITY_LANE))).subscribe();
+        assertTrue(grantedLanes.isEmpty());
+
+        blocker.tryEmitEmpty();
+
+        assertEquals(2 * QUEUED_PER_LANE, grantedLanes.size());
+        long priorityGrants = grantedLanes.subList(0, 8).stream().filter(lane -> lane == PRIORITY_LANE).count();
+        assertEquals(6, priorityGrants);
+    }
+
+    @Test
+    public void testCancelledWaiterReturnsNoPermit() {
+        WeightedFairGate gate = new WeightedFairGate(1, new int[] {1, 1});
+        Sinks.Empty<Void> blocker = Sinks.empty();
+        gate.schedule(PRIORITY_LANE, blocker::asMono).subscribe();
+        Disposable cancelled = gate.schedule(BULK_LANE, Mono::<Void>empty).subscribe();
+        cancelled.dispose();
+
+        blocker.tryEmitEmpty();
+
+        // Exactly one permit is free again, so one piece of work starts right away and the next one waits for it
+        Sinks.Empty<Void> secondBlocker = Sinks.empty();
+        gate.schedule(PRIORITY_LANE, secondBlocker::asMono).subscribe();
+        List<Integer> grantedLanes = new ArrayList<>();
+        gate.schedule(BULK_LANE, () -> Mono.fromRunnable(() -> grantedLanes.add(BULK_LANE))).subscribe();
+        assertTrue(grantedLanes.isEmpty());
+
+        secondBlocker.tryEmitEmpty();
+        assertEquals(List.of(BULK_LANE), grantedLanes);
+    }
+}
@@ -0,0 +1,57 @@
+package com.akarakoutev.consumer_group.deduplication;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BloomFilterUnitTest {
+
+    private static final int EXPECTED_INSERTIONS = 10_000;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    @Test
+    public void testNoFalseNegatives() {
+        BloomFilter bloomFilter = BloomFilter.create(EXPECTED_INSERTIONS, FALSE_POSITIVE_RATE);
+        String[] keys = new String[EXPECTED_INSERTIONS];
+        for (int index = 0; index < EXPECTED_INSERTIONS; index++) {
+            keys[index] = UUID.randomUUID().toString();
+            bloomFilter.put(keys[index]);
+        }
+
+        for (String key : keys) assertTrue(bloomFilter.mightContain(key));
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        BloomFilter bloomFilter = BloomFilter.create(EXPECTED_INSERTIONS, FALSE_POSITIVE_RATE);
+        for (int index = 0; index < EXPECTED_INSERTIONS; index++) bloomFilter.put(UUID.randomUUID().toString());
+
+        int falsePositives = 0;
+        for (int index = 0; index < EXPECTED_INSERTIONS; index++) {
+            if (bloomFilter.mightContain(UUID.randomUUID().toString())) falsePositives++;
+        }
+
+        assertTrue(falsePositives < EXPECTED_INSERTIONS * FALSE_POSITIVE_RATE * 2);
+        assertEquals(FALSE_POSITIVE_RATE, bloomFilter.expectedFalsePositiveRate(), FALSE_POSITIVE_RATE);
+    }
+
+    @Test
+    public void testMerge() {
+        BloomFilter bloomFilter = BloomFilter.create(EXPECTED_INSERTIONS, FALSE_POSITIVE_RATE);
+        String key = UUID.randomUUID().toString();
+        long[] positions = bloomFilter.put(key);
+
+        // Rebuild the Redis bitmap of the inserted key
+        long maxPosition = 0;
+        for (long position : positions) maxPosition = Math.max(maxPosition, position);
+        byte[] bitmap = new byte[(int) (maxPosition / Byte.SIZE) + 1];
+        for (long position : positions) bitmap[(int) (position / Byte.SIZE)] |= (byte) (0x80 >>> (position % Byte.SIZE));
+
+        BloomFilter mirroredBloomFilter = BloomFilter.create(EXPECTED_INSERTIONS, FALSE_POSITIVE_RATE);
+        assertFalse(mirroredBloomFilter.mightContain(key));
+        mirroredBloomFilter.merge(bitmap);
+        assertTrue(mirroredBloomFilter.mightContain(key));
+    }
+}
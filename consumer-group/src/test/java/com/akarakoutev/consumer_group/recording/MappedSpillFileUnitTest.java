@@ -0,0 +1,131 @@
+package com.akarakoutev.consumer_group.recording;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedSpillFileUnitTest {
+
+    private static final int CAPACITY = 4096;
+    private static final String STREAM_KEY = "messages:processed";
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    public void testEntriesReadInOrderUntilAdvanced() throws IOException {
+        try (MappedSpillFile spillFile = new MappedSpillFile(directory.resolve("spill"), CAPACITY)) {
+            assertTrue(spillFile.isEmpty());
+            for (int index = 0; index < 3; index++) assertTrue(spillFile.append(entry(index)));
+
+            MappedSpillFile.ReadEntries first = spillFile.read(2);
+            assertEntries(List.of(0, 1), first.entries());
+            // Entries are only removed once advanced past
+            assertEntries(List.of(0, 1), spillFile.read(2).entries());
+            spillFile.advance(first.endOffset());
+
+            MappedSpillFile.ReadEntries rest = spillFile.read(10);
+            assertEntries(List.of(2), rest.entries());
+            spillFile.advance(rest.endOffset());
+            assertTrue(spillFile.isEmpty());
+            assertEquals(0, spillFile.pendingBytes());
+        }
+    }
+
+    @Test
+    public void testRemainingEntriesRecoveredOnReopen() throws IOException {
+        Path path = directory.resolve("spill");
+        try (MappedSpillFile spillFile = new MappedSpillFile(path, CAPACITY)) {
+            for (int index = 0; index < 3; index++) spillFile.append(entry(index));
+            spillFile.advance(spillFile.read(1).endOffset());
+        }
+
+        try (MappedSpillFile spillFile = new MappedSpillFile(path, CAPACITY)) {
+            assertFalse(spillFile.isEmpty());
+            assertEntries(List.of(1, 2), spillFile.read(10).entries());
+        }
+    }
+
+    @Test
+    public void testCorruptHeaderResetsFile() throws IOException {
+        Path path = directory.resolve("spill");
+        try (MappedSpillFile spillFile = new MappedSpillFile(path, CAPACITY)) {
+            spillFile.append(entry(0));
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(2 * Integer.BYTES).putInt(Integer.BYTES).putInt(CAPACITY + 1).flip(), 0);
+        }
+
+        try (MappedSpillFile spillFile = new MappedSpillFile(path, CAPACITY)) {
+            assertTrue(spillFile.isEmpty());
+            assertTrue(spillFile.read(10).entries().isEmpty());
+            assertTrue(spillFile.append(entry(1)));
+            assertEntries(List.of(1), spillFile.read(10).entries());
+        }
+    }
+
+    @Test
+    public void testFullFileRejectsEntriesUntilRead() throws IOException {
+        try (MappedSpillFile spillFile = new MappedSpillFile(directory.resolve("spill"), CAPACITY)) {
+            int appended = 0;
+            while (spillFile.append(entry(appended))) appended++;
+            assertTrue(appended > 1);
+            assertFalse(spillFile.append(entry(appended)));
+
+            // Reading the oldest entries frees their space at the start of the file, which the next entry wraps around to
+            spillFile.advance(spillFile.read(2).endOffset());
+            assertTrue(spillFile.append(entry(appended)));
+
+            List<StreamEntry> entries = spillFile.read(appended + 1).entries();
+            assertEquals(appended - 1, entries.size());
+            assertEntry(appended, entries.get(entries.size() - 1));
+        }
+    }
+
+    @Test
+    public void testSpaceReusedUnderSustainedAppends() throws IOException {
+        try (MappedSpillFile spillFile = new MappedSpillFile(directory.resolve("spill"), CAPACITY)) {
+            int appended = 0;
+            int read = 0;
+            // Many times the capacity of the file passes through it, while it is never empty
+            while (appended < 2000) {
+                for (int count = 0; count < 7; count++) assertTrue(spillFile.append(entry(appended++)));
+                MappedSpillFile.ReadEntries entries = spillFile.read(5);
+                for (StreamEntry entry : entries.entries()) assertEntry(read++, entry);
+                spillFile.advance(entries.endOffset());
+                if (spillFile.pendingBytes() > CAPACITY / 2) {
+                    MappedSpillFile.ReadEntries backlog = spillFile.read(appended);
+                    for (StreamEntry entry : backlog.entries()) assertEntry(read++, entry);
+                    spillFile.advance(backlog.endOffset());
+                }
+            }
+            MappedSpillFile.ReadEntries rest = spillFile.read(appended);
+            for (StreamEntry entry : rest.entries()) assertEntry(read++, entry);
+            assertEquals(appended, read);
+        }
+    }
+
+    private static StreamEntry entry(int index) {
+        return StreamEntry.of(STREAM_KEY, new Object[]{"message_id", String.format("message-%08d", index)});
+    }
+
+    private static void assertEntries(List<Integer> expectedIndexes, List<StreamEntry> entries) {
+        assertEquals(expectedIndexes.size(), entries.size());
+        for (int index = 0; index < entries.size(); index++) assertEntry(expectedIndexes.get(index), entries.get(index));
+    }
+
+    private static void assertEntry(int expectedIndex, StreamEntry entry) {
+        assertEquals(STREAM_KEY, entry.streamKey());
+        assertEquals("message_id", entry.fieldsAndValues()[0]);
+        assertEquals(String.format("message-%08d", expectedIndex), new String((byte[]) entry.fieldsAndValues()[1], StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,21 @@
+plugins {
+    java
+    application
+}
+
+val loadGroup = "load"
+
+dependencies {
+    implementation(platform("org.springframework.boot:spring-boot-dependencies:3.4.4"))
+    implementation("io.lettuce:lettuce-core")
+    implementation("org.hdrhistogram:HdrHistogram:2.2.2")
+    runtimeOnly("ch.qos.logback:logback-classic")
+}
+
+application {
+    mainClass = "com.akarakoutev.load_generator.LoadGenerator"
+}
+
+tasks.named<JavaExec>("run") {
+    group = loadGroup
+}
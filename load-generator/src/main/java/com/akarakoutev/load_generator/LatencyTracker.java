@@ -0,0 +1,187 @@
+package com.akarakoutev.load_generator;
+
+import io.lettuce.core.Limit;
+import io.lettuce.core.Range;
+import io.lettuce.core.StreamMessage;
+import io.lettuce.core.XReadArgs;
+import io.lettuce.core.cluster.SlotHash;
+import io.lettuce.core.cluster.api.sync.RedisClusterCommands;
+import io.lettuce.core.codec.StringCodec;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Measures end-to-end latency by matching the IDs of published messages against the entries appended to {@code messages:processed}, or to all of its shards.
+ * The latency of a message spans from the moment it was due to be published until its first processed entry is read back, so a publisher
+ * falling behind its schedule is accounted for as well.
+ * <br>
+ * In a Redis Cluster, a single {@code XREAD} can only read streams in the same slot, so the shards are read slot by slot, without blocking.
+ * <br>
+ * Entries are read through {@link #CODEC}, which maps every byte to a single character, so a {@code message_id}, recorded as 16 raw bytes by
+ * {@code consumer.output.format=binary}, is recovered exactly, while textual IDs read the same as with UTF-8.
+ */
+class LatencyTracker implements Runnable, AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LatencyTracker.class);
+    static final StringCodec CODEC = new StringCodec(StandardCharsets.ISO_8859_1);
+    private static final int BINARY_ID_LENGTH = 16;
+    private static final String PROCESSED_MESSAGES_KEY = "messages:processed";
+    private static final String SHARD_KEY_FORMAT = PROCESSED_MESSAGES_KEY + ":{%d}";
+    private static final String MESSAGE_ID_FIELD = "message_id";
+    private static final Duration READ_BLOCK = Duration.ofMillis(100);
+    private static final long IDLE_POLL_MILLIS = 1;
+    private static final int READ_COUNT = 1024;
+    private static final long MAX_TRACKABLE_LATENCY = TimeUnit.MINUTES.toMicros(10);
+
+    private final RedisClusterCommands<String, String> commands;
+    private final Collection<List<String>> slotKeys;
+    private final Map<String, Long> pendingMessages = new ConcurrentHashMap<>();
+    private final Recorder recorder = new Recorder(MAX_TRACKABLE_LATENCY, 3);
+    private final Histogram totalHistogram = new Histogram(MAX_TRACKABLE_LATENCY, 3);
+    private final LongAdder processedMessages = new LongAdder();
+    private final LongAdder duplicateMessages = new LongAdder();
+    private final LongAdder unmatchedEntries = new LongAdder();
+    private volatile boolean running = true;
+    private final Map<String, String> lastEntryIds = new LinkedHashMap<>();
+
+    /**
+     * @param commands The commands to read the processed messages with
+     * @param shards The number of shards of the processed messages stream, as configured by {@code consumer.output.shards}
+     * @param cluster Whether the commands are issued to a Redis Cluster
+     */
+    LatencyTracker(RedisClusterCommands<String, String> commands, int shards, boolean cluster) {
+        this.commands = commands;
+        List<String> keys = shards == 1
+                ? List.of(PROCESSED_MESSAGES_KEY)
+                : IntStream.range(0, shards).mapToObj(shard -> String.format(SHARD_KEY_FORMAT, shard)).toList();
+        this.slotKeys = cluster
+                ? keys.stream().collect(Collectors.groupingBy(key -> SlotHash.getSlot(key), LinkedHashMap::new, Collectors.toList())).values()
+                : List.of(keys);
+        // Only entries appended after the start of the run are of interest
+        for (String key : keys) {
+            List<StreamMessage<String, String>> lastEntry = commands.xrevrange(key, Range.create("-", "+"), Limit.from(1));
+            lastEntryIds.put(key, lastEntry.isEmpty() ? "0-0" : lastEntry.get(0).getId());
+        }
+    }
+
+    /**
+     * Mark a message as published. Duplicates of recent messages are counted via {@link #duplicatePublished()} instead, since the consumers skip them,
+     * so they never produce an entry of their own.
+     * @param id The ID of the message
+     * @param intendedStartNanos The time at which the message was due to be published
+     */
+    void published(String id, long intendedStartNanos) {
+        pendingMessages.put(id, intendedStartNanos);
+    }
+
+    /**
+     * Count a published duplicate of a recent message, which is not waited for
+     */
+    void duplicatePublished() {
+        duplicateMessages.increment();
+    }
+
+    int pendingMessages() {
+        return pendingMessages.size();
+    }
+
+    long processedMessages() {
+        return processedMessages.sum();
+    }
+
+    long duplicateMessages() {
+        return duplicateMessages.sum();
+    }
+
+    long unmatchedEntries() {
+        return unmatchedEntries.sum();
+    }
+
+    /**
+     * @return The latencies recorded since the previous call, in microseconds
+     */
+    Histogram intervalHistogram() {
+        Histogram interval = recorder.getIntervalHistogram();
+        synchronized (totalHistogram) {
+            totalHistogram.add(interval);
+        }
+        return interval;
+    }
+
+    /**
+     * @return All latencies recorded so far, in microseconds
+     */
+    Histogram totalHistogram() {
+        intervalHistogram();
+        synchronized (totalHistogram) {
+            return totalHistogram.copy();
+        }
+    }
+
+    private static String messageId(String recordedId) {
+        if (recordedId == null || recordedId.length() != BINARY_ID_LENGTH) return recordedId;
+        ByteBuffer idBytes = ByteBuffer.wrap(recordedId.getBytes(StandardCharsets.ISO_8859_1));
+        return new UUID(idBytes.getLong(), idBytes.getLong()).toString();
+    }
+
+    @Override
+    public void run() {
+        XReadArgs readArgs = slotKeys.size() == 1 ? XReadArgs.Builder.block(READ_BLOCK).count(READ_COUNT) : XReadArgs.Builder.count(READ_COUNT);
+        while (running) {
+            List<StreamMessage<String, String>> entries = new ArrayList<>();
+            for (List<String> keys : slotKeys) {
+                @SuppressWarnings("unchecked")
+                XReadArgs.StreamOffset<String>[] offsets = keys.stream()
+                        .map(key -> XReadArgs.StreamOffset.from(key, lastEntryIds.get(key)))
+                        .toArray(XReadArgs.StreamOffset[]::new);
+                entries.addAll(commands.xread(readArgs, offsets));
+            }
+            if (entries.isEmpty() && slotKeys.size() > 1) {
+                sleepIdle();
+                continue;
+            }
+            long nowNanos = System.nanoTime();
+            for (StreamMessage<String, String> entry : entries) {
+                lastEntryIds.put(entry.getStream(), entry.getId());
+                Long intendedStartNanos = pendingMessages.remove(messageId(entry.getBody().get(MESSAGE_ID_FIELD)));
+                if (intendedStartNanos == null) {
+                    unmatchedEntries.increment();
+                    continue;
+                }
+                recorder.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(nowNanos - intendedStartNanos), MAX_TRACKABLE_LATENCY));
+                processedMessages.increment();
+            }
+        }
+        LOGGER.debug("Stopped tracking processed messages at entries {}", lastEntryIds);
+    }
+
+    private static void sleepIdle() {
+        try {
+            TimeUnit.MILLISECONDS.sleep(IDLE_POLL_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+    }
+}
@@ -0,0 +1,195 @@
+package com.akarakoutev.load_generator;
+
+import io.lettuce.core.AbstractRedisClient;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.api.StatefulConnection;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import io.lettuce.core.cluster.api.sync.RedisClusterCommands;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.IntStream;
+
+/**
+ * Publishes messages to the consumer group at a reproducible rate and reports how long they take to be processed.
+ * <ul>
+ *     <li>{@code open} - messages are published on a fixed schedule of {@code LOAD_RATE} messages per second, regardless of how fast they are processed.
+ *     Latencies are measured from the scheduled publication time, so a publisher, which falls behind, does not hide the delay</li>
+ *     <li>{@code closed} - messages are published as fast as Redis accepts them, with at most {@code LOAD_CONCURRENCY} publications in flight.
+ *     Used to find the throughput at which the consumer group saturates</li>
+ * </ul>
+ * With {@code REDIS_CLUSTER_NODES}, the load generator connects to a Redis Cluster instead of a single node.
+ * @see LoadGeneratorConfig
+ */
+public class LoadGenerator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadGenerator.class);
+    private static final String PUBLISHED_MESSAGES_CHANNEL = "messages:published";
+    private static final String SHARD_CHANNEL_FORMAT = PUBLISHED_MESSAGES_CHANNEL + ":{%d}";
+    private static final String PUBLISHED_MESSAGES_STREAM = "messages:incoming";
+    private static final String PAYLOAD_FIELD = "payload";
+    private static final Duration REPORT_INTERVAL = Duration.ofSeconds(1);
+    private static final double[] REPORTED_PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    private final LoadGeneratorConfig config;
+    private final MessageFactory messageFactory;
+    private final String[] channels;
+    private long publishedSequence;
+    private final LongAdder publishedMessages = new LongAdder();
+    private final LongAdder failedPublications = new LongAdder();
+
+    public LoadGenerator(LoadGeneratorConfig config) {
+        this.config = config;
+        this.messageFactory = new MessageFactory(config.payloadSize(), config.duplicateRatio());
+        this.channels = config.publishShards() == 1
+                ? new String[]{PUBLISHED_MESSAGES_CHANNEL}
+                : IntStream.range(0, config.publishShards()).mapToObj(shard -> String.format(SHARD_CHANNEL_FORMAT, shard)).toArray(String[]::new);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        new LoadGenerator(LoadGeneratorConfig.fromEnvironment(System.getenv())).run();
+    }
+
+    public void run() throws InterruptedException {
+        AbstractRedisClient redisClient = config.cluster()
+                ? RedisClusterClient.create(Arrays.stream(config.clusterNodes().split(",")).map(node -> RedisURI.create("redis://" + node.trim())).toList())
+                : RedisClient.create(RedisURI.create(config.redisHost(), config.redisPort()));
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        try (StatefulConnection<String, String> publishConnection = connect(redisClient);
+             StatefulConnection<String, String> trackingConnection = connect(redisClient, LatencyTracker.CODEC);
+             LatencyTracker latencyTracker = new LatencyTracker(sync(trackingConnection), config.processedShards(), config.cluster())) {
+            LOGGER.info("Publishing to {} at {} in {} mode for {}", config.target(),
+                    config.cluster() ? config.clusterNodes() : config.redisHost() + ":" + config.redisPort(), config.mode(), config.duration());
+
+            Thread trackingThread = new Thread(latencyTracker, "latency-tracker");
+            trackingThread.start();
+            reporter.scheduleAtFixedRate(() -> report(latencyTracker), REPORT_INTERVAL.toMillis(), REPORT_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+
+            RedisClusterAsyncCommands<String, String> asyncCommands = async(publishConnection);
+            if (LoadGeneratorConfig.OPEN_LOOP.equals(config.mode())) {
+                publishOpenLoop(asyncCommands, latencyTracker);
+            } else {
+                publishClosedLoop(asyncCommands, latencyTracker);
+            }
+
+            awaitDrain(latencyTracker);
+            latencyTracker.close();
+            trackingThread.join();
+            summarize(latencyTracker);
+        } finally {
+            reporter.shutdownNow();
+            redisClient.shutdown();
+        }
+    }
+
+    private void publishOpenLoop(RedisClusterAsyncCommands<String, String> asyncCommands, LatencyTracker latencyTracker) {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / config.rate();
+        long startNanos = System.nanoTime();
+        long endNanos = startNanos + config.duration().toNanos();
+        for (long sequence = 0; ; sequence++) {
+            long intendedStartNanos = startNanos + sequence * intervalNanos;
+            if (intendedStartNanos >= endNanos) return;
+            long waitNanos;
+            while ((waitNanos = intendedStartNanos - System.nanoTime()) > 0) LockSupport.parkNanos(waitNanos);
+            publish(asyncCommands, latencyTracker, intendedStartNanos);
+        }
+    }
+
+    private void publishClosedLoop(RedisClusterAsyncCommands<String, String> asyncCommands, LatencyTracker latencyTracker) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(config.concurrency());
+        long endNanos = System.nanoTime() + config.duration().toNanos();
+        while (System.nanoTime() < endNanos) {
+            inFlight.acquire();
+            publish(asyncCommands, latencyTracker, System.nanoTime()).whenComplete((result, error) -> inFlight.release());
+        }
+        inFlight.acquire(config.concurrency());
+    }
+
+    private RedisFuture<?> publish(RedisClusterAsyncCommands<String, String> asyncCommands, LatencyTracker latencyTracker, long intendedStartNanos) {
+        MessageFactory.MessageId messageId = messageFactory.nextId();
+        String id = messageId.value();
+        String payload = messageFactory.payload(id);
+        String channel = channels[(int) (publishedSequence++ % channels.length)];
+        if (messageId.duplicate()) {
+            latencyTracker.duplicatePublished();
+        } else {
+            latencyTracker.published(id, intendedStartNanos);
+        }
+        RedisFuture<?> publication = switch (config.target()) {
+            case LoadGeneratorConfig.STREAM_TARGET -> asyncCommands.xadd(PUBLISHED_MESSAGES_STREAM, PAYLOAD_FIELD, payload);
+            case LoadGeneratorConfig.SHARDED_PUBSUB_TARGET -> asyncCommands.spublish(channel, payload);
+            default -> asyncCommands.publish(channel, payload);
+        };
+        publication.whenComplete((result, error) -> {
+            if (error == null) {
+                publishedMessages.increment();
+            } else {
+                failedPublications.increment();
+                LOGGER.debug("Could not publish message {}", id, error);
+            }
+        });
+        return publication;
+    }
+
+    private static StatefulConnection<String, String> connect(AbstractRedisClient redisClient) {
+        return connect(redisClient, StringCodec.UTF8);
+    }
+
+    private static StatefulConnection<String, String> connect(AbstractRedisClient redisClient, RedisCodec<String, String> codec) {
+        return redisClient instanceof RedisClusterClient redisClusterClient ? redisClusterClient.connect(codec) : ((RedisClient) redisClient).connect(codec);
+    }
+
+    private static RedisClusterAsyncCommands<String, String> async(StatefulConnection<String, String> connection) {
+        return connection instanceof StatefulRedisClusterConnection<String, String> clusterConnection
+                ? clusterConnection.async()
+                : ((StatefulRedisConnection<String, String>) connection).async();
+    }
+
+    private static RedisClusterCommands<String, String> sync(StatefulConnection<String, String> connection) {
+        return connection instanceof StatefulRedisClusterConnection<String, String> clusterConnection
+                ? clusterConnection.sync()
+                : ((StatefulRedisConnection<String, String>) connection).sync();
+    }
+
+    private void awaitDrain(LatencyTracker latencyTracker) throws InterruptedException {
+        long deadlineNanos = System.nanoTime() + config.drainTimeout().toNanos();
+        while (latencyTracker.pendingMessages() > 0 && System.nanoTime() < deadlineNanos) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+    }
+
+    private void report(LatencyTracker latencyTracker) {
+        Histogram interval = latencyTracker.intervalHistogram();
+        LOGGER.info("Published: {}, processed: {}, pending: {}, interval p50: {}us, p99: {}us, max: {}us",
+                publishedMessages.sum(), latencyTracker.processedMessages(), latencyTracker.pendingMessages(),
+                interval.getValueAtPercentile(50), interval.getValueAtPercentile(99), interval.getMaxValue());
+    }
+
+    private void summarize(LatencyTracker latencyTracker) {
+        Histogram total = latencyTracker.totalHistogram();
+        LOGGER.info("Published {} messages ({} failed, {} duplicates), {} were processed, {} were never processed, {} processed entries were not matched",
+                publishedMessages.sum(), failedPublications.sum(), latencyTracker.duplicateMessages(), latencyTracker.processedMessages(),
+                latencyTracker.pendingMessages(), latencyTracker.unmatchedEntries());
+        LOGGER.info("Processed {} messages per second", latencyTracker.processedMessages() / Math.max(1, config.duration().toSeconds()));
+        for (double percentile : REPORTED_PERCENTILES) {
+            LOGGER.info("End-to-end latency p{}: {}us", percentile, total.getValueAtPercentile(percentile));
+        }
+        LOGGER.info("End-to-end latency max: {}us", total.getMaxValue());
+    }
+}
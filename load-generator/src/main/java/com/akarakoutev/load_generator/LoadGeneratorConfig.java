@@ -0,0 +1,77 @@
+package com.akarakoutev.load_generator;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Settings of a load generator run, read from environmental variables in the same way as the Python producer.
+ * @param redisHost The Redis host
+ * @param redisPort The Redis port
+ * @param clusterNodes Comma-separated {@code host:port} seed nodes of a Redis Cluster, or an empty string to connect to {@code redisHost} and {@code redisPort}
+ * @param mode {@code open} publishes at a constant {@code rate}, regardless of how fast messages are processed. {@code closed} publishes as fast as
+ *             the server accepts, with at most {@code concurrency} publications in flight
+ * @param target {@code pubsub} publishes to the {@code messages:published} channel, {@code spubsub} publishes to the same channel via {@code SPUBLISH},
+ *               {@code stream} appends to the {@code messages:incoming} stream
+ * @param rate Messages per second in {@code open} mode
+ * @param concurrency Publications in flight in {@code closed} mode
+ * @param duration How long to publish for
+ * @param drainTimeout How long to wait for outstanding messages to be processed after publishing has stopped
+ * @param payloadSize Approximate size of each payload in bytes. Payloads are padded with an extra field up to this size
+ * @param duplicateRatio Share of messages, between 0 and 1, which reuse the ID of a recently published message
+ * @param processedShards The number of shards of the processed messages stream, which are read for matching published IDs
+ * @param publishShards The number of Pub/Sub channels, between which messages are spread in turn, as configured by {@code consumer.source.pubsub.shards}
+ */
+public record LoadGeneratorConfig(
+        String redisHost,
+        int redisPort,
+        String clusterNodes,
+        String mode,
+        String target,
+        int rate,
+        int concurrency,
+        Duration duration,
+        Duration drainTimeout,
+        int payloadSize,
+        double duplicateRatio,
+        int processedShards,
+        int publishShards
+) {
+
+    public static final String OPEN_LOOP = "open";
+    public static final String CLOSED_LOOP = "closed";
+    public static final String PUBSUB_TARGET = "pubsub";
+    public static final String SHARDED_PUBSUB_TARGET = "spubsub";
+    public static final String STREAM_TARGET = "stream";
+
+    public LoadGeneratorConfig {
+        if (!OPEN_LOOP.equals(mode) && !CLOSED_LOOP.equals(mode)) throw new IllegalArgumentException("Unknown load mode " + mode);
+        if (!PUBSUB_TARGET.equals(target) && !SHARDED_PUBSUB_TARGET.equals(target) && !STREAM_TARGET.equals(target)) throw new IllegalArgumentException("Unknown load target " + target);
+        if (rate <= 0) throw new IllegalArgumentException("The rate must be positive");
+        if (concurrency <= 0) throw new IllegalArgumentException("The concurrency must be positive");
+        if (duplicateRatio < 0 || duplicateRatio > 1) throw new IllegalArgumentException("The duplicate ratio must be between 0 and 1");
+        if (processedShards < 1) throw new IllegalArgumentException("At least one processed messages shard is required");
+        if (publishShards < 1) throw new IllegalArgumentException("At least one Pub/Sub channel is required");
+    }
+
+    public boolean cluster() {
+        return !clusterNodes.isBlank();
+    }
+
+    public static LoadGeneratorConfig fromEnvironment(Map<String, String> environment) {
+        return new LoadGeneratorConfig(
+                environment.getOrDefault("REDIS_HOST", "localhost"),
+                Integer.parseInt(environment.getOrDefault("REDIS_PORT", "6379")),
+                environment.getOrDefault("REDIS_CLUSTER_NODES", ""),
+                environment.getOrDefault("LOAD_MODE", OPEN_LOOP),
+                environment.getOrDefault("LOAD_TARGET", PUBSUB_TARGET),
+                Integer.parseInt(environment.getOrDefault("LOAD_RATE", "10000")),
+                Integer.parseInt(environment.getOrDefault("LOAD_CONCURRENCY", "256")),
+                Duration.ofSeconds(Long.parseLong(environment.getOrDefault("LOAD_DURATION_SECONDS", "60"))),
+                Duration.ofSeconds(Long.parseLong(environment.getOrDefault("LOAD_DRAIN_SECONDS", "10"))),
+                Integer.parseInt(environment.getOrDefault("LOAD_PAYLOAD_BYTES", "0")),
+                Double.parseDouble(environment.getOrDefault("LOAD_DUPLICATE_RATIO", "0")),
+                Integer.parseInt(environment.getOrDefault("LOAD_PROCESSED_SHARDS", "1")),
+                Integer.parseInt(environment.getOrDefault("LOAD_PUBLISH_SHARDS", "1"))
+        );
+    }
+}
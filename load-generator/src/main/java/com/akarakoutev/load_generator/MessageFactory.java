@@ -0,0 +1,51 @@
+package com.akarakoutev.load_generator;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Creates the payloads of published messages. Every payload carries a {@code message_id}, optionally padded up to a fixed size.
+ * A share of the messages reuse the ID of one of the recently created messages, so that consumers compete for the same lock.
+ */
+class MessageFactory {
+
+    private static final int RECENT_IDS = 1024;
+    private static final String PAYLOAD_FORMAT = "{\"message_id\":\"%s\"}";
+    private static final String PADDED_PAYLOAD_FORMAT = "{\"message_id\":\"%s\",\"padding\":\"%s\"}";
+
+    private final String[] recentIds = new String[RECENT_IDS];
+    private final String padding;
+    private final double duplicateRatio;
+    private long createdIds;
+
+    MessageFactory(int payloadSize, double duplicateRatio) {
+        int paddingLength = payloadSize - String.format(PADDED_PAYLOAD_FORMAT, new UUID(0, 0), "").length();
+        this.padding = paddingLength > 0 ? "x".repeat(paddingLength) : null;
+        this.duplicateRatio = duplicateRatio;
+    }
+
+    /**
+     * The ID of a message
+     * @param value The ID
+     * @param duplicate Whether the ID is reused from a recently created message, in which case the message is deduplicated by the consumers
+     */
+    record MessageId(String value, boolean duplicate) {
+    }
+
+    /**
+     * Pick the ID of the next message. Not thread-safe, IDs are expected to be picked by the publishing thread only.
+     * @return A new ID, or a recently used one, in the configured share of cases
+     */
+    MessageId nextId() {
+        if (createdIds > 0 && duplicateRatio > 0 && ThreadLocalRandom.current().nextDouble() < duplicateRatio) {
+            return new MessageId(recentIds[ThreadLocalRandom.current().nextInt((int) Math.min(createdIds, RECENT_IDS))], true);
+        }
+        String id = UUID.randomUUID().toString();
+        recentIds[(int) (createdIds++ % RECENT_IDS)] = id;
+        return new MessageId(id, false);
+    }
+
+    String payload(String id) {
+        return padding == null ? String.format(PAYLOAD_FORMAT, id) : String.format(PADDED_PAYLOAD_FORMAT, id, padding);
+    }
+}
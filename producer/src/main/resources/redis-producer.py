@@ -10,10 +10,19 @@ redis_port = os.environ["REDIS_PORT"]
 target_duration = timedelta(minutes = int(os.environ["PRODUCER_DURATION"]))
 batch_size = int(os.environ["PRODUCER_BATCH_SIZE"])
 indefinite_run = bool(os.environ["PRODUCER_PRODUCE_INDEFINITELY"])
+target = os.environ.get("PRODUCER_TARGET", "pubsub")
+publish_shards = int(os.environ.get("PRODUCER_PUBLISH_SHARDS", "1"))
+cluster = os.environ.get("REDIS_CLUSTER", "False").lower() == "true"
+
+def channel(index):
+    return "messages:published" if publish_shards == 1 else f"messages:published:{{{index % publish_shards}}}"
 
 def publisher():
     try:
-        connection = redis.Redis(host=redis_host, port=redis_port)
+        if cluster:
+            connection = redis.RedisCluster(host=redis_host, port=redis_port)
+        else:
+            connection = redis.Redis(host=redis_host, port=redis_port)
         print(f"Connected to redis at {redis_host}:{redis_port}")
     except redis.ConnectionError:
         print("Error: Failed to connect to Redis server")
@@ -26,8 +35,14 @@ def publisher():
         while datetime.now() - start_time < target_duration or indefinite_run:
             p = connection.pipeline()
             print(f"Sending {batch_size} messages")
-            for _ in range(batch_size):
-                p.publish("messages:published", f'{{"message_id":"{str(uuid.uuid4())}"}}')
+            for index in range(batch_size):
+                message = f'{{"message_id":"{str(uuid.uuid4())}"}}'
+                if target == "stream":
+                    p.xadd("messages:incoming", {"payload": message})
+                elif target == "spubsub":
+                    p.spublish(channel(index), message)
+                else:
+                    p.publish(channel(index), message)
             p.execute()
             total_messages += batch_size
             time.sleep(random.uniform(0.1, 0.5))
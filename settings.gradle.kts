@@ -1,3 +1,3 @@
 rootProject.name = "redis-assignment"
 
-include(":consumer-group", ":producer")
\ No newline at end of file
+include(":consumer-group", ":producer", ":benchmarks", ":load-generator")
\ No newline at end of file